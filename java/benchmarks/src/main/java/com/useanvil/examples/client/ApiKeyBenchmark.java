@@ -0,0 +1,35 @@
+package com.useanvil.examples.client;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.http.HttpRequest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The `Authorization` header work done for every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiKeyBenchmark {
+    private RestClient client;
+
+    @Setup
+    public void setUp() {
+        // The same length as a real API key
+        this.client = new RestClient("Kd8nVNKxhRhKMD0Qb3Q2tSqwMHDEv3wx");
+    }
+
+    @Benchmark
+    public String getApiKey() {
+        return this.client.getApiKey();
+    }
+
+    @Benchmark
+    public HttpRequest.Builder createRequestBuilder() {
+        return this.client.createRequestBuilder("https://app.useanvil.com/api/v1/fill/B5Loz3C7GVortDmn4p2P.pdf");
+    }
+}
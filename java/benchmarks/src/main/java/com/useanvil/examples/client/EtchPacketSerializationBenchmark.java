@@ -0,0 +1,52 @@
+package com.useanvil.examples.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.useanvil.examples.entity.CreateEtchPacket;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing the `createEtchPacket` variables: the String-based path the
+ * examples used to take versus {@link JsonCodec}'s pooled buffers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EtchPacketSerializationBenchmark {
+    // Uploads (and signers) per packet
+    @Param({"2", "20", "100"})
+    public int files;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private CreateEtchPacket packet;
+
+    @Setup
+    public void setUp() {
+        this.packet = Fixtures.etchPacket(this.files, null);
+    }
+
+    @Benchmark
+    public byte[] writeValueAsString() throws Exception {
+        // What `BodyPublishers.ofString` ends up doing with the String
+        return this.objectMapper.writeValueAsString(this.packet).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] writeValueAsBytes() throws Exception {
+        return JsonCodec.CREATE_ETCH_PACKET.writeValueAsBytes(this.packet);
+    }
+
+    @Benchmark
+    public long pooledPublisher() throws Exception {
+        HttpRequest.BodyPublisher publisher = JsonCodec.publisher(JsonCodec.CREATE_ETCH_PACKET, this.packet);
+        long length = Fixtures.drain(publisher);
+        JsonCodec.release(publisher);
+        return length;
+    }
+}
@@ -0,0 +1,177 @@
+package com.useanvil.examples.client;
+
+import com.useanvil.examples.entity.*;
+
+import java.io.Serializable;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * Payloads shaped like the ones the examples send and receive, scaled by a
+ * size factor.
+ */
+class Fixtures {
+    private Fixtures() {
+    }
+
+    /**
+     * A packet like the one `CreateEtchESignPacket` builds, with `files`
+     * uploads of 10 fields each and `files` signers with 2 fields each.
+     *
+     * @param uploads Path of the file behind each upload, or `null` to leave
+     *                the `file` of the uploads empty
+     */
+    static CreateEtchPacket etchPacket(int files, Path uploads) {
+        CreateEtchPacket packet = new CreateEtchPacket();
+        packet.name = "Benchmark packet";
+        packet.isTest = true;
+        packet.signatureEmailSubject = "Please sign these documents";
+        packet.signatureEmailBody = "Custom please sign these documents....";
+
+        List<IAttachable> attachables = new ArrayList<>();
+        attachables.add(new EtchCastRef("sampleTemplate", "B5Loz3C7GVortDmn4p2P"));
+        for (int i = 0; i < files; i++) {
+            CastField[] fields = new CastField[10];
+            for (int j = 0; j < fields.length; j++) {
+                fields[j] = new CastField("field" + j, j % 2 == 0 ? "fullName" : "signature", new Rect(100 + j, 120 + j * 30, 22, 140), j % 3);
+            }
+            attachables.add(uploads != null
+                    ? new FileUpload("upload" + i, "Upload " + i, uploads, fields)
+                    : new FileUpload("upload" + i, "Upload " + i, (Serializable) null, fields));
+        }
+        packet.files = attachables.toArray(new IAttachable[0]);
+
+        EtchSigner[] signers = new EtchSigner[files];
+        for (int i = 0; i < files; i++) {
+            EtchSigner signer = new EtchSigner();
+            signer.id = "signer" + i;
+            signer.name = "Signer Number " + i;
+            signer.email = "signer" + i + "@example.com";
+            signer.signerType = "email";
+            signer.fields = new SignerField[]{
+                    new SignerField("upload" + i, "field1"),
+                    new SignerField("upload" + i, "field3"),
+            };
+            signers[i] = signer;
+        }
+        packet.signers = signers;
+
+        PayloadData data = new PayloadData();
+        HashMap<String, Serializable> templateData = new HashMap<>();
+        templateData.put("name", "Testy Signer");
+        templateData.put("email", "testy@example.com");
+        HashMap<String, Serializable> template = new HashMap<>();
+        template.put("data", templateData);
+        data.payloads.put("sampleTemplate", template);
+        packet.data = data;
+
+        return packet;
+    }
+
+    /**
+     * A `currentUser` response (see `queries/current-user.graphql`) for a user
+     * in `organizations` organizations with 20 casts and 20 welds each.
+     */
+    static byte[] currentUserResponse(int organizations) {
+        StringBuilder json = new StringBuilder("{\"data\":{\"currentUser\":{\"eid\":\"nxflNAc3lhgj4ECt5x9n\",\"name\":\"Testy\",\"organizations\":[");
+        for (int i = 0; i < organizations; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"eid\":\"org").append(i).append("\",\"slug\":\"org-").append(i).append("\",\"name\":\"Organization ").append(i).append("\",\"casts\":[");
+            for (int j = 0; j < 20; j++) {
+                json.append(j > 0 ? "," : "").append("{\"eid\":\"cast").append(i).append('-').append(j).append("\",\"name\":\"Template ").append(j).append("\"}");
+            }
+            json.append("],\"welds\":[");
+            for (int j = 0; j < 20; j++) {
+                json.append(j > 0 ? "," : "").append("{\"eid\":\"weld").append(i).append('-').append(j).append("\",\"name\":\"Workflow ").append(j).append("\"}");
+            }
+            json.append("]}");
+        }
+        json.append("]}}}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Subscribes to `publisher` and counts the bytes it produces, the way the
+     * HTTP client would consume it (minus the socket).
+     */
+    static long drain(HttpRequest.BodyPublisher publisher) throws Exception {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<ByteBuffer>() {
+            private long count;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                this.count += item.remaining();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                result.complete(this.count);
+            }
+        });
+        return result.get();
+    }
+
+    /**
+     * Feeds `body` to the subscriber of `handler` in `chunkSize` pieces, the
+     * way the HTTP client delivers a response.
+     */
+    static <T> T receive(HttpResponse.BodyHandler<T> handler, byte[] body, int chunkSize) throws Exception {
+        HttpResponse.BodySubscriber<T> subscriber = handler.apply(new OkResponseInfo());
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        for (int offset = 0; offset < body.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, body.length - offset);
+            subscriber.onNext(List.of(ByteBuffer.wrap(body, offset, length)));
+        }
+        subscriber.onComplete();
+        return subscriber.getBody().toCompletableFuture().get();
+    }
+
+    private static class OkResponseInfo implements HttpResponse.ResponseInfo {
+        @Override
+        public int statusCode() {
+            return 200;
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return HttpHeaders.of(Map.of("Content-Type", List.of("application/json")), (name, value) -> true);
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_1_1;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.useanvil.examples.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting `data.currentUser` out of a response: buffering the body into a
+ * String and parsing the whole tree, versus {@link GraphqlBodyHandlers}
+ * decoding it as it arrives.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphqlResponseParsingBenchmark {
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    @Param({"1", "10", "100"})
+    public int organizations;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] body;
+    private HttpResponse.BodyHandler<GraphqlResult<JsonNode>> extracting;
+
+    @Setup
+    public void setUp() {
+        this.body = Fixtures.currentUserResponse(this.organizations);
+        this.extracting = GraphqlBodyHandlers.of("data.currentUser", JsonNode.class);
+    }
+
+    @Benchmark
+    public JsonNode stringThenReadTree() throws Exception {
+        String response = Fixtures.receive(HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8), this.body, CHUNK_SIZE);
+        return this.objectMapper.readTree(response).get("data").get("currentUser");
+    }
+
+    @Benchmark
+    public JsonNode bodyHandler() throws Exception {
+        return Fixtures.receive(this.extracting, this.body, CHUNK_SIZE).getDataOrThrow();
+    }
+}
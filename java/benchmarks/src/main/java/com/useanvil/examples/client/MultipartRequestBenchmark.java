@@ -0,0 +1,71 @@
+package com.useanvil.examples.client;
+
+import com.useanvil.examples.entity.CreateEtchPacket;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.http.HttpRequest;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and consuming the multipart body that
+ * `GraphqlClient.doRequest(Path, CreateEtchPacket, Map)` sends, with every
+ * upload backed by a PDF-sized file on disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultipartRequestBenchmark {
+    @Param({"2", "10"})
+    public int files;
+
+    @Param({"100", "2048"})
+    public int fileSizeKb;
+
+    private GraphqlClient client;
+    private String query;
+    private CreateEtchPacket packet;
+    private Map<Integer, Path> uploads;
+    private Path upload;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.client = new GraphqlClient("benchmark-api-key");
+        this.query = this.client.operations.get("create-etch-packet").getQuery();
+
+        byte[] contents = new byte[this.fileSizeKb * 1024];
+        new Random(42).nextBytes(contents);
+        this.upload = Files.createTempFile("benchmark", ".pdf");
+        Files.write(this.upload, contents);
+
+        this.packet = Fixtures.etchPacket(this.files, this.upload);
+        this.uploads = new LinkedHashMap<>();
+        // Index 0 is the cast reference
+        for (int i = 1; i <= this.files; i++) {
+            this.uploads.put(i, this.upload);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(this.upload);
+    }
+
+    @Benchmark
+    public HttpRequest buildRequest() throws Exception {
+        return this.client.buildMultipartRequest(this.query, this.packet, this.uploads);
+    }
+
+    @Benchmark
+    public long buildAndSendBody() throws Exception {
+        HttpRequest request = this.client.buildMultipartRequest(this.query, this.packet, this.uploads);
+        return Fixtures.drain(request.bodyPublisher().orElseThrow());
+    }
+}
@@ -6,6 +6,15 @@ public class Constants {
     public static final String GRAPHQL_ENDPOINT = Constants.BASE_URL + "/graphql";
     public static final String REST_ENDPOINT = BASE_URL + "/api/v1/";
 
+    // Paths of the endpoints above, for use with `getBaseUrl()`
+    public static final String GRAPHQL_PATH = "/graphql";
+    public static final String REST_PATH = "/api/v1/";
+
+    // Set either of these to send requests somewhere other than `BASE_URL`,
+    // e.g. `http://localhost:8089` for the `mock-server` example.
+    public static final String BASE_URL_ENV = "ANVIL_BASE_URL";
+    public static final String BASE_URL_PROPERTY = "anvil.baseUrl";
+
     // https://www.useanvil.com/docs/api/fill-pdf
     public static final String FillPdf = "fill/%s.pdf";
 
@@ -25,4 +34,20 @@ public class Constants {
     // This will use the latest _published_ version of your object (PDF templates, forges,
     // workflows). This is the default if a version number isn't provided.
     public static final int PUBLISHED_VERSION_INT = -2;
+
+    /**
+     * The server the clients talk to: the `anvil.baseUrl` system property,
+     * then the `ANVIL_BASE_URL` environment variable, then `BASE_URL`.
+     */
+    public static String getBaseUrl() {
+        String baseUrl = System.getProperty(BASE_URL_PROPERTY);
+        if (baseUrl == null || baseUrl.isBlank()) {
+            baseUrl = System.getenv(BASE_URL_ENV);
+        }
+        if (baseUrl == null || baseUrl.isBlank()) {
+            return BASE_URL;
+        }
+        baseUrl = baseUrl.trim();
+        return baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
 }
@@ -12,10 +12,28 @@ public class Main {
             new AbstractMap.SimpleEntry<>("fill-pdf", FillPdf.class),
             new AbstractMap.SimpleEntry<>("generate-html-to-pdf", GenerateHtmlToPdf.class),
             new AbstractMap.SimpleEntry<>("generate-markdown-to-pdf", GenerateMarkdownToPdf.class),
+            new AbstractMap.SimpleEntry<>("generate-streaming-report", GenerateStreamingReport.class),
             new AbstractMap.SimpleEntry<>("create-update-workflow", CreateUpdateWorkflowSubmission.class),
-            new AbstractMap.SimpleEntry<>("create-etch-packet", CreateEtchESignPacket.class)
+            new AbstractMap.SimpleEntry<>("create-etch-packet", CreateEtchESignPacket.class),
+            new AbstractMap.SimpleEntry<>("bulk-fill-pdf", BulkFillPdf.class),
+            new AbstractMap.SimpleEntry<>("bulk-workflow-submission", BulkWorkflowSubmission.class),
+            new AbstractMap.SimpleEntry<>("bulk-etch-packet", BulkEtchESignPacket.class),
+            new AbstractMap.SimpleEntry<>("download-documents", DownloadDocuments.class),
+            new AbstractMap.SimpleEntry<>("mock-server", MockServer.class),
+            new AbstractMap.SimpleEntry<>("daemon", Daemon.class)
     );
 
+    /**
+     * A new instance of the runnable registered under `name`, e.g. `fill-pdf`.
+     */
+    public static IRunnable newRunnable(String name) throws ReflectiveOperationException {
+        Class<? extends IRunnable> runnable = name == null ? null : Main.runnableMap.get(name);
+        if (runnable == null) {
+            throw new IllegalArgumentException("Unknown runnable: " + name);
+        }
+        return runnable.getDeclaredConstructor().newInstance();
+    }
+
 
     public static void main(String[] args) throws Exception {
         // Get your API key from your Anvil organization settings.
@@ -35,12 +53,10 @@ public class Main {
             }
         }
 
-        System.out.println("Running: " + toRun);
+        // The daemon's stdout only carries job results
+        ("daemon".equals(toRun) ? System.err : System.out).println("Running: " + toRun);
 
-        IRunnable runnable = Main.runnableMap
-                .get(toRun)
-                .getDeclaredConstructor()
-                .newInstance();
+        IRunnable runnable = Main.newRunnable(toRun);
 
         if (otherArg != null && !otherArg.isBlank()) {
             runnable.run(apiKey, otherArg);
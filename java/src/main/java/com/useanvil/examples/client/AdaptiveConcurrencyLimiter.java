@@ -0,0 +1,235 @@
+package com.useanvil.examples.client;
+
+import com.useanvil.examples.metrics.ConcurrencyLimitMXBean;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Limits how many requests to one kind of endpoint are in flight at once, and
+ * finds that limit by watching their round trips instead of taking it as a
+ * fixed setting. A limit that suits small fills overloads the API when large
+ * templates come through, and one that suits large templates wastes time on
+ * small ones.
+ *
+ * The limit is adjusted Vegas-style after every request. The recent RTT (an
+ * average over the last few requests) is compared to a baseline that drifts
+ * slowly. From how far the recent RTT is above the baseline, it estimates
+ * how many requests are queued at the server:
+ *
+ * * few queued, and the limit is actually being used: the limit grows by
+ *   about one per round trip
+ * * many queued: it shrinks by about one per round trip
+ * * a 429, 5xx or I/O error: it is cut by 10%, at most once per round trip
+ *
+ * The baseline follows a falling RTT quickly and a rising one only over a
+ * few hundred requests, so a lasting change such as a switch to bigger
+ * templates becomes the new normal rather than holding the limit down for
+ * good.
+ *
+ * Calls never block: {@link #acquire()} returns a future that completes once
+ * a slot is free, and waiters are let in in order.
+ */
+public class AdaptiveConcurrencyLimiter implements ConcurrencyLimitMXBean {
+    public static final int DEFAULT_INITIAL_LIMIT = 8;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 128;
+
+    private static final double RECENT_WEIGHT = 0.1;
+    private static final double BASELINE_WEIGHT = 1.0 / 500;
+    // Estimated queued requests below which the limit grows, and above which it shrinks
+    private static final double ALPHA = 3;
+    private static final double BETA = 6;
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final String endpoint;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final Queue<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private boolean draining;
+
+    private double recentRttNanos;
+    private double baselineRttNanos;
+    private long lastDropNanos;
+    private long drops;
+
+    public AdaptiveConcurrencyLimiter(String endpoint) {
+        this(endpoint, DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    public AdaptiveConcurrencyLimiter(String endpoint, int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Need 1 <= minLimit <= maxLimit");
+        }
+        this.endpoint = endpoint;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Completes once the caller may send. Every completed acquire must be
+     * followed by exactly one {@link #release} or {@link #cancel}; cancelling
+     * the returned future instead gives up the place in line.
+     */
+    public CompletableFuture<Void> acquire() {
+        CompletableFuture<Void> slot = new CompletableFuture<>();
+        synchronized (this) {
+            this.waiting.add(slot);
+        }
+        this.drain();
+        return slot;
+    }
+
+    /**
+     * Gives a slot back and adjusts the limit.
+     *
+     * @param rttNanos From sending until the response headers arrived
+     * @param dropped  Whether the request was turned away or failed: a 429,
+     *                 5xx or I/O error
+     */
+    public void release(long rttNanos, boolean dropped) {
+        synchronized (this) {
+            this.inFlight--;
+            if (dropped) {
+                this.onDrop();
+            } else if (rttNanos > 0) {
+                this.onSample(rttNanos);
+            }
+        }
+        this.drain();
+    }
+
+    /**
+     * Gives a slot back without a sample, e.g. for a cancelled request.
+     */
+    public void cancel() {
+        synchronized (this) {
+            this.inFlight--;
+        }
+        this.drain();
+    }
+
+    private void onSample(long rttNanos) {
+        if (this.recentRttNanos == 0) {
+            this.recentRttNanos = rttNanos;
+            this.baselineRttNanos = rttNanos;
+            return;
+        }
+        this.recentRttNanos += (rttNanos - this.recentRttNanos) * RECENT_WEIGHT;
+        // Quick to follow the RTT down, slow to follow it up
+        this.baselineRttNanos += (rttNanos - this.baselineRttNanos) * (rttNanos < this.baselineRttNanos ? RECENT_WEIGHT : BASELINE_WEIGHT);
+
+        double queued = this.limit * (1 - this.baselineRttNanos / this.recentRttNanos);
+        if (queued < ALPHA) {
+            // Growing a limit that isn't reached would only let a burst through later
+            if (this.inFlight + 1 >= this.limit / 2) {
+                this.limit = Math.min(this.maxLimit, this.limit + 1 / this.limit);
+            }
+        } else if (queued > BETA) {
+            this.limit = Math.max(this.minLimit, this.limit - 1 / this.limit);
+        }
+    }
+
+    private void onDrop() {
+        long now = System.nanoTime();
+        // Requests in flight together tend to fail together; count them once
+        if (this.drops > 0 && now - this.lastDropNanos < this.recentRttNanos) {
+            return;
+        }
+        this.drops++;
+        this.lastDropNanos = now;
+        this.limit = Math.max(this.minLimit, this.limit * BACKOFF_RATIO);
+    }
+
+    /**
+     * Lets waiters in while there is room. Completing a waiter may send a
+     * request that fails right away and releases again; whoever is draining
+     * picks that slot up rather than recursing.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (this.draining) {
+                return;
+            }
+            this.draining = true;
+        }
+        while (true) {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                next = this.waiting.peek();
+                if (next == null || this.inFlight >= (int) this.limit) {
+                    this.draining = false;
+                    return;
+                }
+                this.waiting.poll();
+                if (next.isDone()) {
+                    // Cancelled while waiting
+                    continue;
+                }
+                this.inFlight++;
+            }
+            if (!next.complete(null)) {
+                // Cancelled just now
+                synchronized (this) {
+                    this.inFlight--;
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getEndpoint() {
+        return this.endpoint;
+    }
+
+    @Override
+    public synchronized int getLimit() {
+        return (int) this.limit;
+    }
+
+    @Override
+    public synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    @Override
+    public synchronized int getQueued() {
+        return this.waiting.size();
+    }
+
+    @Override
+    public synchronized double getRecentRttMillis() {
+        return this.recentRttNanos / 1_000_000;
+    }
+
+    @Override
+    public synchronized double getBaselineRttMillis() {
+        return this.baselineRttNanos / 1_000_000;
+    }
+
+    @Override
+    public synchronized long getDropCount() {
+        return this.drops;
+    }
+
+    /**
+     * e.g. `fill: limit 12 (8 in flight, 0 queued), rtt 850.2ms / baseline 790.4ms, 1 drops`
+     */
+    public synchronized String summary() {
+        return String.format(
+                "%s: limit %d (%d in flight, %d queued), rtt %.1fms / baseline %.1fms, %d drops",
+                this.endpoint,
+                (int) this.limit,
+                this.inFlight,
+                this.waiting.size(),
+                this.recentRttNanos / 1_000_000,
+                this.baselineRttNanos / 1_000_000,
+                this.drops
+        );
+    }
+}
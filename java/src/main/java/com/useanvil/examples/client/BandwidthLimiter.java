@@ -0,0 +1,52 @@
+package com.useanvil.examples.client;
+
+/**
+ * A token bucket of bytes per second, shared by every download it is set on,
+ * e.g. to keep a bulk archive job from saturating the office uplink.
+ *
+ * Up to one second's worth of bytes may be read in a burst. Readers reserve
+ * what they just received and wait for the returned time before asking for
+ * more, so concurrent downloads split the budget between them.
+ *
+ * Set it with {@link RestClient#setBandwidthLimiter(BandwidthLimiter)}.
+ */
+public class BandwidthLimiter {
+    private final long bytesPerSecond;
+    private final double nanosPerByte;
+
+    // When the bucket is full again. Reservations past `now` are debt.
+    private long refilledAtNanos = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond Sustained download rate across all readers
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be positive");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.nanosPerByte = 1_000_000_000.0 / bytesPerSecond;
+    }
+
+    public long getBytesPerSecond() {
+        return this.bytesPerSecond;
+    }
+
+    /**
+     * Takes `bytes` from the bucket.
+     *
+     * @return How long to wait before reading more, in nanoseconds. `0` when
+     * the bucket still had the bytes.
+     */
+    public synchronized long reserve(long bytes) {
+        long now = System.nanoTime();
+        long burstNanos = 1_000_000_000L;
+        // An idle bucket holds at most one second's worth
+        if (now - this.refilledAtNanos > burstNanos) {
+            this.refilledAtNanos = now - burstNanos;
+        }
+        this.refilledAtNanos += (long) (bytes * this.nanosPerByte);
+        long debt = this.refilledAtNanos - now;
+        return Math.max(0, debt);
+    }
+}
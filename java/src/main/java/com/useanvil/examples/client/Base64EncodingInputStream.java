@@ -0,0 +1,82 @@
+package com.useanvil.examples.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Base64;
+
+/**
+ * Reads `source` as standard, padded base64, a few KB at a time.
+ */
+class Base64EncodingInputStream extends InputStream {
+    // Must be a multiple of 3 so that only the last chunk gets padding
+    private static final int CHUNK = 3 * 4096;
+
+    private final InputStream source;
+    private final Base64.Encoder encoder = Base64.getEncoder();
+    private final byte[] raw = new byte[CHUNK];
+    private final byte[] encoded = new byte[CHUNK / 3 * 4];
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    Base64EncodingInputStream(InputStream source) {
+        this.source = source;
+    }
+
+    static long encodedLength(long length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!this.fill()) {
+            return -1;
+        }
+        return this.encoded[this.position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!this.fill()) {
+            return -1;
+        }
+        int n = Math.min(len, this.limit - this.position);
+        System.arraycopy(this.encoded, this.position, b, off, n);
+        this.position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.source.close();
+    }
+
+    private boolean fill() throws IOException {
+        if (this.position < this.limit) {
+            return true;
+        }
+        if (this.eof) {
+            return false;
+        }
+
+        int read = this.source.readNBytes(this.raw, 0, CHUNK);
+        if (read < CHUNK) {
+            this.eof = true;
+        }
+        if (read == 0) {
+            return false;
+        }
+
+        byte[] input = this.raw;
+        if (read < CHUNK) {
+            input = new byte[read];
+            System.arraycopy(this.raw, 0, input, 0, read);
+        }
+        this.limit = this.encoder.encode(input, this.encoded);
+        this.position = 0;
+        return true;
+    }
+}
@@ -1,17 +1,40 @@
 package com.useanvil.examples.client;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.mizosoft.methanol.MoreBodySubscribers;
+import com.useanvil.examples.Constants;
+import com.useanvil.examples.metrics.ClientMetrics;
+import com.useanvil.examples.metrics.HttpRequestEvent;
+import com.useanvil.examples.metrics.OperationMetrics;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.Base64;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class BaseClient {
+    public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(30);
+
+    protected HttpTransport transport;
     protected HttpClient client;
+    // Set in the subclass constructors, see `getScheduler`
+    protected volatile RequestScheduler scheduler;
+    protected volatile ClientMetrics metrics = ClientMetrics.getDefault();
     protected String _apiKey;
     protected ObjectMapper _objectMapper;
+    protected String baseUrl = Constants.getBaseUrl();
+    protected Duration requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+    protected Duration readTimeout = DEFAULT_READ_TIMEOUT;
+    protected HedgePolicy hedgePolicy;
 
     public String getApiKey() throws RuntimeException {
         if (this._apiKey.isBlank() || this._apiKey == null) {
@@ -22,10 +45,389 @@ public class BaseClient {
     }
 
     protected HttpRequest.Builder createRequestBuilder(String endpoint) throws RuntimeException {
-        return HttpRequest.newBuilder()
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
                 .uri(URI.create(endpoint))
-                .timeout(Duration.ofSeconds(30))
                 .header("Authorization", "Basic " + this.getApiKey())
                 .header("Content-Type", "application/json");
+        if (this.requestTimeout != null) {
+            builder.timeout(this.requestTimeout);
+        }
+        return builder;
+    }
+
+    public Duration getRequestTimeout() {
+        return this.requestTimeout;
+    }
+
+    /**
+     * How long each attempt may take until its response headers arrive,
+     * including sending the request body; 30 seconds by default, `null` waits
+     * as long as it takes. Applies to requests built after the call.
+     */
+    public void setRequestTimeout(Duration requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public Duration getReadTimeout() {
+        return this.readTimeout;
+    }
+
+    /**
+     * How long a response body may go without receiving data before the
+     * attempt fails with an `HttpReadTimeoutException`; 30 seconds by
+     * default, `null` waits as long as it takes.
+     */
+    public void setReadTimeout(Duration readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public HedgePolicy getHedgePolicy() {
+        return this.hedgePolicy;
+    }
+
+    /**
+     * Sends a second copy of requests that are slower than usual to respond
+     * and takes whichever answers first, see {@link HedgePolicy}. Only
+     * idempotent requests of the operations {@link #isHedged} allows are
+     * hedged, and never ones whose body is streamed as it is produced (e.g. a
+     * {@link StreamingGeneratePayload}). `null` (the default) never hedges.
+     *
+     * Each hedge is a real request to the API; on plans that bill per
+     * render, a hedged render can be billed twice.
+     */
+    public void setHedgePolicy(HedgePolicy hedgePolicy) {
+        this.hedgePolicy = hedgePolicy;
+    }
+
+    /**
+     * Whether requests of `operation` may be hedged. None by default.
+     */
+    protected boolean isHedged(String operation) {
+        return false;
+    }
+
+    public String getBaseUrl() {
+        return this.baseUrl;
+    }
+
+    /**
+     * Sends this client's requests to another server, e.g. a
+     * {@link com.useanvil.examples.mock.MockAnvilServer}. Defaults to
+     * {@link Constants#getBaseUrl()}.
+     */
+    public void setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    /**
+     * The scheduler shared by all clients with this API key, see
+     * {@link RequestScheduler#forApiKey(String)}.
+     */
+    public RequestScheduler getScheduler() {
+        return this.scheduler;
+    }
+
+    /**
+     * Replaces the scheduler shared by all clients with this API key, e.g. to
+     * set the rate limit of your plan or the retry budget.
+     */
+    public void setScheduler(RequestScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Which {@link AdaptiveConcurrencyLimiter} and {@link CircuitBreaker}
+     * requests of `operation` share. By default every operation has its own.
+     */
+    protected String getEndpointClass(String operation) {
+        return operation;
+    }
+
+    public ClientMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Reports this client's requests somewhere other than
+     * {@link ClientMetrics#getDefault()}.
+     */
+    public void setMetrics(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    protected <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler, boolean idempotent) throws IOException, InterruptedException {
+        return this.send(request.uri().getPath(), request, bodyHandler, idempotent);
+    }
+
+    /**
+     * Sends `request` through the scheduler and waits for the response.
+     *
+     * @param operation  Name the request is reported under in
+     *                   {@link #getMetrics()}, e.g. `fill`
+     * @param idempotent Whether the request may be retried after a 5xx
+     *                   response or an I/O error. Rate-limited (429)
+     *                   requests are always retried.
+     */
+    protected <T> HttpResponse<T> send(String operation, HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler, boolean idempotent) throws IOException, InterruptedException {
+        return this.await(this.sendAsync(operation, request, bodyHandler, idempotent));
+    }
+
+    /**
+     * Waits for `pending`, cancelling it if the thread is interrupted, and
+     * unwraps failures into the exceptions `send` declares.
+     */
+    protected <T> T await(CompletableFuture<T> pending) throws IOException, InterruptedException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            pending.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = RequestScheduler.unwrap(e.getCause());
+            // e.g. how the HttpClient reports a request body that failed to read
+            if (cause instanceof UncheckedIOException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    protected <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler, boolean idempotent) {
+        return this.sendAsync(request.uri().getPath(), request, bodyHandler, idempotent);
+    }
+
+    /**
+     * Sends `request` through the scheduler without blocking the calling
+     * thread.
+     *
+     * Cancelling the returned future abandons the request: on Java 16+ the
+     * HTTP exchange is aborted, and on every version the response body
+     * transfer is stopped as soon as it starts.
+     *
+     * A pooled request body (see {@link JsonCodec}) is recycled once the
+     * request, including any retries, is finished.
+     */
+    protected <T> CompletableFuture<HttpResponse<T>> sendAsync(String operation, HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler, boolean idempotent) {
+        OperationMetrics metrics = this.getMetrics().operation(operation);
+        long startNanos = metrics.started();
+        AtomicInteger attempts = new AtomicInteger();
+        // A body of unknown length is produced while it is sent: a hedge would
+        // run the producer a second time and upload it all again, and its
+        // slow first byte is the upload, not the server
+        boolean streamed = request.bodyPublisher().map(body -> body.contentLength() < 0).orElse(false);
+        HedgePolicy hedging = idempotent && !streamed && this.isHedged(operation) ? this.hedgePolicy : null;
+
+        CompletableFuture<HttpResponse<T>> result = this.getScheduler().submit(
+                handler -> hedging != null
+                        ? this.sendHedged(hedging, operation, metrics, startNanos, attempts.getAndIncrement(), request, handler)
+                        : this.sendOnce(operation, metrics, startNanos, attempts.getAndIncrement(), request, handler),
+                bodyHandler,
+                idempotent
+        );
+        result.whenComplete((response, throwable) -> {
+            metrics.finished(startNanos, response != null ? response.statusCode() : -1, throwable != null ? RequestScheduler.unwrap(throwable) : null);
+            request.bodyPublisher().ifPresent(JsonCodec::release);
+        });
+        return result;
+    }
+
+    /**
+     * Sends one attempt, and a second copy of it if it is slow to respond
+     * and `policy` allows.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendHedged(
+            HedgePolicy policy,
+            String operation,
+            OperationMetrics metrics,
+            long callStartNanos,
+            int attempt,
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> bodyHandler
+    ) {
+        policy.deposit();
+        long delay = policy.delayNanos(metrics);
+        if (delay < 0) {
+            return this.sendOnce(operation, metrics, callStartNanos, attempt, request, bodyHandler);
+        }
+        return HedgedRequest.send(
+                policy,
+                delay,
+                this.getScheduler(),
+                this.getScheduler().getConcurrencyLimiter(this.getEndpointClass(operation)),
+                metrics,
+                handler -> this.sendOnce(operation, metrics, callStartNanos, attempt, request, handler),
+                bodyHandler
+        );
+    }
+
+    /**
+     * Sends one attempt unless the endpoint's circuit breaker is open, and
+     * tells the breaker how it went.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendOnce(
+            String operation,
+            OperationMetrics metrics,
+            long callStartNanos,
+            int attempt,
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> bodyHandler
+    ) {
+        String endpointClass = this.getEndpointClass(operation);
+        CircuitBreaker breaker = this.getScheduler().getCircuitBreaker(endpointClass);
+        if (breaker == null) {
+            return this.sendLimited(endpointClass, operation, metrics, callStartNanos, attempt, request, bodyHandler);
+        }
+        this.getMetrics().breaker(breaker);
+        if (!breaker.tryAcquire()) {
+            return CompletableFuture.failedFuture(new CircuitBreakerOpenException(endpointClass, breaker.getRetryAfter()));
+        }
+
+        CompletableFuture<HttpResponse<T>> result = this.sendLimited(endpointClass, operation, metrics, callStartNanos, attempt, request, bodyHandler);
+        result.whenComplete((response, throwable) -> {
+            Throwable cause = throwable != null ? RequestScheduler.unwrap(throwable) : null;
+            if (cause instanceof IOException || (cause == null && response.statusCode() >= 500)) {
+                breaker.onFailure();
+            } else if (cause != null || response.statusCode() == 429) {
+                // Cancelled, rate limited or failed on our side
+                breaker.onIgnored();
+            } else {
+                breaker.onSuccess();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Sends one attempt once the endpoint's concurrency limiter has a slot
+     * for it.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendLimited(
+            String endpointClass,
+            String operation,
+            OperationMetrics metrics,
+            long callStartNanos,
+            int attempt,
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> bodyHandler
+    ) {
+        AdaptiveConcurrencyLimiter limiter = this.getScheduler().getConcurrencyLimiter(endpointClass);
+        if (limiter == null) {
+            return this.transmit(operation, metrics, callStartNanos, attempt, request, bodyHandler, null);
+        }
+        this.getMetrics().limit(limiter);
+
+        // Not `slot.thenCompose(...)`: cancelling that would leave the
+        // attempt it starts running, and holding its slot
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        CompletableFuture<Void> slot = limiter.acquire();
+        slot.whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                // Gave up the place in line
+                result.completeExceptionally(throwable);
+                return;
+            }
+            if (result.isDone()) {
+                // Cancelled just as the slot was granted
+                limiter.cancel();
+                return;
+            }
+            CompletableFuture<HttpResponse<T>> inFlight = this.transmit(operation, metrics, callStartNanos, attempt, request, bodyHandler, limiter);
+            inFlight.whenComplete((response, failure) -> {
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete(response);
+                }
+            });
+            result.whenComplete((response, failure) -> {
+                if (result.isCancelled()) {
+                    inFlight.cancel(true);
+                }
+            });
+        });
+        result.whenComplete((response, throwable) -> {
+            if (result.isCancelled()) {
+                // Gives up the place in line if it is still waiting
+                slot.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Sends one attempt and, with a `limiter`, gives its slot back with the
+     * attempt's RTT when it is done.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> transmit(
+            String operation,
+            OperationMetrics metrics,
+            long callStartNanos,
+            int attempt,
+            HttpRequest request,
+            HttpResponse.BodyHandler<T> bodyHandler,
+            AdaptiveConcurrencyLimiter limiter
+    ) {
+        HttpRequestEvent event = new HttpRequestEvent();
+        event.begin();
+        long sentNanos = System.nanoTime();
+        Duration readTimeout = this.readTimeout;
+        MeteringBodyHandler<T> metered = new MeteringBodyHandler<>(
+                readTimeout == null ? bodyHandler : responseInfo -> MoreBodySubscribers.withReadTimeout(bodyHandler.apply(responseInfo), readTimeout),
+                sentNanos
+        );
+        CancellableBodyHandler<T> handler = new CancellableBodyHandler<>(metered);
+        CompletableFuture<HttpResponse<T>> inFlight = this.client.sendAsync(request, handler);
+
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        inFlight.whenComplete((response, throwable) -> {
+            if (limiter != null) {
+                Throwable cause = throwable != null ? RequestScheduler.unwrap(throwable) : null;
+                if (cause instanceof CancellationException) {
+                    limiter.cancel();
+                } else {
+                    long rtt = metered.getTtfbNanos() >= 0 ? metered.getTtfbNanos() : System.nanoTime() - sentNanos;
+                    boolean dropped = cause instanceof IOException || (response != null && (response.statusCode() == 429 || response.statusCode() >= 500));
+                    limiter.release(rtt, dropped);
+                }
+            }
+
+            // Unknown (-1) for bodies streamed without a length
+            long bytesSent = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L);
+            metrics.attempted(attempt, metered.getTtfbNanos(), metered.getBodyTransferNanos(), bytesSent, metered.getBytesReceived());
+            if (event.shouldCommit()) {
+                event.operation = operation;
+                event.method = request.method();
+                event.url = request.uri().toString();
+                event.attempt = attempt;
+                event.statusCode = response != null ? response.statusCode() : -1;
+                event.error = throwable != null ? String.valueOf(RequestScheduler.unwrap(throwable)) : null;
+                event.queued = sentNanos - callStartNanos;
+                event.ttfb = metered.getTtfbNanos();
+                event.bodyTransfer = metered.getBodyTransferNanos();
+                event.bytesSent = bytesSent;
+                event.bytesReceived = metered.getBytesReceived();
+                event.commit();
+            }
+
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+            } else {
+                result.complete(response);
+            }
+        });
+        result.whenComplete((response, throwable) -> {
+            if (result.isCancelled()) {
+                inFlight.cancel(true);
+                handler.cancel();
+            }
+        });
+
+        return result;
     }
 }
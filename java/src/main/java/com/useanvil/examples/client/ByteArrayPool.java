@@ -0,0 +1,50 @@
+package com.useanvil.examples.client;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of fixed-size byte arrays that request bodies are serialized
+ * into. Arrays beyond `maxPooled` are left to the garbage collector.
+ */
+class ByteArrayPool {
+    static final int CHUNK_SIZE = 16 * 1024;
+
+    // 512 x 16KB = 8MB retained at most
+    static final ByteArrayPool SHARED = new ByteArrayPool(CHUNK_SIZE, 512);
+
+    private final int chunkSize;
+    private final int maxPooled;
+    private final Queue<byte[]> pooled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    ByteArrayPool(int chunkSize, int maxPooled) {
+        this.chunkSize = chunkSize;
+        this.maxPooled = maxPooled;
+    }
+
+    int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    byte[] acquire() {
+        byte[] chunk = this.pooled.poll();
+        if (chunk == null) {
+            return new byte[this.chunkSize];
+        }
+        this.size.decrementAndGet();
+        return chunk;
+    }
+
+    void release(byte[] chunk) {
+        if (chunk.length != this.chunkSize) {
+            return;
+        }
+        if (this.size.incrementAndGet() > this.maxPooled) {
+            this.size.decrementAndGet();
+            return;
+        }
+        this.pooled.offer(chunk);
+    }
+}
@@ -0,0 +1,114 @@
+package com.useanvil.examples.client;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Wraps a body handler so an in-flight response body can be abandoned.
+ *
+ * On Java 11 cancelling the future returned by `HttpClient.sendAsync` does
+ * not stop the exchange, so we also cancel the body subscription ourselves.
+ * That stops the transfer as soon as the body has started (or as soon as it
+ * starts, if the request is cancelled while still waiting for headers). The
+ * wrapped subscriber is told about the cancellation through `onError`, so it
+ * can release whatever it holds (e.g. a temp file). Its signals are
+ * serialized, so that `onError` never runs while an `onNext` is still
+ * writing.
+ */
+class CancellableBodyHandler<T> implements HttpResponse.BodyHandler<T> {
+    private final HttpResponse.BodyHandler<T> delegate;
+    private volatile boolean cancelled;
+    private volatile CancellableSubscriber current;
+
+    CancellableBodyHandler(HttpResponse.BodyHandler<T> delegate) {
+        this.delegate = delegate;
+    }
+
+    void cancel() {
+        this.cancelled = true;
+        CancellableSubscriber subscriber = this.current;
+        if (subscriber != null) {
+            subscriber.cancel();
+        }
+    }
+
+    @Override
+    public HttpResponse.BodySubscriber<T> apply(HttpResponse.ResponseInfo responseInfo) {
+        CancellableSubscriber subscriber = new CancellableSubscriber(this.delegate.apply(responseInfo));
+        this.current = subscriber;
+        return subscriber;
+    }
+
+    private class CancellableSubscriber implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> subscriber;
+        // Both guarded by `this`, which every signal to `subscriber` holds
+        private Flow.Subscription subscription;
+        private boolean terminated;
+
+        CancellableSubscriber(HttpResponse.BodySubscriber<T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void cancel() {
+            Flow.Subscription s;
+            synchronized (this) {
+                s = this.subscription;
+            }
+            if (s == null) {
+                // `onSubscribe` checks `cancelled` once it has one
+                return;
+            }
+            // Stops further `onNext`s; one that is running finishes first
+            s.cancel();
+            synchronized (this) {
+                if (!this.terminated) {
+                    this.terminated = true;
+                    this.subscriber.onError(new CancellationException("Request was cancelled"));
+                }
+            }
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return this.subscriber.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+            synchronized (this) {
+                this.subscriber.onSubscribe(s);
+                this.subscription = s;
+            }
+            if (cancelled) {
+                this.cancel();
+            }
+        }
+
+        @Override
+        public synchronized void onNext(List<ByteBuffer> item) {
+            if (!this.terminated) {
+                this.subscriber.onNext(item);
+            }
+        }
+
+        @Override
+        public synchronized void onError(Throwable throwable) {
+            if (!this.terminated) {
+                this.terminated = true;
+                this.subscriber.onError(throwable);
+            }
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            if (!this.terminated) {
+                this.terminated = true;
+                this.subscriber.onComplete();
+            }
+        }
+    }
+}
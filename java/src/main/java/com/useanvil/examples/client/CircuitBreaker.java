@@ -0,0 +1,242 @@
+package com.useanvil.examples.client;
+
+import com.useanvil.examples.metrics.CircuitBreakerMXBean;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Stops sending to one kind of endpoint while most requests to it fail, so a
+ * bulk run that hits an outage fails its remaining items in milliseconds
+ * instead of retrying each one into the outage.
+ *
+ * Attempts are counted over a sliding window (10 seconds by default). Once
+ * the window has at least `minRequests` attempts and `failureRate` of them
+ * failed (a 5xx or an I/O error, including timeouts), the breaker opens:
+ * attempts fail right away with a {@link CircuitBreakerOpenException} for
+ * `openDuration`. After that one trial attempt is let through; if it
+ * succeeds the breaker closes again, otherwise it stays open for another
+ * `openDuration`.
+ *
+ * `429`s say nothing about the endpoint's health and aren't counted; the
+ * scheduler already backs off from them. Neither are other 4xx responses,
+ * which count as successes.
+ */
+public class CircuitBreaker implements CircuitBreakerMXBean {
+    public static final double DEFAULT_FAILURE_RATE = 0.5;
+    public static final int DEFAULT_MIN_REQUESTS = 20;
+    public static final Duration DEFAULT_WINDOW = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(5);
+
+    private static final int BUCKETS = 10;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String endpoint;
+    private final double failureRate;
+    private final int minRequests;
+    private final long bucketNanos;
+    private final long openNanos;
+
+    // One bucket per `bucketNanos` of the window, reused round-robin
+    private final long[] bucketStarts = new long[BUCKETS];
+    private final long[] successes = new long[BUCKETS];
+    private final long[] failures = new long[BUCKETS];
+
+    private State state = State.CLOSED;
+    private long openUntil;
+    private boolean trialInFlight;
+    private long trips;
+    private long rejected;
+
+    public CircuitBreaker(String endpoint) {
+        this(endpoint, DEFAULT_FAILURE_RATE, DEFAULT_MIN_REQUESTS, DEFAULT_WINDOW, DEFAULT_OPEN_DURATION);
+    }
+
+    /**
+     * @param failureRate  Share of failed attempts, from 0 to 1, that opens
+     *                     the breaker
+     * @param minRequests  Attempts the window needs before it can open, so a
+     *                     couple of early failures don't
+     * @param window       How far back attempts are counted
+     * @param openDuration How long to fail fast before trying again
+     */
+    public CircuitBreaker(String endpoint, double failureRate, int minRequests, Duration window, Duration openDuration) {
+        if (failureRate <= 0 || failureRate > 1) {
+            throw new IllegalArgumentException("failureRate must be in (0, 1]");
+        }
+        this.endpoint = endpoint;
+        this.failureRate = failureRate;
+        this.minRequests = Math.max(1, minRequests);
+        this.bucketNanos = Math.max(1, window.toNanos() / BUCKETS);
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Whether an attempt may be sent now. Every `true` must be followed by
+     * exactly one {@link #onSuccess}, {@link #onFailure} or {@link #onIgnored}.
+     */
+    public synchronized boolean tryAcquire() {
+        switch (this.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - this.openUntil < 0) {
+                    this.rejected++;
+                    return false;
+                }
+                this.state = State.HALF_OPEN;
+                this.trialInFlight = true;
+                return true;
+            default:
+                if (this.trialInFlight) {
+                    this.rejected++;
+                    return false;
+                }
+                this.trialInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (this.state == State.HALF_OPEN) {
+            this.state = State.CLOSED;
+            this.trialInFlight = false;
+            this.clear();
+            return;
+        }
+        this.successes[this.bucket(System.nanoTime())]++;
+    }
+
+    public synchronized void onFailure() {
+        long now = System.nanoTime();
+        if (this.state == State.HALF_OPEN) {
+            this.trialInFlight = false;
+            this.open(now);
+            return;
+        }
+        if (this.state == State.OPEN) {
+            // Sent before the breaker opened
+            return;
+        }
+        this.failures[this.bucket(now)]++;
+        long[] window = this.window();
+        if (window[0] >= this.minRequests && window[1] >= window[0] * this.failureRate) {
+            this.open(now);
+        }
+    }
+
+    /**
+     * For an attempt that was cancelled or rate limited: it says nothing
+     * about the endpoint, but a trial attempt has to be given back.
+     */
+    public synchronized void onIgnored() {
+        if (this.state == State.HALF_OPEN && this.trialInFlight) {
+            this.trialInFlight = false;
+        }
+    }
+
+    /**
+     * How long until the breaker lets a trial attempt through, 0 if it would
+     * now.
+     */
+    public synchronized Duration getRetryAfter() {
+        return this.state == State.OPEN ? Duration.ofNanos(Math.max(0, this.openUntil - System.nanoTime())) : Duration.ZERO;
+    }
+
+    private void open(long now) {
+        this.state = State.OPEN;
+        this.openUntil = now + this.openNanos;
+        this.trips++;
+        this.clear();
+    }
+
+    private void clear() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.successes[i] = 0;
+            this.failures[i] = 0;
+        }
+    }
+
+    /**
+     * The bucket for `now`, emptied first if it last held an older period.
+     */
+    private int bucket(long now) {
+        long period = now / this.bucketNanos;
+        int index = (int) Math.floorMod(period, (long) BUCKETS);
+        long start = period * this.bucketNanos;
+        if (this.bucketStarts[index] != start) {
+            this.bucketStarts[index] = start;
+            this.successes[index] = 0;
+            this.failures[index] = 0;
+        }
+        return index;
+    }
+
+    /**
+     * Attempts and failures in the window.
+     */
+    private long[] window() {
+        long now = System.nanoTime();
+        long total = 0;
+        long failed = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (now - this.bucketStarts[i] < this.bucketNanos * BUCKETS) {
+                total += this.successes[i] + this.failures[i];
+                failed += this.failures[i];
+            }
+        }
+        return new long[]{total, failed};
+    }
+
+    @Override
+    public String getEndpoint() {
+        return this.endpoint;
+    }
+
+    @Override
+    public synchronized String getState() {
+        return this.state.name();
+    }
+
+    @Override
+    public synchronized double getFailureRate() {
+        long[] window = this.window();
+        return window[0] == 0 ? 0 : (double) window[1] / window[0];
+    }
+
+    @Override
+    public synchronized long getWindowCount() {
+        return this.window()[0];
+    }
+
+    @Override
+    public synchronized long getTripCount() {
+        return this.trips;
+    }
+
+    @Override
+    public synchronized long getRejectedCount() {
+        return this.rejected;
+    }
+
+    /**
+     * e.g. `fill: closed, 3.1% of 128 failed, 0 trips, 0 rejected`
+     */
+    public synchronized String summary() {
+        long[] window = this.window();
+        return String.format(
+                "%s: %s, %.1f%% of %d failed, %d trips, %d rejected",
+                this.endpoint,
+                this.state.name().toLowerCase(Locale.ROOT),
+                window[0] == 0 ? 0 : 100.0 * window[1] / window[0],
+                window[0],
+                this.trips,
+                this.rejected
+        );
+    }
+}
@@ -0,0 +1,32 @@
+package com.useanvil.examples.client;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Thrown instead of sending a request while the {@link CircuitBreaker} of its
+ * endpoint is open. The request never left, and it isn't retried.
+ */
+public class CircuitBreakerOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String endpoint;
+    private final Duration retryAfter;
+
+    public CircuitBreakerOpenException(String endpoint, Duration retryAfter) {
+        super("Circuit breaker for " + endpoint + " is open; failing fast for another " + retryAfter.toMillis() + "ms");
+        this.endpoint = endpoint;
+        this.retryAfter = retryAfter;
+    }
+
+    public String getEndpoint() {
+        return this.endpoint;
+    }
+
+    /**
+     * How long until the breaker lets a trial request through.
+     */
+    public Duration getRetryAfter() {
+        return this.retryAfter;
+    }
+}
@@ -0,0 +1,156 @@
+package com.useanvil.examples.client;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Downloads many document groups at once, e.g. to archive every packet a
+ * bulk send produced, with at most `maxConcurrency` downloads running at a
+ * time. Calls never block: downloads past the limit are queued and started
+ * in order as running ones finish.
+ *
+ * Every download goes through `client`, so they share its rate limit,
+ * metrics and {@link BandwidthLimiter}, and resume like
+ * {@link RestClient#downloadDocumentGroupAsync} does.
+ */
+public class DocumentGroupDownloader {
+    private final RestClient client;
+    private final int maxConcurrency;
+
+    private final Queue<Runnable> queued = new ArrayDeque<>();
+    private int running;
+    private boolean draining;
+
+    private final AtomicLong downloaded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * @param maxConcurrency Most downloads running at once
+     */
+    public DocumentGroupDownloader(RestClient client, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        }
+        this.client = client;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Queues a download of the group's ZIP to `target`.
+     */
+    public CompletableFuture<TransferResult> download(String documentGroupEid, Path target) {
+        return this.enqueue(() -> this.client.downloadDocumentGroupAsync(documentGroupEid, target)
+                .whenComplete((result, throwable) -> {
+                    if (result != null) {
+                        this.bytes.addAndGet(result.bytes);
+                    }
+                }));
+    }
+
+    /**
+     * Queues a download of the group, unpacked into `directory`.
+     */
+    public CompletableFuture<List<Path>> unzip(String documentGroupEid, Path directory) {
+        return this.enqueue(() -> this.client.downloadDocumentGroupUnzippedAsync(documentGroupEid, directory));
+    }
+
+    private <T> CompletableFuture<T> enqueue(Supplier<CompletableFuture<T>> download) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<T> pending;
+            try {
+                pending = download.get();
+            } catch (RuntimeException e) {
+                pending = CompletableFuture.failedFuture(e);
+            }
+            pending.whenComplete((value, throwable) -> {
+                (throwable == null ? this.downloaded : this.failed).incrementAndGet();
+                this.finished();
+                if (throwable != null) {
+                    result.completeExceptionally(throwable);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+        synchronized (this) {
+            this.queued.add(start);
+        }
+        this.drain();
+        return result;
+    }
+
+    private void finished() {
+        synchronized (this) {
+            this.running--;
+        }
+        this.drain();
+    }
+
+    private void drain() {
+        synchronized (this) {
+            // Whoever is draining already picks up the freed slot, which keeps
+            // downloads that fail right away from recursing through here
+            if (this.draining) {
+                return;
+            }
+            this.draining = true;
+        }
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                if (this.running >= this.maxConcurrency || this.queued.isEmpty()) {
+                    this.draining = false;
+                    return;
+                }
+                this.running++;
+                next = this.queued.poll();
+            }
+            next.run();
+        }
+    }
+
+    public synchronized int getQueuedCount() {
+        return this.queued.size();
+    }
+
+    public synchronized int getRunningCount() {
+        return this.running;
+    }
+
+    public long getDownloadedCount() {
+        return this.downloaded.get();
+    }
+
+    public long getFailedCount() {
+        return this.failed.get();
+    }
+
+    /**
+     * Bytes of ZIPs written by {@link #download}. Unpacked downloads aren't
+     * counted.
+     */
+    public long getBytes() {
+        return this.bytes.get();
+    }
+
+    /**
+     * e.g. `120 downloaded (340MB), 2 failed, 8 running, 30 queued`
+     */
+    public String summary() {
+        return String.format(
+                "%d downloaded (%dMB), %d failed, %d running, %d queued",
+                this.getDownloadedCount(),
+                this.getBytes() / (1024 * 1024),
+                this.getFailedCount(),
+                this.getRunningCount(),
+                this.getQueuedCount()
+        );
+    }
+}
@@ -0,0 +1,552 @@
+package com.useanvil.examples.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.useanvil.examples.entity.GraphqlRequest;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends many small operations in fewer round trips, e.g. thousands of
+ * `forge-submit` updates.
+ *
+ * Operations submitted within `window` of each other, up to `maxBatchSize`,
+ * are merged into one document: every top-level field gets an alias and every
+ * variable a prefix unique to its operation (`b0_`, `b1_`, ...). For example
+ * two `forge-submit` mutations are sent as
+ *
+ * `mutation Batch($b0_forgeEid: String!, ..., $b1_forgeEid: String!, ...) {
+ * b0_forgeSubmit: forgeSubmit(forgeEid: $b0_forgeEid, ...) { ... }
+ * b1_forgeSubmit: forgeSubmit(forgeEid: $b1_forgeEid, ...) { ... } }`
+ *
+ * Aliasing works with any GraphQL server, unlike sending an array of
+ * operations, which the Anvil API doesn't accept. Queries and mutations are
+ * batched separately; mutation fields run one after the other in the order
+ * they were submitted, as the GraphQL spec requires.
+ *
+ * Each caller gets a response of its own: the `data` of its fields under
+ * their original names, and the `errors` whose `path` points into its fields
+ * (errors without a path, e.g. for an invalid document, go to everyone). If
+ * the batch request itself fails, every caller's future fails. Operations
+ * using fragments are sent on their own.
+ */
+public class GraphqlBatcher implements AutoCloseable {
+    // Stands in for the per-operation prefix in compiled templates
+    private static final char PREFIX = '\u0000';
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "graphql-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final GraphqlClient client;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final Map<GraphqlOperation, Template> templates = new ConcurrentHashMap<>();
+
+    // One pending batch for queries and one for mutations
+    private final Object lock = new Object();
+    private List<Item<?>> queries = new ArrayList<>();
+    private List<Item<?>> mutations = new ArrayList<>();
+
+    private final AtomicLong operationCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * @param window       How long the first operation of a batch waits for
+     *                     others to join it
+     * @param maxBatchSize Most operations in one request. A full batch is
+     *                     sent right away.
+     */
+    public GraphqlBatcher(GraphqlClient client, Duration window, int maxBatchSize) {
+        this.client = client;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Runs a bundled operation as part of the next batch. See
+     * {@link GraphqlClient#doOperationAsync(String, Object, HttpResponse.BodyHandler)}.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> submit(String operationName, Object variables, HttpResponse.BodyHandler<T> bodyHandler) {
+        GraphqlOperation operation;
+        Template template;
+        try {
+            operation = this.client.operations.get(operationName);
+            template = this.templates.computeIfAbsent(operation, Template::compile);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (template.selections == null) {
+            return this.client.doOperationAsync(operationName, variables, bodyHandler);
+        }
+        this.operationCount.incrementAndGet();
+
+        Item<T> item = new Item<>(operation, template, variables, bodyHandler);
+        List<Item<?>> full = null;
+        List<Item<?>> started = null;
+        synchronized (this.lock) {
+            List<Item<?>> pending = operation.isMutation() ? this.mutations : this.queries;
+            if (pending.isEmpty()) {
+                started = pending;
+            }
+            pending.add(item);
+            if (pending.size() >= this.maxBatchSize) {
+                full = this.take(operation.isMutation());
+            }
+        }
+        if (full != null) {
+            this.send(full);
+        } else if (started != null) {
+            boolean mutation = operation.isMutation();
+            List<Item<?>> batch = started;
+            TIMER.schedule(() -> this.flush(mutation, batch), this.windowNanos, TimeUnit.NANOSECONDS);
+        }
+        return item.result;
+    }
+
+    /**
+     * Sends whatever is waiting without waiting for the window to end.
+     */
+    public void flush() {
+        this.flush(false, null);
+        this.flush(true, null);
+    }
+
+    /**
+     * @param expected Only flush if this batch is still waiting, so the timer
+     *                 of a batch that filled up early leaves the next one alone
+     */
+    private void flush(boolean mutation, List<Item<?>> expected) {
+        List<Item<?>> batch;
+        synchronized (this.lock) {
+            if (expected != null && expected != (mutation ? this.mutations : this.queries)) {
+                return;
+            }
+            batch = this.take(mutation);
+        }
+        if (!batch.isEmpty()) {
+            this.send(batch);
+        }
+    }
+
+    private List<Item<?>> take(boolean mutation) {
+        List<Item<?>> batch;
+        if (mutation) {
+            batch = this.mutations;
+            this.mutations = new ArrayList<>();
+        } else {
+            batch = this.queries;
+            this.queries = new ArrayList<>();
+        }
+        return batch;
+    }
+
+    private void send(List<Item<?>> batch) {
+        if (batch.size() == 1) {
+            // Nothing to merge
+            batch.get(0).sendAlone(this.client);
+            return;
+        }
+        this.batchCount.incrementAndGet();
+
+        boolean mutation = batch.get(0).operation.isMutation();
+        StringBuilder definitions = new StringBuilder();
+        StringBuilder selections = new StringBuilder();
+        ObjectNode variables = JsonCodec.mapper().createObjectNode();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                Item<?> item = batch.get(i);
+                String prefix = prefix(i);
+                if (!item.template.definitions.isEmpty()) {
+                    if (definitions.length() > 0) {
+                        definitions.append(", ");
+                    }
+                    definitions.append(item.template.definitions.replace(String.valueOf(PREFIX), prefix));
+                }
+                selections.append(item.template.selections.replace(String.valueOf(PREFIX), prefix)).append('\n');
+                if (item.variables != null) {
+                    JsonNode values = JsonCodec.mapper().valueToTree(item.variables);
+                    for (Iterator<Map.Entry<String, JsonNode>> fields = values.fields(); fields.hasNext(); ) {
+                        Map.Entry<String, JsonNode> field = fields.next();
+                        variables.set(prefix + field.getKey(), field.getValue());
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            batch.forEach(item -> item.result.completeExceptionally(e));
+            return;
+        }
+
+        String query = (mutation ? "mutation" : "query") + " Batch"
+                + (definitions.length() > 0 ? " (" + definitions + ")" : "")
+                + " {\n" + selections + "}";
+        CompletableFuture<HttpResponse<byte[]>> response;
+        try {
+            HttpRequest request = this.client.createRequestBuilder()
+                    .POST(JsonCodec.publisher(JsonCodec.GRAPHQL_REQUEST, new GraphqlRequest(query, variables)))
+                    .build();
+            response = this.client.sendAsync("batch", request, HttpResponse.BodyHandlers.ofByteArray(), !mutation);
+        } catch (IOException | RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+
+        response.whenComplete((batched, throwable) -> {
+            if (throwable != null) {
+                batch.forEach(item -> item.result.completeExceptionally(throwable));
+                return;
+            }
+            JsonNode body;
+            try {
+                body = JsonCodec.mapper().readTree(batched.body());
+            } catch (IOException e) {
+                body = null;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                Item<?> item = batch.get(i);
+                if (body == null || !body.isObject()) {
+                    // Not JSON, e.g. an HTML error page; everyone gets it as is
+                    item.deliver(batched, batched.body());
+                    continue;
+                }
+                try {
+                    item.deliver(batched, JsonCodec.mapper().writeValueAsBytes(split(body, prefix(i), item.template.fields)));
+                } catch (IOException | RuntimeException e) {
+                    item.result.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    private static String prefix(int index) {
+        return "b" + index + "_";
+    }
+
+    /**
+     * One operation's share of a batched response: its fields with their
+     * prefix removed, and the errors about them.
+     */
+    static ObjectNode split(JsonNode response, String prefix, List<String> fields) {
+        ObjectNode result = JsonCodec.mapper().createObjectNode();
+        JsonNode data = response.get("data");
+        if (data == null || data.isNull()) {
+            result.set("data", data);
+        } else {
+            ObjectNode own = result.putObject("data");
+            for (String field : fields) {
+                own.set(field, data.get(prefix + field));
+            }
+        }
+
+        JsonNode errors = response.get("errors");
+        if (errors != null && errors.isArray()) {
+            ArrayNode own = JsonCodec.mapper().createArrayNode();
+            for (JsonNode error : errors) {
+                JsonNode path = error.get("path");
+                if (path == null || !path.isArray() || path.isEmpty()) {
+                    own.add(error);
+                } else if (path.get(0).asText().startsWith(prefix)) {
+                    ObjectNode copy = error.deepCopy();
+                    ((ArrayNode) copy.get("path")).set(0, path.get(0).asText().substring(prefix.length()));
+                    own.add(copy);
+                }
+            }
+            if (!own.isEmpty()) {
+                result.set("errors", own);
+            }
+        }
+
+        // Anything else, e.g. `extensions`, is shared
+        for (Iterator<Map.Entry<String, JsonNode>> others = response.fields(); others.hasNext(); ) {
+            Map.Entry<String, JsonNode> other = others.next();
+            if (!other.getKey().equals("data") && !other.getKey().equals("errors")) {
+                result.set(other.getKey(), other.getValue());
+            }
+        }
+        return result;
+    }
+
+    public long getOperationCount() {
+        return this.operationCount.get();
+    }
+
+    /**
+     * Merged requests sent. Batches of one are sent as a plain operation and
+     * not counted.
+     */
+    public long getBatchCount() {
+        return this.batchCount.get();
+    }
+
+    @Override
+    public void close() {
+        this.flush();
+    }
+
+    private static class Item<T> {
+        final GraphqlOperation operation;
+        final Template template;
+        final Object variables;
+        final HttpResponse.BodyHandler<T> bodyHandler;
+        final CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+
+        Item(GraphqlOperation operation, Template template, Object variables, HttpResponse.BodyHandler<T> bodyHandler) {
+            this.operation = operation;
+            this.template = template;
+            this.variables = variables;
+            this.bodyHandler = bodyHandler;
+        }
+
+        void sendAlone(GraphqlClient client) {
+            client.doOperationAsync(this.operation.getName(), this.variables, this.bodyHandler).whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    this.result.completeExceptionally(throwable);
+                } else {
+                    this.result.complete(response);
+                }
+            });
+        }
+
+        void deliver(HttpResponse<byte[]> batched, byte[] body) {
+            ReplayedResponse.replay(batched, body, this.bodyHandler).whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    this.result.completeExceptionally(throwable);
+                } else {
+                    this.result.complete(response);
+                }
+            });
+        }
+    }
+
+    /**
+     * An operation taken apart for merging, with {@link #PREFIX} wherever
+     * the per-operation prefix goes.
+     */
+    static class Template {
+        // e.g. `$\0forgeEid: String!, $\0payload: JSON`
+        final String definitions;
+        // e.g. `\0forgeSubmit: forgeSubmit(forgeEid: $\0forgeEid) { eid }`,
+        // or `null` if the operation can't be merged
+        final String selections;
+        // Response keys of the top-level fields, e.g. `forgeSubmit`
+        final List<String> fields;
+
+        Template(String definitions, String selections, List<String> fields) {
+            this.definitions = definitions;
+            this.selections = selections;
+            this.fields = fields;
+        }
+
+        static Template compile(GraphqlOperation operation) {
+            try {
+                return compile(operation.getQuery());
+            } catch (IllegalArgumentException e) {
+                return new Template(null, null, null);
+            }
+        }
+
+        static Template compile(String query) {
+            String code = prefixVariables(query);
+            int open = nextCode(code, 0, '{');
+            int paren = nextCode(code, 0, '(');
+            String definitions = "";
+            if (paren >= 0 && paren < open) {
+                definitions = code.substring(paren + 1, skipGroup(code, paren) - 1).trim();
+                // Commas are optional in GraphQL; drop a trailing one before joining
+                while (definitions.endsWith(",")) {
+                    definitions = definitions.substring(0, definitions.length() - 1).trim();
+                }
+            }
+            int close = skipGroup(code, open);
+            if (!code.substring(close).trim().isEmpty() && !onlyComments(code.substring(close))) {
+                // Fragments or a second operation
+                throw new IllegalArgumentException("Not a single self-contained operation");
+            }
+
+            List<String> fields = new ArrayList<>();
+            String selections = aliasFields(code.substring(open + 1, close - 1), fields);
+            return new Template(definitions, selections, fields);
+        }
+
+        /**
+         * Inserts {@link #PREFIX} after every `$` outside of strings and
+         * comments, which in a GraphQL document is always a variable.
+         */
+        private static String prefixVariables(String query) {
+            StringBuilder out = new StringBuilder(query.length() + 16);
+            for (int i = 0; i < query.length(); ) {
+                int end = skipIgnored(query, i);
+                if (end > i) {
+                    out.append(query, i, end);
+                    i = end;
+                    continue;
+                }
+                char c = query.charAt(i++);
+                out.append(c);
+                if (c == '$') {
+                    out.append(PREFIX);
+                }
+            }
+            return out.toString();
+        }
+
+        /**
+         * Gives every top-level field of `selections` an alias starting with
+         * {@link #PREFIX}, keeping existing aliases.
+         */
+        private static String aliasFields(String selections, List<String> fields) {
+            StringBuilder out = new StringBuilder(selections.length() + 32);
+            int i = 0;
+            while (i < selections.length()) {
+                int end = skipIgnored(selections, i);
+                if (end > i) {
+                    out.append(selections, i, end);
+                    i = end;
+                    continue;
+                }
+                char c = selections.charAt(i);
+                if (c == '(' || c == '{') {
+                    end = skipGroup(selections, i);
+                    out.append(selections, i, end);
+                    i = end;
+                } else if (c == '@') {
+                    // A directive; copy its name so it isn't taken for a field
+                    end = name(selections, i + 1);
+                    out.append(selections, i, end);
+                    i = end;
+                } else if (c == '.') {
+                    throw new IllegalArgumentException("Fragments can't be batched");
+                } else if (Character.isLetter(c) || c == '_') {
+                    end = name(selections, i);
+                    String name = selections.substring(i, end);
+                    int next = end;
+                    while (next < selections.length() && Character.isWhitespace(selections.charAt(next))) {
+                        next++;
+                    }
+                    if (next < selections.length() && selections.charAt(next) == ':') {
+                        // Already aliased: prefix the alias and copy the field name
+                        fields.add(name);
+                        out.append(PREFIX).append(selections, i, next + 1);
+                        i = next + 1;
+                        while (i < selections.length() && Character.isWhitespace(selections.charAt(i))) {
+                            out.append(selections.charAt(i++));
+                        }
+                        end = name(selections, i);
+                        out.append(selections, i, end);
+                    } else {
+                        fields.add(name);
+                        out.append(PREFIX).append(name).append(": ").append(name);
+                    }
+                    i = end;
+                } else {
+                    out.append(c);
+                    i++;
+                }
+            }
+            return out.toString();
+        }
+
+        private static int name(String text, int i) {
+            while (i < text.length() && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) {
+                i++;
+            }
+            return i;
+        }
+
+        /**
+         * The index after the string or comment starting at `i`, or `i`.
+         */
+        private static int skipIgnored(String text, int i) {
+            if (text.startsWith("\"\"\"", i)) {
+                int end = text.indexOf("\"\"\"", i + 3);
+                return end < 0 ? text.length() : end + 3;
+            }
+            char c = text.charAt(i);
+            if (c == '"') {
+                int j = i + 1;
+                while (j < text.length() && text.charAt(j) != '"') {
+                    j += text.charAt(j) == '\\' ? 2 : 1;
+                }
+                return Math.min(j + 1, text.length());
+            }
+            if (c == '#') {
+                int end = text.indexOf('\n', i);
+                return end < 0 ? text.length() : end;
+            }
+            return i;
+        }
+
+        private static boolean onlyComments(String text) {
+            for (int i = 0; i < text.length(); ) {
+                int end = skipIgnored(text, i);
+                if (end > i) {
+                    if (text.charAt(i) != '#') {
+                        return false;
+                    }
+                    i = end;
+                } else if (Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int nextCode(String text, int from, char wanted) {
+            for (int i = from; i < text.length(); ) {
+                int end = skipIgnored(text, i);
+                if (end > i) {
+                    i = end;
+                } else if (text.charAt(i) == wanted) {
+                    return i;
+                } else {
+                    i++;
+                }
+            }
+            if (wanted == '{') {
+                throw new IllegalArgumentException("No selection set");
+            }
+            return -1;
+        }
+
+        /**
+         * The index after the group (`(...)` or `{...}`) opening at `open`.
+         */
+        private static int skipGroup(String text, int open) {
+            int depth = 0;
+            for (int i = open; i < text.length(); ) {
+                int end = skipIgnored(text, i);
+                if (end > i) {
+                    i = end;
+                    continue;
+                }
+                char c = text.charAt(i++);
+                if (c == '(' || c == '{' || c == '[') {
+                    depth++;
+                } else if (c == ')' || c == '}' || c == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        return i;
+                    }
+                }
+            }
+            throw new IllegalArgumentException("Unbalanced brackets");
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.useanvil.examples.client;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Body handlers that decode a GraphQL response while it is being received and
+ * keep only the part the caller asked for.
+ *
+ * For example, `GraphqlBodyHandlers.of("data.weld", Weld.class)` binds
+ * `{ "data": { "weld": { ... } } }` straight to a `Weld`. Everything outside
+ * `data.weld` and the top-level `errors` array is tokenized and dropped
+ * without being bound or turned into tree nodes, and no copy of the full body
+ * is ever held in memory.
+ */
+public class GraphqlBodyHandlers {
+    private static final ObjectMapper DEFAULT_MAPPER = JsonCodec.mapper();
+
+    private GraphqlBodyHandlers() {
+    }
+
+    /**
+     * @param path Dot-separated field names from the root of the response,
+     *             e.g. `data.forgeSubmit`. Array indexes aren't supported.
+     */
+    public static <T> HttpResponse.BodyHandler<GraphqlResult<T>> of(String path, Class<T> type) {
+        return of(DEFAULT_MAPPER, path, DEFAULT_MAPPER.getTypeFactory().constructType(type));
+    }
+
+    public static <T> HttpResponse.BodyHandler<GraphqlResult<T>> of(String path, TypeReference<T> type) {
+        return of(DEFAULT_MAPPER, path, DEFAULT_MAPPER.getTypeFactory().constructType(type));
+    }
+
+    public static <T> HttpResponse.BodyHandler<GraphqlResult<T>> of(ObjectMapper objectMapper, String path, JavaType type) {
+        List<String> target = Arrays.asList(path.split("\\."));
+        return responseInfo -> new ExtractingSubscriber<>(objectMapper, target, type, responseInfo.statusCode());
+    }
+
+    /**
+     * Feeds the body to Jackson's non-blocking parser as it arrives, and
+     * records the tokens of the target value and of `errors` into token
+     * buffers. Those are bound only once complete.
+     */
+    static class ExtractingSubscriber<T> implements HttpResponse.BodySubscriber<GraphqlResult<T>> {
+        private static final List<String> ERRORS_PATH = List.of("errors");
+
+        private final ObjectMapper objectMapper;
+        private final List<String> target;
+        private final JavaType type;
+        private final int statusCode;
+        private final CompletableFuture<GraphqlResult<T>> result = new CompletableFuture<>();
+
+        private final JsonParser parser;
+        private final ByteArrayFeeder feeder;
+        private byte[] chunk = new byte[8192];
+        private Flow.Subscription subscription;
+
+        // Field names of the containers we're in, not counting the root object
+        private final List<String> path = new ArrayList<>();
+        // Name of the current field, or `null` inside arrays
+        private String field;
+        private int depth;
+
+        private TokenBuffer capture;
+        private boolean capturingErrors;
+        private int captureDepth;
+
+        private T data;
+        private JsonNode errors;
+
+        ExtractingSubscriber(ObjectMapper objectMapper, List<String> target, JavaType type, int statusCode) {
+            this.objectMapper = objectMapper;
+            this.target = target;
+            this.type = type;
+            this.statusCode = statusCode;
+            try {
+                this.parser = objectMapper.getFactory().createNonBlockingByteArrayParser();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            this.feeder = (ByteArrayFeeder) this.parser.getNonBlockingInputFeeder();
+        }
+
+        @Override
+        public CompletionStage<GraphqlResult<T>> getBody() {
+            return this.result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            try {
+                for (ByteBuffer buffer : buffers) {
+                    int length = buffer.remaining();
+                    if (length == 0) {
+                        continue;
+                    }
+                    if (this.chunk.length < length) {
+                        this.chunk = new byte[length];
+                    }
+                    buffer.get(this.chunk, 0, length);
+                    this.feeder.feedInput(this.chunk, 0, length);
+                    this.drain();
+                }
+            } catch (IOException | RuntimeException e) {
+                this.subscription.cancel();
+                this.result.completeExceptionally(e);
+                return;
+            }
+            this.subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (this.result.isDone()) {
+                return;
+            }
+            try {
+                this.feeder.endOfInput();
+                this.drain();
+                if (this.capture != null) {
+                    throw new IOException("GraphQL response ended in the middle of " + String.join(".", this.target));
+                }
+                this.result.complete(new GraphqlResult<>(this.statusCode, this.data, this.errors));
+            } catch (IOException | RuntimeException e) {
+                this.result.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Handles every token available from the input fed so far.
+         */
+        private void drain() throws IOException {
+            JsonToken token;
+            while ((token = this.parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                this.handle(token);
+            }
+        }
+
+        private void handle(JsonToken token) throws IOException {
+            if (this.capture != null) {
+                this.capture.copyCurrentEvent(this.parser);
+                if (token.isStructStart()) {
+                    this.depth++;
+                } else if (token.isStructEnd()) {
+                    this.depth--;
+                }
+                if (this.depth == this.captureDepth) {
+                    this.finishCapture();
+                }
+                return;
+            }
+
+            if (token == JsonToken.FIELD_NAME) {
+                this.field = this.parser.getCurrentName();
+                return;
+            }
+
+            if (token.isStructEnd()) {
+                this.depth--;
+                if (this.depth >= 1) {
+                    this.path.remove(this.path.size() - 1);
+                }
+                this.field = null;
+                return;
+            }
+
+            // `token` starts a value. Is it one we want?
+            if (this.depth >= 1 && this.field != null) {
+                boolean isTarget = this.matches(this.target);
+                boolean isErrors = !isTarget && this.matches(ERRORS_PATH);
+                if (isTarget || isErrors) {
+                    this.capture = new TokenBuffer(this.parser);
+                    this.capturingErrors = isErrors;
+                    this.captureDepth = this.depth;
+                    this.capture.copyCurrentEvent(this.parser);
+                    if (token.isStructStart()) {
+                        this.depth++;
+                    } else {
+                        this.finishCapture();
+                    }
+                    return;
+                }
+            }
+
+            if (token.isStructStart()) {
+                if (this.depth >= 1) {
+                    this.path.add(this.field == null ? "[]" : this.field);
+                }
+                this.depth++;
+                this.field = null;
+            }
+        }
+
+        private boolean matches(List<String> expected) {
+            if (expected.size() != this.path.size() + 1) {
+                return false;
+            }
+            for (int i = 0; i < this.path.size(); i++) {
+                if (!expected.get(i).equals(this.path.get(i))) {
+                    return false;
+                }
+            }
+            return expected.get(expected.size() - 1).equals(this.field);
+        }
+
+        private void finishCapture() throws IOException {
+            try (JsonParser captured = this.capture.asParser(this.objectMapper)) {
+                // A JSON `null` is reported as missing data, even when binding
+                // to `JsonNode` (which would otherwise give a `NullNode`)
+                if (captured.nextToken() != JsonToken.VALUE_NULL) {
+                    if (this.capturingErrors) {
+                        this.errors = this.objectMapper.readTree(captured);
+                    } else {
+                        this.data = this.objectMapper.readValue(captured, this.type);
+                    }
+                }
+            }
+            this.capture = null;
+            this.field = null;
+        }
+    }
+}
@@ -1,49 +1,292 @@
 package com.useanvil.examples.client;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.mizosoft.methanol.*;
 import com.useanvil.examples.Constants;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.useanvil.examples.entity.CreateEtchPacket;
+import com.useanvil.examples.entity.EtchCastRef;
+import com.useanvil.examples.entity.FileUpload;
+import com.useanvil.examples.entity.GraphqlRequest;
+import com.useanvil.examples.entity.IAttachable;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.text.Format;
-import java.time.Duration;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class GraphqlClient extends BaseClient {
+    public static final String GRAPHQL_ENDPOINT = "graphql";
+
+    private static final Pattern OPERATION_NAME = Pattern.compile("^\\s*(?:query|mutation|subscription)\\s+(\\w+)", Pattern.MULTILINE);
+
+    protected GraphqlOperations operations;
+    private final InlineFileBodyPublisher inlineFilePublisher;
+    private GraphqlQueryCache queryCache;
+    private UploadCache uploadCache;
 
     public GraphqlClient(String apiKey) throws IOException, InterruptedException {
+        this(HttpTransport.shared(), apiKey);
+    }
+
+    /**
+     * @param apiKey
+     * @param executor Executor for the HTTP client's async work and for
+     *                 completing the futures returned by the `*Async`
+     *                 methods. This creates a dedicated transport (and
+     *                 connection pool) for the client; prefer
+     *                 {@link #GraphqlClient(HttpTransport, String)} when
+     *                 creating more than one client.
+     */
+    public GraphqlClient(String apiKey, Executor executor) throws IOException, InterruptedException {
+        this(HttpTransport.newBuilder().executor(executor).build(), apiKey);
+    }
+
+    /**
+     * @param transport Connection layer to send requests through. Clients on
+     *                  the same transport share connections. It comes first so
+     *                  that `new GraphqlClient(apiKey, null)` still means the default
+     *                  executor.
+     * @param apiKey
+     */
+    public GraphqlClient(HttpTransport transport, String apiKey) throws IOException, InterruptedException {
         this._apiKey = apiKey;
-        this._objectMapper = new ObjectMapper();
+        this._objectMapper = JsonCodec.mapper();
+        this.transport = transport;
+        this.scheduler = RequestScheduler.forApiKey(apiKey);
+        this.operations = GraphqlOperations.getDefault();
+        this.inlineFilePublisher = new InlineFileBodyPublisher(this._objectMapper);
 
-        client = Methanol.newBuilder()
-                .baseUri(Constants.BASE_URL)
+        // Methanol adds response decompression on top of the transport's
+        // HTTP client without opening connections of its own. Timeouts are
+        // the ones every client has, see `setRequestTimeout` and
+        // `setReadTimeout`.
+        client = Methanol.newBuilder(transport.client())
+                .baseUri(this.baseUrl)
                 .defaultHeader("Accept", "application/json")
-                .requestTimeout(Duration.ofSeconds(20))
-                .headersTimeout(Duration.ofSeconds(5))
-                .readTimeout(Duration.ofSeconds(5))
                 .autoAcceptEncoding(true)
                 .build();
     }
 
+    /**
+     * All GraphQL operations go to the same endpoint, so they share one
+     * concurrency limit.
+     */
+    @Override
+    protected String getEndpointClass(String operation) {
+        return GRAPHQL_ENDPOINT;
+    }
+
+    public GraphqlQueryCache getQueryCache() {
+        return this.queryCache;
+    }
+
+    /**
+     * Serves query operations run through `doOperation` and
+     * `doOperationAsync` from `queryCache`, e.g.
+     * {@link GraphqlQueryCache#getDefault()}. `null` (the default) sends
+     * every query. Mutations are never cached.
+     */
+    public void setQueryCache(GraphqlQueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public UploadCache getUploadCache() {
+        return this.uploadCache;
+    }
+
+    /**
+     * Reuses the multipart parts of files uploaded before, or with
+     * promotion enabled, turns uploaded files into templates that later
+     * packets refer to. See {@link UploadCache}. `null` (the default) reads
+     * and uploads every file every time.
+     */
+    public void setUploadCache(UploadCache uploadCache) {
+        this.uploadCache = uploadCache;
+    }
+
     public HttpRequest.Builder createRequestBuilder() throws RuntimeException {
-        return this.createRequestBuilder(Constants.GRAPHQL_ENDPOINT);
+        return this.createRequestBuilder(this.getBaseUrl() + Constants.GRAPHQL_PATH);
+    }
+
+    /**
+     * Runs a bundled operation by name, e.g. `current-user` for
+     * `queries/current-user.graphql`. See {@link GraphqlOperations}.
+     */
+    public HttpResponse<String> doOperation(String operationName) throws IOException, InterruptedException {
+        return this.doOperation(operationName, null);
+    }
+
+    /**
+     * Runs a bundled operation by name. Only `variables` are serialized per
+     * call; the query part of the request body is prepared when the
+     * operation is loaded.
+     *
+     * @param variables Anything Jackson can serialize into a JSON object, e.g.
+     *                  a `Map` or an entity
+     */
+    public HttpResponse<String> doOperation(String operationName, Object variables) throws IOException, InterruptedException {
+        return this.doOperation(operationName, variables, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Runs a bundled operation and hands the response to `bodyHandler`.
+     * Use {@link GraphqlBodyHandlers} to decode just the part of the response
+     * you need, e.g. `GraphqlBodyHandlers.of("data.weld", JsonNode.class)`.
+     */
+    public <T> HttpResponse<T> doOperation(String operationName, Object variables, HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        GraphqlOperation operation = this.operations.get(operationName);
+        if (this.queryCache != null && !operation.isMutation()) {
+            return this.await(this.doCachedOperation(operation, variables, bodyHandler));
+        }
+        return this.send(operation.getName(), this.buildRequest(operation, variables), bodyHandler, !operation.isMutation());
+    }
+
+    /**
+     * Runs a bundled operation, uploading `files` as a multipart request.
+     * When `files` is empty (e.g. every file is a cast reference or an
+     * `InlineFile`) a plain JSON request is sent instead.
+     */
+    public HttpResponse<String> doOperation(String operationName, CreateEtchPacket variables, Map<Integer, Path> files) throws IOException, InterruptedException {
+        if (this.uploadCache != null && this.uploadCache.isPromotingToCasts()) {
+            return this.await(this.doOperationAsync(operationName, variables, files));
+        }
+        GraphqlOperation operation = this.operations.get(operationName);
+        HttpRequest request = this.buildOperationRequest(operation, variables, files);
+        return this.send(operation.getName(), request, HttpResponse.BodyHandlers.ofString(), false);
     }
 
+    public CompletableFuture<HttpResponse<String>> doOperationAsync(String operationName, Object variables) {
+        return this.doOperationAsync(operationName, variables, HttpResponse.BodyHandlers.ofString());
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> doOperationAsync(String operationName, Object variables, HttpResponse.BodyHandler<T> bodyHandler) {
+        try {
+            GraphqlOperation operation = this.operations.get(operationName);
+            if (this.queryCache != null && !operation.isMutation()) {
+                return this.doCachedOperation(operation, variables, bodyHandler);
+            }
+            return this.sendAsync(operation.getName(), this.buildRequest(operation, variables), bodyHandler, !operation.isMutation());
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public CompletableFuture<HttpResponse<String>> doOperationAsync(String operationName, CreateEtchPacket variables, Map<Integer, Path> files) {
+        if (this.uploadCache != null && this.uploadCache.isPromotingToCasts() && files != null && !files.isEmpty()) {
+            Map<Integer, Path> remaining = new LinkedHashMap<>(files);
+            return this.promoteUploads(variables, remaining)
+                    .thenCompose(promoted -> this.sendOperation(operationName, promoted, remaining));
+        }
+        return this.sendOperation(operationName, variables, files);
+    }
+
+    private CompletableFuture<HttpResponse<String>> sendOperation(String operationName, CreateEtchPacket variables, Map<Integer, Path> files) {
+        try {
+            GraphqlOperation operation = this.operations.get(operationName);
+            HttpRequest request = this.buildOperationRequest(operation, variables, files);
+            return this.sendAsync(operation.getName(), request, HttpResponse.BodyHandlers.ofString(), false);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> doCachedOperation(GraphqlOperation operation, Object variables, HttpResponse.BodyHandler<T> bodyHandler) throws IOException {
+        String key = GraphqlQueryCache.key(this.cacheScope(), operation.getName(), variables);
+        return this.queryCache.get(key, () -> {
+            try {
+                return this.sendAsync(operation.getName(), this.buildRequest(operation, variables), HttpResponse.BodyHandlers.ofByteArray(), true);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }, bodyHandler);
+    }
+
+    /**
+     * Keeps cached responses of different API keys and servers apart without
+     * holding the key itself in the cache.
+     */
+    private String cacheScope() {
+        MessageDigest digest = StreamingBodyHandlers.newDigest();
+        digest.update(this._apiKey.getBytes(StandardCharsets.UTF_8));
+        return StreamingBodyHandlers.toHex(digest.digest()) + '@' + this.getBaseUrl();
+    }
+
+    /**
+     * A copy of `variables` where every `FileUpload` in `files` refers to the
+     * template made from it instead. Promoted files are removed from `files`.
+     */
+    private CompletableFuture<CreateEtchPacket> promoteUploads(CreateEtchPacket variables, Map<Integer, Path> files) {
+        IAttachable[] attachments = variables.files.clone();
+        List<CompletableFuture<Void>> promotions = new ArrayList<>();
+        for (Map.Entry<Integer, Path> file : files.entrySet()) {
+            IAttachable attachment = attachments[file.getKey()];
+            if (!(attachment instanceof FileUpload)) {
+                continue;
+            }
+            FileUpload upload = (FileUpload) attachment;
+            int index = file.getKey();
+            promotions.add(this.uploadCache.castEid(this.cacheScope(), upload, () -> this.createCast(upload))
+                    .thenAccept(castEid -> attachments[index] = new EtchCastRef(upload.id, castEid)));
+        }
+        files.keySet().removeIf(index -> variables.files[index] instanceof FileUpload);
+        return CompletableFuture.allOf(promotions.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            // Anything left in `files` wasn't a `FileUpload` and is still uploaded
+            CreateEtchPacket promoted = variables.copy();
+            promoted.files = attachments;
+            return promoted;
+        });
+    }
+
+    /**
+     * Uploads `upload` as a template with its fields and returns its eid.
+     * Runs `src/main/resources/mutations/create-cast.graphql`.
+     */
+    private CompletableFuture<String> createCast(FileUpload upload) {
+        try {
+            Map<String, Object> variables = new LinkedHashMap<>();
+            variables.put("title", upload.title);
+            variables.put("file", null);
+            variables.put("isTemplate", true);
+            if (upload.fields != null) {
+                variables.put("fieldInfo", Map.of("fields", upload.fields));
+            }
+            GraphqlOperation operation = this.operations.get("create-cast");
+            LinkedHashMap<String, String[]> fileMap = new LinkedHashMap<>();
+            fileMap.put("0", new String[]{"variables.file"});
+            HttpRequest request = this.buildUploadRequest(this.buildEnvelope(operation, variables), fileMap, Map.of("0", upload.getFilePath()));
+            return this.sendAsync(operation.getName(), request, GraphqlBodyHandlers.of("data.createCast", JsonNode.class), false)
+                    .thenApply(response -> response.body().getDataOrThrow().get("eid").asText());
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    //
+    // The `Path` overloads below read the query file on every call. Prefer the
+    // `doOperation` methods above for the operations bundled with the
+    // examples.
+    //
+
     public HttpResponse<String> doRequest(Path queryFile) throws IOException, InterruptedException {
         return this.doRequest(new String(Files.readAllBytes(queryFile)), null);
     }
 
     public HttpResponse<String> doRequest(Path queryFile, Map<String, Serializable> variables) throws IOException, InterruptedException {
-        String json = this._objectMapper.writeValueAsString(variables);
-        return this.doRequest(new String(Files.readAllBytes(queryFile)), json);
+        GraphqlOperation operation = compileQuery(queryFile);
+        return this.send(operation.getName(), this.buildRequest(operation, variables), HttpResponse.BodyHandlers.ofString(), !operation.isMutation());
     }
 
     public HttpResponse<String> doRequest(Path queryFile, String variables) throws IOException, InterruptedException {
@@ -51,12 +294,140 @@ public class GraphqlClient extends BaseClient {
     }
 
     public HttpResponse<String> doRequest(Path queryFile, CreateEtchPacket variables, Map<Integer, Path> files) throws IOException, InterruptedException {
-        // GraphQL requests are in the format `{ "query": "", "variables": { ... } }`
-        Map<String, Serializable> graphqlMap = new HashMap<>();
-        graphqlMap.put("query", new String(Files.readAllBytes(queryFile)));
-        graphqlMap.put("variables", variables);
-        String json = this._objectMapper.writeValueAsString(graphqlMap);
+        GraphqlOperation operation = compileQuery(queryFile);
+        HttpRequest request = this.buildMultipartRequest(this.buildEnvelope(operation, variables), files);
+        return this.send(operation.getName(), request, HttpResponse.BodyHandlers.ofString(), false);
+    }
+
+    public HttpResponse<String> doRequest(String query, String variables) throws IOException, InterruptedException {
+        return this.send(operationName(query), this.buildRequest(query, variables), HttpResponse.BodyHandlers.ofString(), !isMutation(query));
+    }
+
+    //
+    // Non-blocking versions of the `doRequest` overloads above. Cancelling the
+    // returned future abandons the request.
+    //
+
+    public CompletableFuture<HttpResponse<String>> doRequestAsync(Path queryFile) {
+        try {
+            return this.doRequestAsync(new String(Files.readAllBytes(queryFile)), null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public CompletableFuture<HttpResponse<String>> doRequestAsync(Path queryFile, Map<String, Serializable> variables) {
+        try {
+            GraphqlOperation operation = compileQuery(queryFile);
+            return this.sendAsync(operation.getName(), this.buildRequest(operation, variables), HttpResponse.BodyHandlers.ofString(), !operation.isMutation());
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public CompletableFuture<HttpResponse<String>> doRequestAsync(Path queryFile, String variables) {
+        try {
+            return this.doRequestAsync(new String(Files.readAllBytes(queryFile)), variables);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public CompletableFuture<HttpResponse<String>> doRequestAsync(Path queryFile, CreateEtchPacket variables, Map<Integer, Path> files) {
+        try {
+            GraphqlOperation operation = compileQuery(queryFile);
+            HttpRequest request = this.buildMultipartRequest(this.buildEnvelope(operation, variables), files);
+            return this.sendAsync(operation.getName(), request, HttpResponse.BodyHandlers.ofString(), false);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
+    public CompletableFuture<HttpResponse<String>> doRequestAsync(String query, String variables) {
+        try {
+            return this.sendAsync(operationName(query), this.buildRequest(query, variables), HttpResponse.BodyHandlers.ofString(), !isMutation(query));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Queries are safe to retry after a server error; mutations are not, since
+     * we can't tell whether the server applied them.
+     */
+    static boolean isMutation(String query) {
+        for (String line : query.split("\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            return trimmed.startsWith("mutation");
+        }
+        return false;
+    }
+
+    /**
+     * The name requests for `query` are reported under in `getMetrics()`: the
+     * operation name (`query WeldQuery { ... }` gives `WeldQuery`), or
+     * `graphql` for anonymous operations.
+     */
+    static String operationName(String query) {
+        Matcher matcher = OPERATION_NAME.matcher(query);
+        return matcher.find() ? matcher.group(1) : "graphql";
+    }
+
+    private HttpRequest buildRequest(String query, String variables) throws IOException {
+        // GraphQL requests are in the format `{ "query": "", "variables": "" }`
+        GraphqlRequest envelope = new GraphqlRequest(query, variables);
+
+        return this.createRequestBuilder()
+                .POST(JsonCodec.publisher(JsonCodec.GRAPHQL_REQUEST, envelope))
+                .build();
+    }
+
+    /**
+     * Request body for a bundled operation: the pre-encoded
+     * `{"query":"...","variables":` prefix, the variables, and the closing
+     * brace, sent back to back without being copied into one String.
+     *
+     * Any {@link com.useanvil.examples.entity.InlineFile} in the variables is
+     * base64 encoded while the body is sent rather than up front.
+     */
+    HttpRequest.BodyPublisher buildEnvelope(GraphqlOperation operation, Object variables) throws IOException {
+        if (variables == null) {
+            byte[] prefix = operation.getEnvelopePrefix();
+            return HttpRequest.BodyPublishers.fromPublisher(
+                    HttpRequest.BodyPublishers.ofByteArrays(List.of(prefix, GraphqlOperation.NULL_VARIABLES, GraphqlOperation.ENVELOPE_SUFFIX)),
+                    prefix.length + GraphqlOperation.NULL_VARIABLES.length + GraphqlOperation.ENVELOPE_SUFFIX.length
+            );
+        }
+        return this.inlineFilePublisher.publish(operation.getEnvelopePrefix(), variables, GraphqlOperation.ENVELOPE_SUFFIX);
+    }
+
+    private HttpRequest buildRequest(GraphqlOperation operation, Object variables) throws IOException {
+        return this.createRequestBuilder()
+                .POST(this.buildEnvelope(operation, variables))
+                .build();
+    }
+
+    private HttpRequest buildOperationRequest(GraphqlOperation operation, Object variables, Map<Integer, Path> files) throws IOException {
+        if (files == null || files.isEmpty()) {
+            return this.buildRequest(operation, variables);
+        }
+        return this.buildMultipartRequest(this.buildEnvelope(operation, variables), files);
+    }
+
+    /**
+     * `queryFile` as an operation named like {@link #operationName}, so its
+     * variables go through `buildEnvelope` like a bundled operation's and
+     * any `InlineFile` in them is sent with its `data`.
+     */
+    private static GraphqlOperation compileQuery(Path queryFile) throws IOException {
+        String query = new String(Files.readAllBytes(queryFile));
+        return GraphqlOperations.compile(operationName(query), query);
+    }
+
+    private HttpRequest buildMultipartRequest(HttpRequest.BodyPublisher operations, Map<Integer, Path> files) throws IOException {
         // Most of this is to handle multipart uploads.
         // For normal files, a base64-encoded file in the payload should work
         // fine, if the payload size is too large, you will have to use
@@ -70,38 +441,38 @@ public class GraphqlClient extends BaseClient {
             // The value part of the map needs to be an array.
             fileMap.put(String.valueOf(file.getKey()), new String[]{mapStr});
         }
+        Map<String, Path> parts = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Path> file : files.entrySet()) {
+            parts.put(String.valueOf(file.getKey()), file.getValue());
+        }
+        return this.buildUploadRequest(operations, fileMap, parts);
+    }
 
+    /**
+     * @param fileMap Part name to the variables the file goes into
+     * @param files   Part name to the file to upload
+     */
+    private HttpRequest buildUploadRequest(HttpRequest.BodyPublisher operations, Map<String, String[]> fileMap, Map<String, Path> files) throws IOException {
         // We're using Methanol's Multipart request builder here since it's
         // easier to deal with for our purposes here.
         // It's compatible with the built-in Java 11 HTTP client, so we can
         // just pass that into `client.send()`.
         MultipartBodyPublisher.Builder multipartBody = MultipartBodyPublisher.newBuilder()
-                .formPart("operations", HttpRequest.BodyPublishers.ofString(json))
-                .formPart("map", HttpRequest.BodyPublishers.ofString(this._objectMapper.writeValueAsString(fileMap)));
+                .formPart("operations", operations)
+                .formPart("map", HttpRequest.BodyPublishers.ofByteArray(this._objectMapper.writeValueAsBytes(fileMap)));
 
-        // Go through the files and add them to our multipart builder
-        for (Map.Entry<Integer, Path> file : files.entrySet()) {
-            multipartBody.filePart(String.valueOf(file.getKey()), file.getValue());
+        // Go through the files and add them to our multipart builder. With an
+        // upload cache, files sent before reuse the part built back then.
+        for (Map.Entry<String, Path> file : files.entrySet()) {
+            if (this.uploadCache != null) {
+                multipartBody.part(this.uploadCache.part(file.getKey(), file.getValue()));
+            } else {
+                multipartBody.filePart(file.getKey(), file.getValue());
+            }
         }
 
-        HttpRequest request = this.createRequestBuilder()
+        return this.createRequestBuilder()
                 .POST(multipartBody.build())
                 .build();
-
-        return this.client.send(request, HttpResponse.BodyHandlers.ofString());
-    }
-
-    public HttpResponse<String> doRequest(String query, String variables) throws IOException, InterruptedException {
-        // GraphQL requests are in the format `{ "query": "", "variables": "" }`
-        Map<String, String> graphqlMap = new HashMap<>();
-        graphqlMap.put("query", query);
-        graphqlMap.put("variables", variables);
-        String json = this._objectMapper.writeValueAsString(graphqlMap);
-
-        HttpRequest request = this.createRequestBuilder()
-                .POST(HttpRequest.BodyPublishers.ofString(json))
-                .build();
-
-        return this.client.send(request, HttpResponse.BodyHandlers.ofString());
     }
 }
@@ -0,0 +1,33 @@
+package com.useanvil.examples.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Thrown when a GraphQL response has `errors` and none of the requested data.
+ */
+public class GraphqlException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final JsonNode errors;
+
+    public GraphqlException(int statusCode, JsonNode errors) {
+        super(describe(statusCode, errors));
+        this.statusCode = statusCode;
+        this.errors = errors;
+    }
+
+    public int getStatusCode() {
+        return this.statusCode;
+    }
+
+    public JsonNode getErrors() {
+        return this.errors;
+    }
+
+    private static String describe(int statusCode, JsonNode errors) {
+        JsonNode first = errors != null && errors.size() > 0 ? errors.get(0) : null;
+        String message = first != null && first.hasNonNull("message") ? first.get("message").asText() : String.valueOf(errors);
+        return "GraphQL request failed (HTTP " + statusCode + "): " + message;
+    }
+}
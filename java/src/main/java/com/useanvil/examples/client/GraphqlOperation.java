@@ -0,0 +1,52 @@
+package com.useanvil.examples.client;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A GraphQL query or mutation loaded from `src/main/resources`, along with the
+ * parts of its request body that never change.
+ *
+ * A GraphQL request body is `{"query": "...", "variables": {...}}`. The
+ * `"query"` part is escaped and encoded once, when the operation is loaded, so
+ * sending the operation only needs to serialize the variables.
+ */
+public class GraphqlOperation {
+    static final byte[] ENVELOPE_SUFFIX = "}".getBytes(StandardCharsets.UTF_8);
+    static final byte[] NULL_VARIABLES = "null".getBytes(StandardCharsets.UTF_8);
+
+    private final String name;
+    private final String query;
+    private final boolean mutation;
+    private final byte[] envelopePrefix;
+
+    /**
+     * @param name           e.g. `forge-submit` for `mutations/forge-submit.graphql`
+     * @param query          The GraphQL document
+     * @param envelopePrefix `{"query":"<escaped query>","variables":` in UTF-8
+     */
+    GraphqlOperation(String name, String query, byte[] envelopePrefix) {
+        this.name = name;
+        this.query = query;
+        this.mutation = GraphqlClient.isMutation(query);
+        this.envelopePrefix = envelopePrefix;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getQuery() {
+        return this.query;
+    }
+
+    public boolean isMutation() {
+        return this.mutation;
+    }
+
+    /**
+     * Shared, do not modify.
+     */
+    byte[] getEnvelopePrefix() {
+        return this.envelopePrefix;
+    }
+}
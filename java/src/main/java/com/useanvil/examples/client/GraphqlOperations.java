@@ -0,0 +1,138 @@
+package com.useanvil.examples.client;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Registry of the GraphQL operations bundled with the examples, keyed by file
+ * name without the extension (`current-user`, `wf-weld`, `forge-submit`, ...).
+ *
+ * Operations are loaded from the `queries` and `mutations` directories on the
+ * classpath, so they are found no matter which directory the program runs
+ * from, and the files are read only once per process.
+ */
+public class GraphqlOperations {
+    static final String[] DIRECTORIES = {"queries", "mutations"};
+    private static final String EXTENSION = ".graphql";
+
+    private final Map<String, GraphqlOperation> operations;
+
+    GraphqlOperations(Map<String, GraphqlOperation> operations) {
+        this.operations = Collections.unmodifiableMap(operations);
+    }
+
+    /**
+     * The operations bundled on the classpath, loaded on first use.
+     */
+    public static GraphqlOperations getDefault() {
+        return Holder.DEFAULT;
+    }
+
+    public GraphqlOperation get(String name) {
+        GraphqlOperation operation = this.operations.get(name);
+        if (operation == null) {
+            throw new IllegalArgumentException("Unknown GraphQL operation `" + name + "`. Known operations: " + this.operations.keySet());
+        }
+        return operation;
+    }
+
+    public Set<String> names() {
+        return this.operations.keySet();
+    }
+
+    /**
+     * Builds an operation from GraphQL source that isn't bundled on the
+     * classpath.
+     */
+    public static GraphqlOperation compile(String name, String query) {
+        try {
+            String prefix = "{\"query\":" + JsonCodec.mapper().writeValueAsString(query) + ",\"variables\":";
+            return new GraphqlOperation(name, query, prefix.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static GraphqlOperations loadFromClasspath(ClassLoader classLoader) throws IOException {
+        Map<String, GraphqlOperation> operations = new TreeMap<>();
+        for (String directory : DIRECTORIES) {
+            URL url = classLoader.getResource(directory);
+            if (url == null) {
+                continue;
+            }
+
+            try (Stream<Path> files = list(url, directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String fileName = file.getFileName().toString();
+                    if (!fileName.endsWith(EXTENSION)) {
+                        continue;
+                    }
+                    String name = fileName.substring(0, fileName.length() - EXTENSION.length());
+                    String query = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                    operations.put(name, compile(name, query));
+                }
+            }
+        }
+        return new GraphqlOperations(operations);
+    }
+
+    /**
+     * Lists a classpath directory, whether it is on disk (e.g. `mvn exec`, an
+     * IDE) or inside the packaged jar.
+     */
+    private static Stream<Path> list(URL url, String directory) throws IOException {
+        try {
+            URI uri = url.toURI();
+            if ("jar".equals(uri.getScheme())) {
+                FileSystem fileSystem;
+                try {
+                    fileSystem = FileSystems.newFileSystem(uri, Collections.emptyMap());
+                } catch (FileSystemAlreadyExistsException e) {
+                    // Someone else opened it and closes it
+                    return Files.list(FileSystems.getFileSystem(uri).getPath(directory));
+                }
+                // Ours: close it, and the jar with it, along with the listing
+                try {
+                    return Files.list(fileSystem.getPath(directory)).onClose(() -> {
+                        try {
+                            fileSystem.close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (IOException | RuntimeException e) {
+                    fileSystem.close();
+                    throw e;
+                }
+            }
+            return Files.list(Paths.get(uri));
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static class Holder {
+        static final GraphqlOperations DEFAULT = load();
+
+        private static GraphqlOperations load() {
+            try {
+                return loadFromClasspath(GraphqlOperations.class.getClassLoader());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.useanvil.examples.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A bounded in-memory cache of GraphQL query responses, for lookups that
+ * rarely change such as a weld and its forges or the current user.
+ *
+ * Entries are keyed by API key, operation name and the variables (compared as
+ * JSON, so key order doesn't matter), expire `ttl` after they were loaded and
+ * are evicted least recently used first once there are more than
+ * `maxEntries` of them or they hold more than `maxBytes` of response bodies.
+ *
+ * Only successful responses without GraphQL `errors` are kept. When several
+ * threads miss on the same key at once, one request is sent and all of them
+ * get its response.
+ *
+ * The raw response body is cached and handed to each caller's body handler,
+ * so callers decoding the same query differently share an entry.
+ *
+ * Enable it with {@link GraphqlClient#setQueryCache(GraphqlQueryCache)}.
+ * Mutations never go through the cache.
+ */
+public class GraphqlQueryCache {
+    private static final GraphqlQueryCache DEFAULT = new GraphqlQueryCache(Duration.ofMinutes(5), 1000, 16 * 1024 * 1024);
+
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // Access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param ttl        How long a response is served from the cache
+     * @param maxEntries Most responses kept at once
+     * @param maxBytes   Most response body bytes kept at once
+     */
+    public GraphqlQueryCache(Duration ttl, int maxEntries, long maxBytes) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * A cache shared across the process: 5 minute TTL, 1000 entries, 16MB.
+     */
+    public static GraphqlQueryCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param scope Separates entries of different API keys and servers
+     */
+    static String key(String scope, String operation, Object variables) throws IOException {
+        String json = variables == null ? "null" : new String(JsonCodec.canonicalBytes(variables), StandardCharsets.UTF_8);
+        return scope + '\n' + operation + '\n' + json;
+    }
+
+    /**
+     * The response cached under `key`, or the one `loader` sends if there is
+     * none, decoded by `bodyHandler`.
+     */
+    <T> CompletableFuture<HttpResponse<T>> get(
+            String key,
+            Supplier<CompletableFuture<HttpResponse<byte[]>>> loader,
+            HttpResponse.BodyHandler<T> bodyHandler
+    ) {
+        Entry cached = this.lookup(key);
+        if (cached != null) {
+            this.hits.incrementAndGet();
+            return cached.replay(bodyHandler);
+        }
+        this.misses.incrementAndGet();
+
+        CompletableFuture<Entry> created = new CompletableFuture<>();
+        CompletableFuture<Entry> pending = this.loading.putIfAbsent(key, created);
+        if (pending == null) {
+            pending = created;
+            this.load(key, loader, created);
+        }
+        // Callers cancelling their own future don't cancel the shared load
+        return pending.thenCompose(entry -> entry.replay(bodyHandler));
+    }
+
+    private void load(String key, Supplier<CompletableFuture<HttpResponse<byte[]>>> loader, CompletableFuture<Entry> result) {
+        this.loads.incrementAndGet();
+        CompletableFuture<HttpResponse<byte[]>> response;
+        try {
+            response = loader.get();
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((loaded, throwable) -> {
+            this.loading.remove(key, result);
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+                return;
+            }
+            Entry entry = new Entry(loaded, System.nanoTime() + this.ttlNanos);
+            if (isCacheable(loaded)) {
+                this.store(key, entry);
+            }
+            result.complete(entry);
+        });
+    }
+
+    static boolean isCacheable(HttpResponse<byte[]> response) {
+        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            return false;
+        }
+        try {
+            JsonNode errors = JsonCodec.mapper().readTree(response.body()).get("errors");
+            return errors == null || errors.isNull() || errors.isEmpty();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private synchronized Entry lookup(String key) {
+        Entry entry = this.entries.get(key);
+        if (entry != null && entry.expiresAtNanos - System.nanoTime() <= 0) {
+            this.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void store(String key, Entry entry) {
+        if (entry.body.length > this.maxBytes) {
+            return;
+        }
+        this.remove(key);
+        this.entries.put(key, entry);
+        this.bytes += entry.body.length;
+
+        Iterator<Map.Entry<String, Entry>> eldest = this.entries.entrySet().iterator();
+        while (this.entries.size() > this.maxEntries || this.bytes > this.maxBytes) {
+            this.bytes -= eldest.next().getValue().body.length;
+            eldest.remove();
+            this.evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = this.entries.remove(key);
+        if (removed != null) {
+            this.bytes -= removed.body.length;
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        this.entries.clear();
+        this.bytes = 0;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * Requests actually sent: fewer than misses when concurrent misses were
+     * folded into one request.
+     */
+    public long getLoadCount() {
+        return this.loads.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    public double getHitRate() {
+        long total = this.hits.get() + this.misses.get();
+        return total == 0 ? 0 : (double) this.hits.get() / total;
+    }
+
+    /**
+     * e.g. `12 entries (48KB), 9988 hits, 12 misses (12 loads), 0 evictions`
+     */
+    public String summary() {
+        return String.format(
+                "%d entries (%dKB), %d hits, %d misses (%d loads), %d evictions",
+                this.size(),
+                this.getBytes() / 1024,
+                this.getHitCount(),
+                this.getMissCount(),
+                this.getLoadCount(),
+                this.getEvictionCount()
+        );
+    }
+
+    private static class Entry {
+        final HttpRequest request;
+        final int statusCode;
+        final HttpHeaders headers;
+        final HttpClient.Version version;
+        final byte[] body;
+        final long expiresAtNanos;
+
+        Entry(HttpResponse<byte[]> response, long expiresAtNanos) {
+            this.request = response.request();
+            this.statusCode = response.statusCode();
+            this.headers = response.headers();
+            this.version = response.version();
+            this.body = response.body();
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        <T> CompletableFuture<HttpResponse<T>> replay(HttpResponse.BodyHandler<T> bodyHandler) {
+            return ReplayedResponse.replay(this.request, this.statusCode, this.headers, this.version, this.body, bodyHandler);
+        }
+    }
+}
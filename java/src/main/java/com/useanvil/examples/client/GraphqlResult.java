@@ -0,0 +1,36 @@
+package com.useanvil.examples.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The part of a GraphQL response that was asked for, plus the top-level
+ * `errors` array if the response had one.
+ */
+public class GraphqlResult<T> {
+    public final int statusCode;
+    // `null` if the requested path wasn't in the response (or was `null`)
+    public final T data;
+    // `null` if the response had no errors
+    public final JsonNode errors;
+
+    public GraphqlResult(int statusCode, T data, JsonNode errors) {
+        this.statusCode = statusCode;
+        this.data = data;
+        this.errors = errors;
+    }
+
+    public boolean hasErrors() {
+        return this.errors != null && !this.errors.isNull() && this.errors.size() > 0;
+    }
+
+    /**
+     * @return `data`, unless it is missing and the response had errors
+     * @throws GraphqlException if `data` is missing and the response had errors
+     */
+    public T getDataOrThrow() {
+        if (this.data == null && this.hasErrors()) {
+            throw new GraphqlException(this.statusCode, this.errors);
+        }
+        return this.data;
+    }
+}
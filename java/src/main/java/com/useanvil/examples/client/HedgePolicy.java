@@ -0,0 +1,135 @@
+package com.useanvil.examples.client;
+
+import com.useanvil.examples.metrics.LatencyHistogram;
+import com.useanvil.examples.metrics.OperationMetrics;
+
+import java.time.Duration;
+
+/**
+ * When to send a second copy of a slow request, and how many of those to
+ * allow. See {@link BaseClient#setHedgePolicy}.
+ *
+ * A request is hedged once it has waited longer for its response headers
+ * than `percentile` of its operation's attempts did (p95 by default), and
+ * never sooner than `minDelay`. The percentile is taken from the operation's
+ * time-to-first-byte histogram in {@link OperationMetrics}, which covers every
+ * attempt since the metrics were created or last reset; reset them to follow
+ * a lasting change in latency. Until the operation has `minSamples` attempts
+ * there is nothing to go by, and nothing is hedged.
+ *
+ * Every request adds `budget` to a bucket of hedge tokens and every hedge
+ * takes a whole one out, so hedges stay under `budget` times the requests
+ * (5% by default) even when the API as a whole slows down and every request
+ * is past the usual p95. The bucket holds at most 10 tokens.
+ */
+public class HedgePolicy {
+    public static final double DEFAULT_PERCENTILE = 95;
+    public static final double DEFAULT_BUDGET = 0.05;
+    public static final Duration DEFAULT_MIN_DELAY = Duration.ofMillis(50);
+    public static final int DEFAULT_MIN_SAMPLES = 20;
+
+    private static final double MAX_TOKENS = 10;
+
+    private final double percentile;
+    private final double budget;
+    private final long minDelayNanos;
+    private final int minSamples;
+
+    private double tokens;
+    private long denied;
+
+    public HedgePolicy() {
+        this(DEFAULT_PERCENTILE, DEFAULT_BUDGET, DEFAULT_MIN_DELAY, DEFAULT_MIN_SAMPLES);
+    }
+
+    /**
+     * @param percentile Of the operation's time to first byte, after which a
+     *                   request is hedged
+     * @param budget     Hedges allowed per request, e.g. `0.05` for at most 5%
+     *                   more requests
+     * @param minDelay   Never hedge sooner than this
+     * @param minSamples Attempts an operation needs before its requests are
+     *                   hedged
+     */
+    public HedgePolicy(double percentile, double budget, Duration minDelay, int minSamples) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("percentile must be in (0, 100)");
+        }
+        if (budget < 0 || budget > 1) {
+            throw new IllegalArgumentException("budget must be in [0, 1]");
+        }
+        this.percentile = percentile;
+        this.budget = budget;
+        this.minDelayNanos = minDelay.toNanos();
+        this.minSamples = Math.max(1, minSamples);
+    }
+
+    /**
+     * A policy shared by every client that uses it, so they draw from one
+     * budget. `ANVIL_HEDGE_PERCENTILE` and `ANVIL_HEDGE_BUDGET` override the
+     * defaults.
+     */
+    public static HedgePolicy getDefault() {
+        return Holder.DEFAULT;
+    }
+
+    /**
+     * How long after sending `metrics`' operation a request should be hedged,
+     * or -1 if there aren't enough samples yet.
+     */
+    long delayNanos(OperationMetrics metrics) {
+        LatencyHistogram ttfb = metrics.getTtfb();
+        if (ttfb.getCount() < this.minSamples) {
+            return -1;
+        }
+        return Math.max(this.minDelayNanos, ttfb.getPercentileMicros(this.percentile) * 1000);
+    }
+
+    /**
+     * Called once per request that could be hedged.
+     */
+    synchronized void deposit() {
+        this.tokens = Math.min(MAX_TOKENS, this.tokens + this.budget);
+    }
+
+    /**
+     * Takes a token for one hedge, if there is one.
+     */
+    synchronized boolean tryHedge() {
+        if (this.tokens < 1) {
+            this.denied++;
+            return false;
+        }
+        this.tokens--;
+        return true;
+    }
+
+    public double getPercentile() {
+        return this.percentile;
+    }
+
+    public double getBudget() {
+        return this.budget;
+    }
+
+    /**
+     * Hedges that were due but not sent because the budget was used up.
+     */
+    public synchronized long getDeniedCount() {
+        return this.denied;
+    }
+
+    private static double env(String name, double defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isBlank() ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    private static class Holder {
+        static final HedgePolicy DEFAULT = new HedgePolicy(
+                env("ANVIL_HEDGE_PERCENTILE", DEFAULT_PERCENTILE),
+                env("ANVIL_HEDGE_BUDGET", DEFAULT_BUDGET),
+                DEFAULT_MIN_DELAY,
+                DEFAULT_MIN_SAMPLES
+        );
+    }
+}
@@ -0,0 +1,196 @@
+package com.useanvil.examples.client;
+
+import com.useanvil.examples.metrics.OperationMetrics;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * One attempt of a request that is sent a second time if the first copy is
+ * slow, see {@link HedgePolicy}.
+ *
+ * Whichever copy gets its response headers first wins, even with an error
+ * status (which the scheduler then retries as usual), and only the winner's
+ * body reaches the body handler. The other copy is cancelled as soon as the
+ * winner's headers arrive, which frees its concurrency slot. A copy that
+ * fails before any headers arrive doesn't decide anything while the other
+ * one is still running.
+ *
+ * A hedge is only sent while the endpoint's concurrency limiter has a free
+ * slot: one that had to queue would rarely start before the first copy is
+ * done, and it would hold up other requests.
+ */
+class HedgedRequest<T> {
+    private final HedgePolicy policy;
+    private final RequestScheduler scheduler;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final OperationMetrics metrics;
+    private final Function<HttpResponse.BodyHandler<T>, CompletableFuture<HttpResponse<T>>> send;
+    private final HttpResponse.BodyHandler<T> bodyHandler;
+    private final CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+
+    // Guarded by `this`
+    private final List<CompletableFuture<HttpResponse<T>>> copies = new ArrayList<>(2);
+    private int running;
+    private int winner = -1;
+    private CompletableFuture<Void> timer;
+
+    private HedgedRequest(
+            HedgePolicy policy,
+            RequestScheduler scheduler,
+            AdaptiveConcurrencyLimiter limiter,
+            OperationMetrics metrics,
+            Function<HttpResponse.BodyHandler<T>, CompletableFuture<HttpResponse<T>>> send,
+            HttpResponse.BodyHandler<T> bodyHandler
+    ) {
+        this.policy = policy;
+        this.scheduler = scheduler;
+        this.limiter = limiter;
+        this.metrics = metrics;
+        this.send = send;
+        this.bodyHandler = bodyHandler;
+    }
+
+    /**
+     * Sends the first copy now and a hedge after `delayNanos`, if it is
+     * still waiting for headers by then and the policy's budget allows.
+     *
+     * @param limiter The endpoint's concurrency limiter, or `null`
+     * @param send    Sends one copy with the given body handler
+     */
+    static <T> CompletableFuture<HttpResponse<T>> send(
+            HedgePolicy policy,
+            long delayNanos,
+            RequestScheduler scheduler,
+            AdaptiveConcurrencyLimiter limiter,
+            OperationMetrics metrics,
+            Function<HttpResponse.BodyHandler<T>, CompletableFuture<HttpResponse<T>>> send,
+            HttpResponse.BodyHandler<T> bodyHandler
+    ) {
+        HedgedRequest<T> request = new HedgedRequest<>(policy, scheduler, limiter, metrics, send, bodyHandler);
+        synchronized (request) {
+            request.running = 1;
+            request.timer = CompletableFuture.runAsync(request::hedge, CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS));
+        }
+        request.start(0);
+        request.result.whenComplete((response, throwable) -> request.cancelLosers());
+        return request.result;
+    }
+
+    private void hedge() {
+        synchronized (this) {
+            if (this.result.isDone() || this.winner >= 0) {
+                return;
+            }
+            if (this.limiter != null && this.limiter.getInFlight() >= this.limiter.getLimit()) {
+                return;
+            }
+            if (!this.policy.tryHedge()) {
+                return;
+            }
+            this.running++;
+        }
+        this.metrics.hedged();
+        // The hedge is a request like any other as far as the rate limit goes
+        long wait = this.scheduler.acquireDelayNanos();
+        if (wait <= 0) {
+            this.start(1);
+            return;
+        }
+        CompletableFuture<Void> delayed = CompletableFuture.runAsync(() -> this.start(1), CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS));
+        synchronized (this) {
+            this.timer = delayed;
+        }
+    }
+
+    private void start(int index) {
+        if (this.result.isDone() || this.hasWinner()) {
+            return;
+        }
+        CompletableFuture<HttpResponse<T>> copy;
+        try {
+            copy = this.send.apply(this.claiming(index));
+        } catch (RuntimeException e) {
+            copy = CompletableFuture.failedFuture(e);
+        }
+        synchronized (this) {
+            while (this.copies.size() <= index) {
+                this.copies.add(null);
+            }
+            this.copies.set(index, copy);
+        }
+        copy.whenComplete((response, throwable) -> this.finished(index, response, throwable));
+        if (this.result.isDone() || this.hasWinner()) {
+            // Decided while this copy was being sent
+            this.cancelLosers();
+        }
+    }
+
+    private synchronized boolean hasWinner() {
+        return this.winner >= 0;
+    }
+
+    /**
+     * A body handler that lets copy `index` through if it is the first to get
+     * headers, and discards its body otherwise.
+     */
+    private HttpResponse.BodyHandler<T> claiming(int index) {
+        return responseInfo -> {
+            synchronized (this) {
+                if (this.winner < 0) {
+                    this.winner = index;
+                }
+                if (this.winner != index) {
+                    return HttpResponse.BodySubscribers.replacing(null);
+                }
+            }
+            if (index > 0) {
+                this.metrics.hedgeWon();
+            }
+            this.cancelLosers();
+            return this.bodyHandler.apply(responseInfo);
+        };
+    }
+
+    private void finished(int index, HttpResponse<T> response, Throwable throwable) {
+        boolean complete;
+        synchronized (this) {
+            this.running--;
+            // A winner decides; a copy that failed before any headers only
+            // does when nothing else is left, or coming
+            complete = this.winner == index || (this.winner < 0 && throwable != null && this.running == 0);
+        }
+        if (!complete) {
+            return;
+        }
+        if (throwable != null) {
+            this.result.completeExceptionally(throwable);
+        } else {
+            this.result.complete(response);
+        }
+    }
+
+    /**
+     * Cancels the hedge timer and every copy but the winner, or every copy
+     * if the request itself was cancelled.
+     */
+    private void cancelLosers() {
+        List<CompletableFuture<?>> cancel = new ArrayList<>();
+        synchronized (this) {
+            if (this.timer != null) {
+                cancel.add(this.timer);
+            }
+            for (int i = 0; i < this.copies.size(); i++) {
+                CompletableFuture<HttpResponse<T>> copy = this.copies.get(i);
+                if (copy != null && (i != this.winner || this.result.isCancelled())) {
+                    cancel.add(copy);
+                }
+            }
+        }
+        cancel.forEach(future -> future.cancel(true));
+    }
+}
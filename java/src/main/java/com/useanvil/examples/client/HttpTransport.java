@@ -0,0 +1,181 @@
+package com.useanvil.examples.client;
+
+import com.useanvil.examples.Constants;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * The connection layer shared by {@link RestClient} and {@link GraphqlClient}.
+ *
+ * One `HttpClient` owns one connection pool, so every client created on the
+ * same transport reuses the same TCP/TLS connections. By default all clients
+ * use {@link #shared()}, which means creating a new client per call (as the
+ * runnables do) no longer pays for a new handshake.
+ *
+ * HTTP/2 is preferred, so many concurrent requests multiplex over a single
+ * connection; the client falls back to HTTP/1.1 when the server does not
+ * negotiate h2.
+ */
+public class HttpTransport {
+    // These are read by the JDK HTTP client once, when its connection pool
+    // class is first loaded. See `Builder.keepAlive` and `Builder.poolSize`.
+    static final String KEEP_ALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+    static final String POOL_SIZE_PROPERTY = "jdk.httpclient.connectionPoolSize";
+
+    private static volatile HttpTransport shared;
+
+    private final HttpClient client;
+
+    private HttpTransport(HttpClient client) {
+        this.client = client;
+    }
+
+    /**
+     * The process-wide transport used by clients that aren't given one.
+     */
+    public static HttpTransport shared() {
+        HttpTransport transport = shared;
+        if (transport == null) {
+            synchronized (HttpTransport.class) {
+                transport = shared;
+                if (transport == null) {
+                    transport = newBuilder().build();
+                    shared = transport;
+                }
+            }
+        }
+        return transport;
+    }
+
+    /**
+     * Replaces the process-wide transport. Only clients created after this
+     * call will use it.
+     */
+    public static synchronized void setShared(HttpTransport transport) {
+        shared = transport;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public HttpClient client() {
+        return this.client;
+    }
+
+    /**
+     * Opens connections to the Anvil API ahead of the first real request so
+     * the TCP and TLS handshakes are off the critical path.
+     */
+    public CompletableFuture<Void> warmUp(int connections) {
+        return this.warmUp(URI.create(Constants.getBaseUrl()), connections);
+    }
+
+    /**
+     * Opens up to `connections` connections to `uri` by sending that many
+     * concurrent `HEAD` requests. Over HTTP/2 a single connection is shared by
+     * every request, so `1` is usually enough. The status of the warm-up
+     * responses is irrelevant, and failures are ignored: the real request
+     * will surface any connection problem.
+     */
+    public CompletableFuture<Void> warmUp(URI uri, int connections) {
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                    .build();
+            pending.add(this.client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .handle((response, throwable) -> null));
+        }
+        return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]));
+    }
+
+    public static class Builder {
+        private HttpClient.Version version = HttpClient.Version.HTTP_2;
+        private Duration connectTimeout = Duration.ofSeconds(20);
+        private Executor executor;
+        private Duration keepAlive;
+        private Integer poolSize;
+
+        private Builder() {
+        }
+
+        /**
+         * Defaults to HTTP/2. Use HTTP/1.1 to force one request per connection.
+         */
+        public Builder version(HttpClient.Version version) {
+            this.version = version;
+            return this;
+        }
+
+        public Builder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Executor for the HTTP client's async work and for completing the
+         * futures returned by the clients' `*Async` methods. Uses the HTTP
+         * client's default when not set.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * How long idle connections are kept in the pool.
+         *
+         * The JDK HTTP client reads this once per JVM, so it only takes effect
+         * if set before the first HTTP client is used, and a value given on
+         * the command line with `-Djdk.httpclient.keepalive.timeout` wins.
+         */
+        public Builder keepAlive(Duration keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * Maximum number of idle HTTP/1.1 connections kept per pool (0 means
+         * unbounded). Same caveats as {@link #keepAlive(Duration)}.
+         */
+        public Builder poolSize(int poolSize) {
+            this.poolSize = poolSize;
+            return this;
+        }
+
+        public HttpTransport build() {
+            if (this.keepAlive != null) {
+                setIfAbsent(KEEP_ALIVE_PROPERTY, String.valueOf(Math.max(1, this.keepAlive.getSeconds())));
+            }
+            if (this.poolSize != null) {
+                setIfAbsent(POOL_SIZE_PROPERTY, String.valueOf(this.poolSize));
+            }
+
+            HttpClient.Builder builder = HttpClient.newBuilder()
+                    .version(this.version)
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .connectTimeout(this.connectTimeout);
+
+            if (this.executor != null) {
+                builder.executor(this.executor);
+            }
+
+            return new HttpTransport(builder.build());
+        }
+
+        private static void setIfAbsent(String property, String value) {
+            if (System.getProperty(property) == null) {
+                System.setProperty(property, value);
+            }
+        }
+    }
+}
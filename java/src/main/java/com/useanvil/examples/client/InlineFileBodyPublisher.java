@@ -0,0 +1,172 @@
+package com.useanvil.examples.client;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.useanvil.examples.entity.InlineFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Builds JSON request bodies in which every {@link InlineFile} is base64
+ * encoded while the body is being sent.
+ *
+ * The value is serialized once with a unique placeholder in place of each
+ * file's `data`. The body is then streamed as the JSON before the first
+ * placeholder, the first file encoded on the fly, the JSON up to the next
+ * placeholder, and so on. Only the JSON skeleton is held in memory; file
+ * contents pass through a fixed-size buffer.
+ */
+class InlineFileBodyPublisher {
+    private static final String FILES_ATTRIBUTE = InlineFileBodyPublisher.class.getName() + ".files";
+    private static final String TOKEN_ATTRIBUTE = InlineFileBodyPublisher.class.getName() + ".token";
+
+    private final ObjectWriter writer;
+
+    InlineFileBodyPublisher(ObjectMapper objectMapper) {
+        SimpleModule module = new SimpleModule("InlineFiles");
+        module.addSerializer(InlineFile.class, new InlineFileSerializer());
+        this.writer = objectMapper.copy().registerModule(module).writer();
+    }
+
+    /**
+     * @return A publisher for `prefix`, `value` as JSON, then `suffix`
+     */
+    HttpRequest.BodyPublisher publish(byte[] prefix, Object value, byte[] suffix) throws IOException {
+        List<InlineFile> files = new ArrayList<>();
+        String token = "anvil-inline-" + UUID.randomUUID() + "-";
+        PooledBodyPublisher pooled = JsonCodec.publisher(
+                prefix,
+                this.writer.withAttribute(FILES_ATTRIBUTE, files).withAttribute(TOKEN_ATTRIBUTE, token),
+                value,
+                suffix
+        );
+
+        if (files.isEmpty()) {
+            return pooled;
+        }
+
+        // The placeholders have to be found and cut out, which is simpler
+        // on one array. Bodies with files are dominated by the files anyway.
+        byte[] json = pooled.toByteArray();
+        pooled.release();
+
+        // Alternate between slices of the JSON and encoded files
+        List<Supplier<InputStream>> parts = new ArrayList<>();
+        long length = 0;
+
+        int from = 0;
+        for (int i = 0; i < files.size(); i++) {
+            byte[] placeholder = (token + i).getBytes(StandardCharsets.UTF_8);
+            int at = indexOf(json, placeholder, from);
+            if (at < 0) {
+                throw new IllegalStateException("Placeholder for inline file " + i + " not found");
+            }
+
+            int sliceStart = from;
+            parts.add(() -> new ByteArrayInputStream(json, sliceStart, at - sliceStart));
+            length += at - sliceStart;
+
+            InlineFile file = files.get(i);
+            parts.add(() -> {
+                try {
+                    return new Base64EncodingInputStream(Files.newInputStream(file.getPath()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            length += Base64EncodingInputStream.encodedLength(Files.size(file.getPath()));
+
+            from = at + placeholder.length;
+        }
+
+        int tailStart = from;
+        parts.add(() -> new ByteArrayInputStream(json, tailStart, json.length - tailStart));
+        length += json.length - tailStart;
+
+        // A new sequence (and new file streams) is opened for every
+        // subscription, so retries resend the whole body.
+        return HttpRequest.BodyPublishers.fromPublisher(
+                HttpRequest.BodyPublishers.ofInputStream(() -> new SequenceInputStream(new LazyStreams(parts))),
+                length
+        );
+    }
+
+    static int indexOf(byte[] haystack, byte[] needle, int from) {
+        outer:
+        for (int i = from; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Opens each part only when the previous one has been fully read, so at
+     * most one file is open at a time.
+     */
+    private static class LazyStreams implements Enumeration<InputStream> {
+        private final Iterator<Supplier<InputStream>> parts;
+
+        LazyStreams(List<Supplier<InputStream>> parts) {
+            this.parts = Collections.unmodifiableList(parts).iterator();
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return this.parts.hasNext();
+        }
+
+        @Override
+        public InputStream nextElement() {
+            return this.parts.next().get();
+        }
+    }
+
+    /**
+     * Writes `{"data": <placeholder>, "filename": ..., "mimetype": ...}` and
+     * records the file so the placeholder can be swapped for its contents.
+     */
+    private static class InlineFileSerializer extends StdSerializer<InlineFile> {
+        private static final long serialVersionUID = 1L;
+
+        InlineFileSerializer() {
+            super(InlineFile.class);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void serialize(InlineFile value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            List<InlineFile> files = (List<InlineFile>) provider.getAttribute(FILES_ATTRIBUTE);
+            String token = (String) provider.getAttribute(TOKEN_ATTRIBUTE);
+
+            gen.writeStartObject();
+            gen.writeStringField("data", token + files.size());
+            files.add(value);
+            gen.writeStringField("filename", value.filename);
+            gen.writeStringField("mimetype", value.mimetype);
+            gen.writeEndObject();
+        }
+    }
+}
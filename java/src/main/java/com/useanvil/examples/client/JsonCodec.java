@@ -0,0 +1,142 @@
+package com.useanvil.examples.client;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.useanvil.examples.entity.CreateEtchPacket;
+import com.useanvil.examples.entity.GraphqlRequest;
+import com.useanvil.examples.entity.PayloadData;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The serialization layer shared by the clients and the examples.
+ *
+ * There is a single `ObjectMapper`, so serializers are built and cached once
+ * per type for the whole process, and an `ObjectWriter` is kept per root type
+ * so the root serializer lookup is skipped as well.
+ *
+ * Request bodies are written as UTF-8 straight into pooled byte chunks (see
+ * {@link #publisher(ObjectWriter, Object)}) rather than into a `String` that
+ * `BodyPublishers.ofString` would then copy again.
+ */
+public final class JsonCodec {
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            // The stream belongs to whoever created it
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            // Responses gain fields over time; don't fail on the ones we don't map
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private static final ConcurrentMap<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
+    public static final ObjectWriter CREATE_ETCH_PACKET = writerFor(CreateEtchPacket.class);
+    public static final ObjectWriter PAYLOAD_DATA = writerFor(PayloadData.class);
+    public static final ObjectWriter GRAPHQL_REQUEST = writerFor(GraphqlRequest.class);
+
+    private JsonCodec() {
+    }
+
+    /**
+     * The shared mapper. Don't reconfigure it; use `copy()` if you need
+     * different settings.
+     */
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    /**
+     * A cached writer for values of exactly `type`.
+     */
+    public static ObjectWriter writerFor(Class<?> type) {
+        return WRITERS.computeIfAbsent(type, MAPPER::writerFor);
+    }
+
+    public static HttpRequest.BodyPublisher publisher(Object value) throws IOException {
+        if (value == null) {
+            return publisher(MAPPER.writer(), null);
+        }
+        return publisher(writerFor(value.getClass()), value);
+    }
+
+    /**
+     * Serializes `value` into pooled buffers and returns a publisher over
+     * them. The buffers are recycled once the request has been sent through
+     * a client (see `BaseClient#sendAsync`); a publisher that is never sent
+     * is simply garbage collected.
+     */
+    public static HttpRequest.BodyPublisher publisher(ObjectWriter writer, Object value) throws IOException {
+        return publisher(null, writer, value, null);
+    }
+
+    /**
+     * @return A publisher for `prefix`, `value` as JSON, then `suffix`
+     */
+    static PooledBodyPublisher publisher(byte[] prefix, ObjectWriter writer, Object value, byte[] suffix) throws IOException {
+        PooledByteOutputStream out = new PooledByteOutputStream();
+        try {
+            if (prefix != null) {
+                out.write(prefix);
+            }
+            writer.writeValue(out, value);
+            if (suffix != null) {
+                out.write(suffix);
+            }
+        } catch (IOException | RuntimeException e) {
+            out.discard();
+            throw e;
+        }
+        return out.toPublisher();
+    }
+
+    /**
+     * `value` as JSON with the fields of every object sorted by name, so equal
+     * values always give equal bytes no matter how they were built (e.g. a
+     * `HashMap` versus a `LinkedHashMap`). Used for cache keys.
+     */
+    public static byte[] canonicalBytes(Object value) throws IOException {
+        JsonNode tree = MAPPER.valueToTree(value);
+        return MAPPER.writeValueAsBytes(sortFields(tree));
+    }
+
+    private static JsonNode sortFields(JsonNode node) {
+        if (node == null) {
+            return null;
+        }
+        if (node.isObject()) {
+            List<Map.Entry<String, JsonNode>> fields = new ArrayList<>();
+            node.fields().forEachRemaining(fields::add);
+            fields.sort(Map.Entry.comparingByKey());
+            ObjectNode sorted = MAPPER.createObjectNode();
+            for (Map.Entry<String, JsonNode> field : fields) {
+                sorted.set(field.getKey(), sortFields(field.getValue()));
+            }
+            return sorted;
+        }
+        if (node.isArray()) {
+            for (int i = 0; i < node.size(); i++) {
+                ((ArrayNode) node).set(i, sortFields(node.get(i)));
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Returns the pooled buffers behind `publisher` once the request using it
+     * is done. Other publishers are left alone.
+     */
+    static void release(HttpRequest.BodyPublisher publisher) {
+        if (publisher instanceof PooledBodyPublisher) {
+            ((PooledBodyPublisher) publisher).release();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.useanvil.examples.client;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Writes text into `out` as the inside of a JSON string: escaped and UTF-8
+ * encoded, without the surrounding quotes. Text is encoded a few KB at a
+ * time, so a string of any length can be written without holding it.
+ *
+ * Closing the writer flushes it but leaves `out` open.
+ */
+class JsonStringWriter extends Writer {
+    private static final int BUFFER_CHARS = 8 * 1024;
+
+    private final OutputStream out;
+    private final StringBuilder buffer = new StringBuilder(BUFFER_CHARS + 1);
+    private boolean closed;
+
+    JsonStringWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(char[] chars, int off, int len) throws IOException {
+        this.ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, BUFFER_CHARS - this.buffer.length());
+            this.buffer.append(chars, off, n);
+            off += n;
+            len -= n;
+            if (this.buffer.length() >= BUFFER_CHARS) {
+                this.encode(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(String text, int off, int len) throws IOException {
+        this.ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, BUFFER_CHARS - this.buffer.length());
+            this.buffer.append(text, off, off + n);
+            off += n;
+            len -= n;
+            if (this.buffer.length() >= BUFFER_CHARS) {
+                this.encode(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        this.ensureOpen();
+        this.buffer.append((char) c);
+        if (this.buffer.length() >= BUFFER_CHARS) {
+            this.encode(false);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.encode(false);
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.encode(true);
+        this.out.flush();
+        this.closed = true;
+    }
+
+    /**
+     * @param last Whether no more text follows. Otherwise a trailing high
+     *             surrogate is held back until its low surrogate arrives.
+     */
+    private void encode(boolean last) throws IOException {
+        int length = this.buffer.length();
+        if (!last && length > 0 && Character.isHighSurrogate(this.buffer.charAt(length - 1))) {
+            length--;
+        }
+        if (length == 0) {
+            return;
+        }
+        this.out.write(JsonStringEncoder.getInstance().quoteAsUTF8(this.buffer.substring(0, length)));
+        this.buffer.delete(0, length);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (this.closed) {
+            throw new IOException("Writer is closed");
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.useanvil.examples.client;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Wraps a body handler to time one attempt: when the response headers
+ * arrived, when the body was done, and how many body bytes there were.
+ */
+class MeteringBodyHandler<T> implements HttpResponse.BodyHandler<T> {
+    private final HttpResponse.BodyHandler<T> delegate;
+    private final long sentNanos;
+    private volatile long headersNanos = -1;
+    private volatile long completedNanos = -1;
+    private volatile long bytesReceived;
+
+    /**
+     * @param sentNanos `System.nanoTime()` when the request was handed to the
+     *                  HTTP client
+     */
+    MeteringBodyHandler(HttpResponse.BodyHandler<T> delegate, long sentNanos) {
+        this.delegate = delegate;
+        this.sentNanos = sentNanos;
+    }
+
+    long getTtfbNanos() {
+        long headers = this.headersNanos;
+        return headers < 0 ? -1 : headers - this.sentNanos;
+    }
+
+    long getBodyTransferNanos() {
+        long headers = this.headersNanos;
+        long completed = this.completedNanos;
+        return headers < 0 || completed < 0 ? -1 : completed - headers;
+    }
+
+    long getBytesReceived() {
+        return this.bytesReceived;
+    }
+
+    @Override
+    public HttpResponse.BodySubscriber<T> apply(HttpResponse.ResponseInfo responseInfo) {
+        this.headersNanos = System.nanoTime();
+        return new MeteringSubscriber(this.delegate.apply(responseInfo));
+    }
+
+    private class MeteringSubscriber implements HttpResponse.BodySubscriber<T> {
+        private final HttpResponse.BodySubscriber<T> subscriber;
+
+        MeteringSubscriber(HttpResponse.BodySubscriber<T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return this.subscriber.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscriber.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            // Counted before the delegate consumes the buffers. Calls are
+            // serialized, so the non-atomic update is safe.
+            long bytes = 0;
+            for (ByteBuffer buffer : item) {
+                bytes += buffer.remaining();
+            }
+            bytesReceived += bytes;
+            this.subscriber.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            completedNanos = System.nanoTime();
+            this.subscriber.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            completedNanos = System.nanoTime();
+            this.subscriber.onComplete();
+        }
+    }
+}
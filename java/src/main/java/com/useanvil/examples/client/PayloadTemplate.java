@@ -0,0 +1,347 @@
+package com.useanvil.examples.client;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A JSON payload with placeholders, compiled once and rendered for many
+ * records, e.g. one fill payload per row of a bulk job.
+ *
+ * A placeholder is `{{name}}` or `{{name:type}}` inside a JSON string:
+ *
+ * `{"title": "Offer for {{name}}", "data": {"name": "{{name}}", "salary": "{{salary:number}}", "remote": "{{remote:boolean}}"}}`
+ *
+ * A string that is nothing but one placeholder is replaced by the value as
+ * its type: `string` (the default), `integer`, `number`, `boolean` or `json`
+ * (any value, serialized as is). A placeholder inside a longer string is
+ * replaced by the value's text, escaped as needed. Placeholders in field
+ * names are left alone.
+ *
+ * Compiling parses and validates the template and splits its compact UTF-8
+ * encoding into literal byte segments around the placeholders, so rendering
+ * a record only copies those segments and encodes the values in between. No
+ * JSON is parsed per record.
+ */
+public class PayloadTemplate {
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\{\\s*([A-Za-z0-9_.\\-]+)\\s*(?::\\s*([A-Za-z]+)\\s*)?}}");
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    public enum Type {
+        STRING, INTEGER, NUMBER, BOOLEAN, JSON
+    }
+
+    // `literals[i]` comes before `slots[i]`; there is one more literal than slots
+    private final byte[][] literals;
+    private final Slot[] slots;
+    private final Map<String, Type> placeholders;
+    private final int literalBytes;
+
+    private PayloadTemplate(List<byte[]> literals, List<Slot> slots, Map<String, Type> placeholders) {
+        this.literals = literals.toArray(new byte[0][]);
+        this.slots = slots.toArray(new Slot[0]);
+        this.placeholders = Collections.unmodifiableMap(placeholders);
+        int bytes = 0;
+        for (byte[] literal : this.literals) {
+            bytes += literal.length;
+        }
+        this.literalBytes = bytes;
+    }
+
+    public static PayloadTemplate compile(String json) throws IOException {
+        return new Compiler().compile(JsonCodec.mapper().readTree(json));
+    }
+
+    public static PayloadTemplate compile(Path file) throws IOException {
+        return new Compiler().compile(JsonCodec.mapper().readTree(Files.readAllBytes(file)));
+    }
+
+    /**
+     * Every placeholder name and its type, in the order they first appear.
+     */
+    public Map<String, Type> getPlaceholders() {
+        return this.placeholders;
+    }
+
+    /**
+     * The payload for `record` as UTF-8 JSON.
+     *
+     * @param record A `Map` (a dotted name like `name.first` also looks into
+     *               nested maps), a `JsonNode` (dotted names look into nested
+     *               objects), or any object Jackson can convert to one
+     * @throws IllegalArgumentException A placeholder has no value in `record`,
+     *                                  or one that doesn't fit its type
+     */
+    public byte[] render(Object record) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(this.literalBytes + 32 * this.slots.length);
+        try {
+            this.render(record, out);
+        } catch (IOException e) {
+            // A ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public void render(Object record, OutputStream out) throws IOException {
+        Map<?, ?> map = record instanceof Map ? (Map<?, ?>) record : null;
+        JsonNode node = map != null ? null : record instanceof JsonNode ? (JsonNode) record : JsonCodec.mapper().valueToTree(record);
+        for (int i = 0; i < this.slots.length; i++) {
+            out.write(this.literals[i]);
+            Slot slot = this.slots[i];
+            slot.write(map != null ? slot.lookup(map) : slot.lookup(node), out);
+        }
+        out.write(this.literals[this.slots.length]);
+    }
+
+    /**
+     * Renders `record` into pooled buffers for a request body, see
+     * {@link JsonCodec#publisher(Object)}. Pass it to e.g.
+     * `RestClient#fillPdfAsync(String, Object, BodyHandler)`.
+     */
+    public HttpRequest.BodyPublisher publisher(Object record) throws IOException {
+        PooledByteOutputStream out = new PooledByteOutputStream();
+        try {
+            this.render(record, out);
+        } catch (IOException | RuntimeException e) {
+            out.discard();
+            throw e;
+        }
+        return out.toPublisher();
+    }
+
+    private static class Slot {
+        final String name;
+        final Type type;
+        // Inside a longer string, so only the text is written
+        final boolean embedded;
+
+        // Where a dotted name points, worked out once
+        final String[] path;
+        final JsonPointer pointer;
+
+        Slot(String name, Type type, boolean embedded) {
+            this.name = name;
+            this.type = type;
+            this.embedded = embedded;
+            this.path = name.split("\\.");
+            this.pointer = JsonPointer.compile("/" + name.replace("~", "~0").replace("/", "~1").replace('.', '/'));
+        }
+
+        Object lookup(Map<?, ?> map) {
+            if (map.containsKey(this.name)) {
+                return map.get(this.name);
+            }
+            Object value = map;
+            for (String part : this.path) {
+                if (!(value instanceof Map) || !((Map<?, ?>) value).containsKey(part)) {
+                    throw new IllegalArgumentException("No value for {{" + this.name + "}}");
+                }
+                value = ((Map<?, ?>) value).get(part);
+            }
+            return value;
+        }
+
+        Object lookup(JsonNode node) {
+            JsonNode value = node == null ? null : node.get(this.name);
+            if (value == null && node != null) {
+                value = node.at(this.pointer);
+            }
+            if (value == null || value.isMissingNode()) {
+                throw new IllegalArgumentException("No value for {{" + this.name + "}}");
+            }
+            if (value.isNull()) {
+                return null;
+            }
+            if (value.isTextual()) {
+                return value.textValue();
+            }
+            if (value.isNumber()) {
+                return value.numberValue();
+            }
+            if (value.isBoolean()) {
+                return value.booleanValue();
+            }
+            return value;
+        }
+
+        void write(Object value, OutputStream out) throws IOException {
+            if (value == null) {
+                if (!this.embedded) {
+                    out.write(NULL);
+                }
+                return;
+            }
+            if (this.type == Type.JSON) {
+                JsonCodec.mapper().writeValue(out, value);
+                return;
+            }
+            if (this.type == Type.STRING) {
+                String text = value instanceof String ? (String) value : String.valueOf(value);
+                if (!this.embedded) {
+                    out.write('"');
+                }
+                out.write(JsonStringEncoder.getInstance().quoteAsUTF8(text));
+                if (!this.embedded) {
+                    out.write('"');
+                }
+                return;
+            }
+            out.write(this.scalar(value).getBytes(StandardCharsets.US_ASCII));
+        }
+
+        /**
+         * `value` as a JSON integer, number or boolean literal.
+         */
+        private String scalar(Object value) {
+            String text = value.toString().trim();
+            try {
+                switch (this.type) {
+                    case INTEGER:
+                        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte || value instanceof BigInteger) {
+                            return text;
+                        }
+                        return new BigDecimal(text).toBigIntegerExact().toString();
+                    case NUMBER:
+                        if ((value instanceof Double && !Double.isFinite((Double) value)) || (value instanceof Float && !Float.isFinite((Float) value))) {
+                            throw new NumberFormatException(text);
+                        }
+                        // Validates it, but keeps the way it was written
+                        new BigDecimal(text);
+                        return text;
+                    case BOOLEAN:
+                        if (value instanceof Boolean) {
+                            return text;
+                        }
+                        String lower = text.toLowerCase(Locale.ROOT);
+                        if (lower.equals("true") || lower.equals("false")) {
+                            return lower;
+                        }
+                        throw new IllegalArgumentException(text);
+                    default:
+                        throw new IllegalStateException(String.valueOf(this.type));
+                }
+            } catch (ArithmeticException | IllegalArgumentException e) {
+                String expected = this.type == Type.INTEGER ? "an integer" : "a " + this.type.name().toLowerCase(Locale.ROOT);
+                throw new IllegalArgumentException("{{" + this.name + "}} must be " + expected + ", got " + text);
+            }
+        }
+    }
+
+    /**
+     * Writes the template back out compactly, cutting a new literal at every
+     * placeholder. The generator is told a value was written where a
+     * placeholder goes, so it keeps putting commas and colons in the right
+     * places.
+     */
+    private static class Compiler {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final List<byte[]> literals = new ArrayList<>();
+        private final List<Slot> slots = new ArrayList<>();
+        private final Map<String, Type> placeholders = new LinkedHashMap<>();
+        // Only the placeholders with an explicit `:type`
+        private final Map<String, Type> typed = new LinkedHashMap<>();
+        private JsonGenerator generator;
+
+        PayloadTemplate compile(JsonNode tree) throws IOException {
+            this.generator = JsonCodec.mapper().createGenerator(this.out, JsonEncoding.UTF8);
+            this.write(tree);
+            this.generator.close();
+            this.literals.add(this.out.toByteArray());
+            return new PayloadTemplate(this.literals, this.slots, this.placeholders);
+        }
+
+        private void write(JsonNode node) throws IOException {
+            if (node.isObject()) {
+                this.generator.writeStartObject();
+                Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    this.generator.writeFieldName(field.getKey());
+                    this.write(field.getValue());
+                }
+                this.generator.writeEndObject();
+            } else if (node.isArray()) {
+                this.generator.writeStartArray();
+                for (JsonNode element : node) {
+                    this.write(element);
+                }
+                this.generator.writeEndArray();
+            } else if (node.isTextual() && PLACEHOLDER.matcher(node.textValue()).find()) {
+                this.writeText(node.textValue());
+            } else {
+                this.generator.writeTree(node);
+            }
+        }
+
+        private void writeText(String text) throws IOException {
+            Matcher matcher = PLACEHOLDER.matcher(text);
+            if (matcher.matches()) {
+                this.generator.writeRawValue("");
+                this.cut(matcher, false);
+                return;
+            }
+
+            this.generator.writeRawValue("\"");
+            int end = 0;
+            matcher.reset();
+            while (matcher.find()) {
+                this.generator.writeRaw(new String(JsonStringEncoder.getInstance().quoteAsString(text.substring(end, matcher.start()))));
+                this.cut(matcher, true);
+                end = matcher.end();
+            }
+            this.generator.writeRaw(new String(JsonStringEncoder.getInstance().quoteAsString(text.substring(end))));
+            this.generator.writeRaw('"');
+        }
+
+        private void cut(Matcher matcher, boolean embedded) throws IOException {
+            String name = matcher.group(1);
+            Type type;
+            try {
+                type = matcher.group(2) == null ? null : Type.valueOf(matcher.group(2).toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown type in " + matcher.group() + ", expected one of string, integer, number, boolean or json");
+            }
+            if (embedded && type == Type.JSON) {
+                throw new IllegalArgumentException(matcher.group() + " must be the whole string");
+            }
+            if (type != null) {
+                Type previous = this.typed.putIfAbsent(name, type);
+                if (previous != null && previous != type) {
+                    throw new IllegalArgumentException("{{" + name + "}} is used as both " + previous + " and " + type);
+                }
+                this.placeholders.put(name, type);
+            } else {
+                // e.g. `"{{salary:number}}"` and `"Salary: {{salary}}"` together are fine
+                this.placeholders.putIfAbsent(name, Type.STRING);
+                type = Type.STRING;
+            }
+
+            this.generator.flush();
+            this.literals.add(this.out.toByteArray());
+            this.out.reset();
+            this.slots.add(new Slot(name, type, embedded));
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package com.useanvil.examples.client;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A directory of filled and generated PDFs, addressed by what was asked for:
+ * the SHA-256 of the template, its concrete version number and the payload
+ * (as canonical JSON, so field order doesn't matter). Filling the same
+ * template version with the same data again is answered from disk instead of
+ * being rendered by the API.
+ *
+ * Entries are written to a temporary file and moved into place, so a crash
+ * never leaves a truncated PDF behind, and the least recently used ones are
+ * deleted once the directory holds more than `maxBytes`. A PDF larger than
+ * `maxBytes` on its own isn't kept; it is moved straight to its target. Hits
+ * are copied to their target with `FileChannel.transferTo`, which the OS can
+ * do without moving the bytes through the JVM.
+ *
+ * Enable it with {@link RestClient#setPdfCache(PdfCache)}, then use the
+ * `fillPdfToFile` and `generatePdfToFile` methods.
+ */
+public class PdfCache {
+    private static final String EXTENSION = ".pdf";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final GraphqlQueryCache versionCache;
+
+    // Access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public PdfCache(Path directory, long maxBytes) throws IOException {
+        this(directory, maxBytes, Duration.ofMinutes(1));
+    }
+
+    /**
+     * @param directory  Where the PDFs are kept. Entries already there are
+     *                   picked up, so the cache survives restarts.
+     * @param maxBytes   Most PDF bytes kept at once
+     * @param versionTtl How long the published version of a template is
+     *                   remembered. A newly published version is picked up
+     *                   at most this long after it was published.
+     */
+    public PdfCache(Path directory, long maxBytes, Duration versionTtl) throws IOException {
+        this.directory = Files.createDirectories(directory).toAbsolutePath();
+        this.maxBytes = maxBytes;
+        this.versionCache = new GraphqlQueryCache(versionTtl, 1000, 1024 * 1024);
+        this.scan();
+    }
+
+    /**
+     * Loads the entries left by a previous run, oldest first, and removes
+     * temporary files of writes that never finished.
+     */
+    private void scan() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(this.directory)) {
+            files = list.collect(Collectors.toList());
+        }
+        List<Path> pdfs = files.stream()
+                .filter(file -> file.getFileName().toString().endsWith(EXTENSION))
+                .sorted(Comparator.comparing(PdfCache::lastModified))
+                .collect(Collectors.toList());
+        for (Path file : files) {
+            if (file.getFileName().toString().endsWith(".tmp")) {
+                Files.deleteIfExists(file);
+            }
+        }
+        synchronized (this) {
+            for (Path pdf : pdfs) {
+                String name = pdf.getFileName().toString();
+                this.entries.put(name.substring(0, name.length() - EXTENSION.length()), new Entry(pdf, Files.size(pdf), null));
+                this.bytes += Files.size(pdf);
+            }
+            this.evict(null);
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Remembers the published and draft version numbers of templates, see
+     * `versionTtl`.
+     */
+    GraphqlQueryCache getVersionCache() {
+        return this.versionCache;
+    }
+
+    static String fillKey(String templateId, int versionNumber, Object payload) throws IOException {
+        return key("fill\n" + templateId + "\n" + versionNumber + "\n", payload);
+    }
+
+    static String generateKey(Object payload) throws IOException {
+        return key("generate\n", payload);
+    }
+
+    private static String key(String prefix, Object payload) throws IOException {
+        MessageDigest digest = StreamingBodyHandlers.newDigest();
+        digest.update(prefix.getBytes(StandardCharsets.UTF_8));
+        // A String or byte[] payload is already JSON; parse it so it is canonicalized too
+        Object value = payload;
+        if (payload instanceof String) {
+            value = JsonCodec.mapper().readTree((String) payload);
+        } else if (payload instanceof byte[]) {
+            value = JsonCodec.mapper().readTree((byte[]) payload);
+        } else if (payload instanceof HttpRequest.BodyPublisher) {
+            throw new IOException("A BodyPublisher payload can't be cached, pass the JSON as a String or byte[]");
+        }
+        digest.update(JsonCodec.canonicalBytes(value));
+        return StreamingBodyHandlers.toHex(digest.digest());
+    }
+
+    /**
+     * Copies the PDF cached under `key` to `target`. On a miss `loader` is
+     * asked to download it to the path it is given first; concurrent misses
+     * on the same key share one download. A PDF that was evicted, or moved
+     * away because it is too large to keep, before it could be copied is
+     * downloaded again.
+     */
+    CompletableFuture<TransferResult> get(String key, Path target, Function<Path, CompletableFuture<TransferResult>> loader) {
+        Entry entry = this.lookup(key);
+        if (entry != null) {
+            try {
+                TransferResult result = this.copy(entry, target);
+                this.hits.incrementAndGet();
+                return CompletableFuture.completedFuture(result);
+            } catch (NoSuchFileException e) {
+                // Deleted behind our back, e.g. by another process sharing
+                // the directory. Download it again.
+                this.remove(key, entry);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        this.misses.incrementAndGet();
+
+        CompletableFuture<Entry> created = new CompletableFuture<>();
+        CompletableFuture<Entry> pending = this.loading.putIfAbsent(key, created);
+        boolean owner = pending == null;
+        if (owner) {
+            pending = created;
+            this.load(key, loader, created);
+        }
+        return pending.thenCompose(loaded -> {
+            try {
+                if (owner && !loaded.cached) {
+                    return CompletableFuture.completedFuture(this.move(loaded, target));
+                }
+                return CompletableFuture.completedFuture(this.copy(loaded, target));
+            } catch (NoSuchFileException e) {
+                // Evicted, or moved to the target of the miss that
+                // downloaded it, before we got to it
+                return this.get(key, target, loader);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+    }
+
+    private void load(String key, Function<Path, CompletableFuture<TransferResult>> loader, CompletableFuture<Entry> result) {
+        Path file = this.directory.resolve(key + EXTENSION);
+        CompletableFuture<TransferResult> download;
+        try {
+            download = loader.apply(file);
+        } catch (RuntimeException e) {
+            download = CompletableFuture.failedFuture(e);
+        }
+        download.whenComplete((transfer, throwable) -> {
+            this.loading.remove(key, result);
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+                return;
+            }
+            Entry entry = new Entry(file, transfer.bytes, transfer.checksum);
+            entry.cached = this.store(key, entry);
+            result.complete(entry);
+        });
+    }
+
+    /**
+     * Copies `entry` to `target` through a temporary file next to it, so
+     * `target` is replaced atomically.
+     */
+    private TransferResult copy(Entry entry, Path target) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try (FileChannel in = FileChannel.open(entry.file, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // Keeps the least recently used order across restarts
+            Files.setLastModifiedTime(entry.file, FileTime.fromMillis(System.currentTimeMillis()));
+            return new TransferResult(size, entry.checksum(in));
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Moves an entry that wasn't cached to `target`, or copies it there
+     * and deletes it if `target` is on another file system.
+     */
+    private TransferResult move(Entry entry, Path target) throws IOException {
+        try {
+            Files.move(entry.file, target.toAbsolutePath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new TransferResult(entry.size, entry.checksum);
+        } catch (AtomicMoveNotSupportedException e) {
+            try {
+                return this.copy(entry, target);
+            } finally {
+                Files.deleteIfExists(entry.file);
+            }
+        }
+    }
+
+    private synchronized Entry lookup(String key) {
+        return this.entries.get(key);
+    }
+
+    /**
+     * Adds `entry`, evicting others to make room, unless it is larger than
+     * the whole cache.
+     *
+     * @return Whether it was added
+     */
+    private synchronized boolean store(String key, Entry entry) {
+        if (entry.size > this.maxBytes) {
+            return false;
+        }
+        Entry previous = this.entries.put(key, entry);
+        if (previous != null) {
+            this.bytes -= previous.size;
+        }
+        this.bytes += entry.size;
+        this.evict(key);
+        return true;
+    }
+
+    private synchronized void remove(String key, Entry entry) {
+        if (this.entries.remove(key, entry)) {
+            this.bytes -= entry.size;
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries, except `keep`, until the
+     * cache is back under `maxBytes`.
+     */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Entry>> eldest = this.entries.entrySet().iterator();
+        while (this.bytes > this.maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Entry> next = eldest.next();
+            if (next.getKey().equals(keep)) {
+                continue;
+            }
+            Entry entry = next.getValue();
+            eldest.remove();
+            this.bytes -= entry.size;
+            this.evictions.incrementAndGet();
+            try {
+                Files.deleteIfExists(entry.file);
+            } catch (IOException ignored) {
+                // Picked up again (and evicted) on the next scan
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    /**
+     * e.g. `120 PDFs (7MB), 880 hits, 120 misses, 0 evictions`
+     */
+    public String summary() {
+        return String.format(
+                "%d PDFs (%dMB), %d hits, %d misses, %d evictions",
+                this.size(),
+                this.getBytes() / (1024 * 1024),
+                this.getHitCount(),
+                this.getMissCount(),
+                this.getEvictionCount()
+        );
+    }
+
+    private static class Entry {
+        final Path file;
+        final long size;
+        // Unknown for entries found on disk until they are first read
+        private volatile String checksum;
+        // False for a download too large to keep, which is moved to its target
+        volatile boolean cached = true;
+
+        Entry(Path file, long size, String checksum) {
+            this.file = file;
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        String checksum(FileChannel channel) throws IOException {
+            if (this.checksum == null) {
+                MessageDigest digest = StreamingBodyHandlers.newDigest();
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                long position = 0;
+                int read;
+                while ((read = channel.read(buffer, position)) > 0) {
+                    position += read;
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+                this.checksum = StreamingBodyHandlers.toHex(digest.digest());
+            }
+            return this.checksum;
+        }
+    }
+}
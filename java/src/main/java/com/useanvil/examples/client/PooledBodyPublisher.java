@@ -0,0 +1,158 @@
+package com.useanvil.examples.client;
+
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A request body backed by pooled chunks (see {@link PooledByteOutputStream}).
+ * Each chunk is published as a read-only `ByteBuffer` view, without copying.
+ *
+ * The chunks go back to the pool once the owner has called {@link #release()}
+ * _and_ every subscription has finished, so a body that is still being
+ * written (e.g. by a request the caller gave up on) is never recycled.
+ * `BaseClient` releases pooled bodies when the response (including retries)
+ * is complete.
+ */
+class PooledBodyPublisher implements HttpRequest.BodyPublisher {
+    private final ByteArrayPool pool;
+    private final List<byte[]> chunks;
+    private final long length;
+    // One reference for the owner, plus one per active subscription
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    PooledBodyPublisher(ByteArrayPool pool, List<byte[]> chunks, long length) {
+        this.pool = pool;
+        this.chunks = chunks;
+        this.length = length;
+    }
+
+    @Override
+    public long contentLength() {
+        return this.length;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (!this.retain()) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Request body was already released"));
+            return;
+        }
+        subscriber.onSubscribe(new ChunkSubscription(subscriber));
+    }
+
+    byte[] toByteArray() {
+        byte[] result = new byte[(int) this.length];
+        int offset = 0;
+        for (byte[] chunk : this.chunks) {
+            int n = (int) Math.min(chunk.length, this.length - offset);
+            System.arraycopy(chunk, 0, result, offset, n);
+            offset += n;
+        }
+        return result;
+    }
+
+    /**
+     * Called by the owner once the request is finished with.
+     */
+    void release() {
+        if (this.released.compareAndSet(false, true)) {
+            this.dereference();
+        }
+    }
+
+    private boolean retain() {
+        while (true) {
+            int current = this.references.get();
+            if (current == 0) {
+                return false;
+            }
+            if (this.references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void dereference() {
+        if (this.references.decrementAndGet() == 0) {
+            for (byte[] chunk : this.chunks) {
+                this.pool.release(chunk);
+            }
+        }
+    }
+
+    private class ChunkSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicBoolean terminated = new AtomicBoolean();
+        private int index;
+        private long remaining = length;
+
+        ChunkSubscription(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                if (this.terminate()) {
+                    this.subscriber.onError(new IllegalArgumentException("non-positive request: " + n));
+                }
+                return;
+            }
+            this.demand.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            this.drain();
+        }
+
+        @Override
+        public void cancel() {
+            this.terminate();
+        }
+
+        /**
+         * Emits as many chunks as requested. Re-entrant calls (a subscriber
+         * requesting more from inside `onNext`) are folded into the running
+         * loop instead of recursing.
+         */
+        private void drain() {
+            if (this.wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while (this.demand.get() > 0 && !this.terminated.get() && this.index < chunks.size()) {
+                    byte[] chunk = chunks.get(this.index++);
+                    int n = (int) Math.min(chunk.length, this.remaining);
+                    this.remaining -= n;
+                    this.demand.decrementAndGet();
+                    this.subscriber.onNext(ByteBuffer.wrap(chunk, 0, n).asReadOnlyBuffer());
+                }
+                if (this.index == chunks.size() && this.terminate()) {
+                    this.subscriber.onComplete();
+                }
+            } while (this.wip.decrementAndGet() != 0);
+        }
+
+        private boolean terminate() {
+            if (this.terminated.compareAndSet(false, true)) {
+                dereference();
+                return true;
+            }
+            return false;
+        }
+    }
+}
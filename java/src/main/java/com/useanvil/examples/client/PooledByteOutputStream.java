@@ -0,0 +1,87 @@
+package com.useanvil.examples.client;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An output stream that writes into chunks borrowed from a
+ * {@link ByteArrayPool}. Once written, the chunks are handed over to a
+ * {@link PooledBodyPublisher}, or returned with {@link #discard()}.
+ *
+ * `close()` does nothing, so Jackson can't close it out from under us.
+ */
+class PooledByteOutputStream extends OutputStream {
+    private final ByteArrayPool pool;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] current;
+    private int position;
+    private long length;
+
+    PooledByteOutputStream() {
+        this(ByteArrayPool.SHARED);
+    }
+
+    PooledByteOutputStream(ByteArrayPool pool) {
+        this.pool = pool;
+    }
+
+    long length() {
+        return this.length;
+    }
+
+    @Override
+    public void write(int b) {
+        if (this.current == null || this.position == this.current.length) {
+            this.nextChunk();
+        }
+        this.current[this.position++] = (byte) b;
+        this.length++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (this.current == null || this.position == this.current.length) {
+                this.nextChunk();
+            }
+            int n = Math.min(len, this.current.length - this.position);
+            System.arraycopy(b, off, this.current, this.position, n);
+            this.position += n;
+            this.length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Hands the written chunks over to a publisher, which returns them to the
+     * pool once the request is done with them. The stream must not be used
+     * afterwards.
+     */
+    PooledBodyPublisher toPublisher() {
+        return new PooledBodyPublisher(this.pool, this.chunks, this.length);
+    }
+
+    /**
+     * Returns every chunk to the pool.
+     */
+    void discard() {
+        for (byte[] chunk : this.chunks) {
+            this.pool.release(chunk);
+        }
+        this.chunks.clear();
+        this.current = null;
+        this.length = 0;
+    }
+
+    private void nextChunk() {
+        this.current = this.pool.acquire();
+        this.position = 0;
+        this.chunks.add(this.current);
+    }
+}
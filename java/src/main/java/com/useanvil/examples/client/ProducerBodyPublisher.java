@@ -0,0 +1,191 @@
+package com.useanvil.examples.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.http.HttpRequest;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A request body written by a callback while it is being sent, e.g. a
+ * document too large to build in memory first.
+ *
+ * The callback runs on its own thread and writes into a small bounded queue
+ * of chunks that the HTTP client reads from. When the connection can't keep
+ * up the queue fills and the callback's writes block, so at most
+ * `CHUNKS * CHUNK_SIZE` bytes of the body are buffered no matter how large
+ * it is.
+ *
+ * The length isn't known up front, so the body is sent chunked. Every
+ * subscription, i.e. every retry, runs the callback again.
+ */
+class ProducerBodyPublisher {
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int CHUNKS = 16;
+    // Give up on a body nobody reads anymore, e.g. after the request was abandoned
+    private static final long STALL_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final byte[] END = new byte[0];
+
+    private static final ExecutorService PRODUCERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "request-body-producer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    interface Producer {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private ProducerBodyPublisher() {
+    }
+
+    static HttpRequest.BodyPublisher of(Producer producer) {
+        return HttpRequest.BodyPublishers.ofInputStream(() -> {
+            Pipe pipe = new Pipe();
+            PRODUCERS.execute(() -> pipe.produce(producer));
+            return pipe.in;
+        });
+    }
+
+    private static class Pipe {
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNKS);
+        private volatile boolean closed;
+        private volatile Throwable failure;
+
+        final OutputStream out = new OutputStream() {
+            private byte[] chunk = new byte[CHUNK_SIZE];
+            private int position;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (this.position == this.chunk.length) {
+                    this.flush();
+                }
+                this.chunk[this.position++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (this.position == this.chunk.length) {
+                        this.flush();
+                    }
+                    int n = Math.min(len, this.chunk.length - this.position);
+                    System.arraycopy(b, off, this.chunk, this.position, n);
+                    this.position += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            /**
+             * Hands the current chunk to the reader. Blocks while the queue
+             * is full.
+             */
+            @Override
+            public void flush() throws IOException {
+                if (this.position == 0) {
+                    return;
+                }
+                byte[] full = this.position == this.chunk.length ? this.chunk : Arrays.copyOf(this.chunk, this.position);
+                Pipe.this.put(full);
+                this.chunk = new byte[CHUNK_SIZE];
+                this.position = 0;
+            }
+        };
+
+        final InputStream in = new InputStream() {
+            private byte[] chunk;
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                if (!this.next()) {
+                    return -1;
+                }
+                return this.chunk[this.position++] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!this.next()) {
+                    return -1;
+                }
+                int n = Math.min(len, this.chunk.length - this.position);
+                System.arraycopy(this.chunk, this.position, b, off, n);
+                this.position += n;
+                return n;
+            }
+
+            private boolean next() throws IOException {
+                if (this.chunk == END) {
+                    return false;
+                }
+                if (this.chunk != null && this.position < this.chunk.length) {
+                    return true;
+                }
+                try {
+                    this.chunk = Pipe.this.chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                this.position = 0;
+                if (this.chunk == END) {
+                    Throwable failure = Pipe.this.failure;
+                    if (failure != null) {
+                        throw new IOException("Writing the request body failed", failure);
+                    }
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.closed = true;
+                Pipe.this.chunks.clear();
+            }
+        };
+
+        void produce(Producer producer) {
+            try {
+                producer.writeTo(this.out);
+                this.out.flush();
+            } catch (Throwable t) {
+                this.failure = t;
+            }
+            try {
+                this.put(END);
+            } catch (IOException ignored) {
+                // Nobody is reading anymore
+            }
+        }
+
+        private void put(byte[] chunk) throws IOException {
+            long deadline = System.nanoTime() + STALL_NANOS;
+            try {
+                while (!this.chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    if (this.closed) {
+                        throw new IOException("The request body is no longer being read");
+                    }
+                    if (System.nanoTime() - deadline > 0) {
+                        throw new IOException("The request body was not read for " + TimeUnit.NANOSECONDS.toSeconds(STALL_NANOS) + "s");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
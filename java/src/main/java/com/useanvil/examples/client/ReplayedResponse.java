@@ -0,0 +1,152 @@
+package com.useanvil.examples.client;
+
+import javax.net.ssl.SSLSession;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A response whose body is already in memory (a cached response, or one
+ * item's share of a batched response), handed to a caller's body handler as
+ * if it had just arrived.
+ */
+class ReplayedResponse<T> implements HttpResponse<T> {
+    private final HttpRequest request;
+    private final int statusCode;
+    private final HttpHeaders headers;
+    private final HttpClient.Version version;
+    private final T body;
+
+    private ReplayedResponse(HttpRequest request, int statusCode, HttpHeaders headers, HttpClient.Version version, T body) {
+        this.request = request;
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.version = version;
+        this.body = body;
+    }
+
+    /**
+     * Decodes `body` with `bodyHandler`, as though `original` had been
+     * answered with it.
+     */
+    static <T> CompletableFuture<HttpResponse<T>> replay(HttpResponse<?> original, byte[] body, HttpResponse.BodyHandler<T> bodyHandler) {
+        return replay(original.request(), original.statusCode(), original.headers(), original.version(), body, bodyHandler);
+    }
+
+    static <T> CompletableFuture<HttpResponse<T>> replay(
+            HttpRequest request,
+            int statusCode,
+            HttpHeaders headers,
+            HttpClient.Version version,
+            byte[] body,
+            HttpResponse.BodyHandler<T> bodyHandler
+    ) {
+        HttpResponse.ResponseInfo info = new HttpResponse.ResponseInfo() {
+            @Override
+            public int statusCode() {
+                return statusCode;
+            }
+
+            @Override
+            public HttpHeaders headers() {
+                return headers;
+            }
+
+            @Override
+            public HttpClient.Version version() {
+                return version;
+            }
+        };
+        HttpResponse.BodySubscriber<T> subscriber;
+        try {
+            subscriber = bodyHandler.apply(info);
+            subscriber.onSubscribe(new ReplaySubscription(subscriber, body));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return subscriber.getBody().toCompletableFuture()
+                .thenApply(decoded -> new ReplayedResponse<>(request, statusCode, headers, version, decoded));
+    }
+
+    @Override
+    public int statusCode() {
+        return this.statusCode;
+    }
+
+    @Override
+    public HttpRequest request() {
+        return this.request;
+    }
+
+    @Override
+    public Optional<HttpResponse<T>> previousResponse() {
+        return Optional.empty();
+    }
+
+    @Override
+    public HttpHeaders headers() {
+        return this.headers;
+    }
+
+    @Override
+    public T body() {
+        return this.body;
+    }
+
+    @Override
+    public Optional<SSLSession> sslSession() {
+        return Optional.empty();
+    }
+
+    @Override
+    public URI uri() {
+        return this.request.uri();
+    }
+
+    @Override
+    public HttpClient.Version version() {
+        return this.version;
+    }
+
+    /**
+     * Hands the body to a subscriber as a single buffer.
+     */
+    private static class ReplaySubscription implements Flow.Subscription {
+        private final HttpResponse.BodySubscriber<?> subscriber;
+        private final byte[] body;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        ReplaySubscription(HttpResponse.BodySubscriber<?> subscriber, byte[] body) {
+            this.subscriber = subscriber;
+            this.body = body;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                if (this.done.compareAndSet(false, true)) {
+                    this.subscriber.onError(new IllegalArgumentException("non-positive request: " + n));
+                }
+                return;
+            }
+            if (this.done.compareAndSet(false, true)) {
+                // Read-only so one subscriber can't change what the next sees
+                this.subscriber.onNext(List.of(ByteBuffer.wrap(this.body).asReadOnlyBuffer()));
+                this.subscriber.onComplete();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            this.done.set(true);
+        }
+    }
+}
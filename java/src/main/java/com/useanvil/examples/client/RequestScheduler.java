@@ -0,0 +1,455 @@
+package com.useanvil.examples.client;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Paces requests to the Anvil API and retries the ones that can be retried.
+ *
+ * * Requests are released by a token bucket sized to the plan's rate limit
+ *   (see https://www.useanvil.com/docs/api/getting-started#rate-limits). When
+ *   the API reports its limit through `X-RateLimit-Limit`, the bucket adopts it.
+ * * `429 Too Many Requests` is always retried, since the server did not act on
+ *   the request. `Retry-After` (or an exhausted `X-RateLimit-Remaining` with
+ *   `X-RateLimit-Reset`) pauses _every_ request on this scheduler, not just
+ *   the throttled one.
+ * * 5xx responses and I/O errors are retried only for idempotent requests,
+ *   with jittered exponential backoff.
+ * * How many requests are in flight at once is limited per endpoint class by
+ *   an {@link AdaptiveConcurrencyLimiter}, see {@link #getConcurrencyLimiter}.
+ * * While most attempts to an endpoint class fail, its {@link CircuitBreaker}
+ *   fails further ones fast instead of sending them, see {@link #getCircuitBreaker}.
+ *
+ * The rate limit is per API key, so clients using the same key should share a
+ * scheduler; {@link #forApiKey(String)} does that by default.
+ */
+public class RequestScheduler {
+    // Conservative default matching development API keys. Production keys get
+    // bumped up as soon as the first response reports the real limit.
+    public static final double DEFAULT_REQUESTS_PER_SECOND = 4;
+    public static final int DEFAULT_MAX_RETRIES = 4;
+
+    private static final Map<String, RequestScheduler> byApiKey = new ConcurrentHashMap<>();
+
+    private final Object lock = new Object();
+    private final int burst;
+    private final int maxRetries;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final boolean adoptServerLimit;
+
+    // Token bucket state, in the "generic cell rate algorithm" form: instead
+    // of counting tokens we track when the next request is theoretically
+    // allowed, and let up to `burst` requests run ahead of that.
+    private double requestsPerSecond;
+    private long intervalNanos;
+    private long theoreticalArrival = System.nanoTime();
+    private long pausedUntil = System.nanoTime();
+
+    private final Map<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+    private volatile boolean adaptiveConcurrency = true;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private volatile boolean circuitBreakers = true;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+
+    public RequestScheduler() {
+        this(DEFAULT_REQUESTS_PER_SECOND, 1, DEFAULT_MAX_RETRIES, Duration.ofMillis(250), Duration.ofSeconds(20), true);
+    }
+
+    /**
+     * @param requestsPerSecond Steady-state request rate
+     * @param burst             How many requests may go out back-to-back
+     *                          after an idle period
+     * @param maxRetries        Retries after the first attempt
+     * @param baseBackoff       Backoff before the first retry; doubles on each
+     *                          following retry (with full jitter)
+     * @param maxBackoff        Upper bound for a single backoff
+     * @param adoptServerLimit  Whether to follow `X-RateLimit-Limit` from the API
+     */
+    public RequestScheduler(double requestsPerSecond, int burst, int maxRetries, Duration baseBackoff, Duration maxBackoff, boolean adoptServerLimit) {
+        this.burst = Math.max(1, burst);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.baseBackoffNanos = baseBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.adoptServerLimit = adoptServerLimit;
+        this.setRequestsPerSecond(requestsPerSecond);
+    }
+
+    /**
+     * The scheduler shared by every client using `apiKey`. The initial rate can
+     * be set with the `ANVIL_RATE_LIMIT` environment variable (requests per
+     * second); `ANVIL_ADAPTIVE_CONCURRENCY=false` turns off the concurrency
+     * limits and `ANVIL_CIRCUIT_BREAKER=false` the circuit breakers.
+     */
+    public static RequestScheduler forApiKey(String apiKey) {
+        return byApiKey.computeIfAbsent(apiKey == null ? "" : apiKey, key -> {
+            String rate = System.getenv("ANVIL_RATE_LIMIT");
+            RequestScheduler scheduler = rate == null || rate.isBlank()
+                    ? new RequestScheduler()
+                    : new RequestScheduler(Double.parseDouble(rate.trim()), 1, DEFAULT_MAX_RETRIES, Duration.ofMillis(250), Duration.ofSeconds(20), true);
+            String adaptive = System.getenv("ANVIL_ADAPTIVE_CONCURRENCY");
+            scheduler.setAdaptiveConcurrency(adaptive == null || adaptive.isBlank() || Boolean.parseBoolean(adaptive.trim()));
+            String breaker = System.getenv("ANVIL_CIRCUIT_BREAKER");
+            scheduler.setCircuitBreakers(breaker == null || breaker.isBlank() || Boolean.parseBoolean(breaker.trim()));
+            return scheduler;
+        });
+    }
+
+    /**
+     * The concurrency limiter for one endpoint class, e.g. `fill`, `generate`
+     * or `graphql`, shared by every client on this scheduler. `null` when
+     * adaptive concurrency is off.
+     */
+    public AdaptiveConcurrencyLimiter getConcurrencyLimiter(String endpointClass) {
+        if (!this.adaptiveConcurrency) {
+            return null;
+        }
+        return this.limiters.computeIfAbsent(endpointClass, AdaptiveConcurrencyLimiter::new);
+    }
+
+    /**
+     * Replaces the limiter for `limiter.getEndpoint()`, e.g. to start at or
+     * stay within other bounds.
+     */
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter limiter) {
+        this.limiters.put(limiter.getEndpoint(), limiter);
+    }
+
+    /**
+     * Whether in-flight requests are limited by {@link AdaptiveConcurrencyLimiter}s
+     * (the default). When off, only the rate limit applies.
+     */
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    /**
+     * The circuit breaker for one endpoint class, shared by every client on
+     * this scheduler. `null` when circuit breakers are off.
+     */
+    public CircuitBreaker getCircuitBreaker(String endpointClass) {
+        if (!this.circuitBreakers) {
+            return null;
+        }
+        return this.breakers.computeIfAbsent(endpointClass, CircuitBreaker::new);
+    }
+
+    /**
+     * Replaces the breaker for `breaker.getEndpoint()`, e.g. to trip at
+     * another failure rate or stay open longer.
+     */
+    public void setCircuitBreaker(CircuitBreaker breaker) {
+        this.breakers.put(breaker.getEndpoint(), breaker);
+    }
+
+    /**
+     * Whether endpoint classes that keep failing are failed fast by a
+     * {@link CircuitBreaker} (the default).
+     */
+    public void setCircuitBreakers(boolean circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("requestsPerSecond must be positive");
+        }
+        synchronized (this.lock) {
+            this.requestsPerSecond = requestsPerSecond;
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        }
+    }
+
+    public double getRequestsPerSecond() {
+        synchronized (this.lock) {
+            return this.requestsPerSecond;
+        }
+    }
+
+    public long getRequestCount() {
+        return this.requests.get();
+    }
+
+    /**
+     * Requests that had to wait for the token bucket or a server-imposed pause
+     */
+    public long getDelayedCount() {
+        return this.delayed.get();
+    }
+
+    /**
+     * `429` responses received
+     */
+    public long getThrottledCount() {
+        return this.throttled.get();
+    }
+
+    /**
+     * Attempts after the first one, for any reason
+     */
+    public long getRetriedCount() {
+        return this.retried.get();
+    }
+
+    /**
+     * Runs `attempt` when the rate limit allows, retrying it as described in
+     * the class docs. `attempt` must send the request with the body handler it
+     * is given: that handler discards the bodies of responses that are going
+     * to be retried, so `bodyHandler` only ever sees the final response.
+     *
+     * Cancelling the returned future cancels the current attempt and stops
+     * further retries.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> submit(
+            Function<HttpResponse.BodyHandler<T>, CompletableFuture<HttpResponse<T>>> attempt,
+            HttpResponse.BodyHandler<T> bodyHandler,
+            boolean idempotent
+    ) {
+        CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<?>> current = new AtomicReference<>();
+        result.whenComplete((response, throwable) -> {
+            CompletableFuture<?> inFlight = current.get();
+            if (result.isCancelled() && inFlight != null) {
+                inFlight.cancel(true);
+            }
+        });
+
+        this.requests.incrementAndGet();
+        this.schedule(attempt, bodyHandler, idempotent, 0, this.acquireDelayNanos(), result, current);
+        return result;
+    }
+
+    private <T> void schedule(
+            Function<HttpResponse.BodyHandler<T>, CompletableFuture<HttpResponse<T>>> attempt,
+            HttpResponse.BodyHandler<T> bodyHandler,
+            boolean idempotent,
+            int attemptNumber,
+            long delayNanos,
+            CompletableFuture<HttpResponse<T>> result,
+            AtomicReference<CompletableFuture<?>> current
+    ) {
+        if (delayNanos <= 0) {
+            this.runAttempt(attempt, bodyHandler, idempotent, attemptNumber, result, current);
+            return;
+        }
+
+        this.delayed.incrementAndGet();
+        CompletableFuture<Void> wait = CompletableFuture.runAsync(
+                () -> this.runAttempt(attempt, bodyHandler, idempotent, attemptNumber, result, current),
+                CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS)
+        );
+        current.set(wait);
+    }
+
+    private <T> void runAttempt(
+            Function<HttpResponse.BodyHandler<T>, CompletableFuture<HttpResponse<T>>> attempt,
+            HttpResponse.BodyHandler<T> bodyHandler,
+            boolean idempotent,
+            int attemptNumber,
+            CompletableFuture<HttpResponse<T>> result,
+            AtomicReference<CompletableFuture<?>> current
+    ) {
+        if (result.isDone()) {
+            return;
+        }
+
+        boolean canRetry = attemptNumber < this.maxRetries;
+        HttpResponse.BodyHandler<T> handler = responseInfo -> canRetry && isRetryable(responseInfo.statusCode(), idempotent)
+                ? HttpResponse.BodySubscribers.replacing(null)
+                : bodyHandler.apply(responseInfo);
+
+        CompletableFuture<HttpResponse<T>> inFlight;
+        try {
+            inFlight = attempt.apply(handler);
+        } catch (RuntimeException e) {
+            inFlight = CompletableFuture.failedFuture(e);
+        }
+        current.set(inFlight);
+
+        inFlight.whenComplete((response, throwable) -> {
+            if (result.isDone()) {
+                return;
+            }
+
+            if (throwable != null) {
+                Throwable cause = unwrap(throwable);
+                if (canRetry && isRetryable(cause, idempotent)) {
+                    this.retry(attempt, bodyHandler, idempotent, attemptNumber, this.backoffNanos(attemptNumber), result, current);
+                } else {
+                    result.completeExceptionally(cause);
+                }
+                return;
+            }
+
+            long serverDelay = this.observe(response);
+            if (canRetry && isRetryable(response.statusCode(), idempotent)) {
+                long delay = Math.max(serverDelay, this.backoffNanos(attemptNumber));
+                this.retry(attempt, bodyHandler, idempotent, attemptNumber, delay, result, current);
+            } else {
+                result.complete(response);
+            }
+        });
+    }
+
+    private <T> void retry(
+            Function<HttpResponse.BodyHandler<T>, CompletableFuture<HttpResponse<T>>> attempt,
+            HttpResponse.BodyHandler<T> bodyHandler,
+            boolean idempotent,
+            int attemptNumber,
+            long backoffNanos,
+            CompletableFuture<HttpResponse<T>> result,
+            AtomicReference<CompletableFuture<?>> current
+    ) {
+        this.retried.incrementAndGet();
+        long delay = Math.max(backoffNanos, this.acquireDelayNanos());
+        this.schedule(attempt, bodyHandler, idempotent, attemptNumber + 1, delay, result, current);
+    }
+
+    /**
+     * Reserves the next slot in the token bucket and returns how long the
+     * caller has to wait for it.
+     */
+    long acquireDelayNanos() {
+        synchronized (this.lock) {
+            long now = System.nanoTime();
+            long tolerance = this.intervalNanos * (this.burst - 1);
+            long arrival = Math.max(this.theoreticalArrival, now);
+            long allowedAt = Math.max(arrival - tolerance, this.pausedUntil);
+            this.theoreticalArrival = Math.max(arrival, allowedAt) + this.intervalNanos;
+            return Math.max(0, allowedAt - now);
+        }
+    }
+
+    /**
+     * Pauses every request on this scheduler for `delayNanos`.
+     */
+    void pause(long delayNanos) {
+        synchronized (this.lock) {
+            this.pausedUntil = Math.max(this.pausedUntil, System.nanoTime() + delayNanos);
+        }
+    }
+
+    /**
+     * Applies the rate limit headers of `response`, and returns how long the
+     * server asked us to wait before trying again (0 if it didn't).
+     */
+    private long observe(HttpResponse<?> response) {
+        HttpHeaders headers = response.headers();
+
+        if (this.adoptServerLimit) {
+            headers.firstValue("X-RateLimit-Limit")
+                    .flatMap(RequestScheduler::parseDouble)
+                    .filter(limit -> limit > 0 && limit != this.getRequestsPerSecond())
+                    .ifPresent(this::setRequestsPerSecond);
+        }
+
+        long delay = 0;
+        if (response.statusCode() == 429) {
+            this.throttled.incrementAndGet();
+            delay = headers.firstValue("Retry-After").map(RequestScheduler::parseRetryAfterNanos).orElse(0L);
+        }
+
+        boolean exhausted = headers.firstValue("X-RateLimit-Remaining")
+                .flatMap(RequestScheduler::parseDouble)
+                .map(remaining -> remaining <= 0)
+                .orElse(false);
+        if (exhausted) {
+            delay = Math.max(delay, headers.firstValue("X-RateLimit-Reset").map(RequestScheduler::parseResetNanos).orElse(0L));
+        }
+
+        if (delay > 0) {
+            this.pause(delay);
+        }
+        return delay;
+    }
+
+    /**
+     * "Full jitter" backoff: a random delay between 0 and the exponential bound.
+     */
+    private long backoffNanos(int attemptNumber) {
+        long bound = Math.min(this.maxBackoffNanos, this.baseBackoffNanos << Math.min(attemptNumber, 20));
+        return ThreadLocalRandom.current().nextLong(Math.max(1, bound));
+    }
+
+    static boolean isRetryable(int statusCode, boolean idempotent) {
+        if (statusCode == 429) {
+            return true;
+        }
+        return idempotent && (statusCode == 502 || statusCode == 503 || statusCode == 504 || statusCode == 500);
+    }
+
+    static boolean isRetryable(Throwable throwable, boolean idempotent) {
+        // Retrying into an open breaker would only fail again
+        if (throwable instanceof CancellationException || throwable instanceof CircuitBreakerOpenException) {
+            return false;
+        }
+        // A failed connect means nothing was sent, so even mutations are safe
+        if (throwable instanceof ConnectException) {
+            return true;
+        }
+        return idempotent && throwable instanceof IOException;
+    }
+
+    static Throwable unwrap(Throwable throwable) {
+        while (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable;
+    }
+
+    /**
+     * `Retry-After` is either a number of seconds or an HTTP date.
+     */
+    static long parseRetryAfterNanos(String value) {
+        Optional<Double> seconds = parseDouble(value);
+        if (seconds.isPresent()) {
+            return (long) (seconds.get() * TimeUnit.SECONDS.toNanos(1));
+        }
+        try {
+            ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toNanos());
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * `X-RateLimit-Reset` is either seconds until the window resets, or the
+     * epoch second it resets at.
+     */
+    static long parseResetNanos(String value) {
+        return parseDouble(value).map(reset -> {
+            double seconds = reset > 1_000_000_000 ? reset - System.currentTimeMillis() / 1000.0 : reset;
+            return (long) (Math.max(0, seconds) * TimeUnit.SECONDS.toNanos(1));
+        }).orElse(0L);
+    }
+
+    private static Optional<Double> parseDouble(String value) {
+        try {
+            return Optional.of(Double.parseDouble(value.trim()));
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -1,60 +1,637 @@
 package com.useanvil.examples.client;
 
-
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.useanvil.examples.Constants;
+import com.useanvil.examples.metrics.ClientMetrics;
 import org.apache.hc.core5.net.URIBuilder;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.time.Duration;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 public class RestClient extends BaseClient {
+    // Names the requests are reported under in `getMetrics()`
+    public static final String FILL_OPERATION = "fill";
+    public static final String GENERATE_OPERATION = "generate";
+    public static final String DOWNLOAD_OPERATION = "download";
+
+    // Unfinished downloads are kept next to their target under this suffix
+    public static final String PART_SUFFIX = ".part";
+    // How often a download that broke off is resumed before giving up
+    private static final int DOWNLOAD_ATTEMPTS = 5;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-\\d+/(\\d+|\\*)|bytes \\*/(\\d+)");
+
+    // Unpacking reads the response body with blocking I/O, so it gets its own threads
+    private static final ExecutorService UNZIP_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "document-unzip");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private PdfCache pdfCache;
+    private final GraphqlClient versionClient;
+    private BandwidthLimiter bandwidthLimiter;
 
     public RestClient(String apiKey) {
+        this(HttpTransport.shared(), apiKey);
+    }
+
+    /**
+     * @param apiKey
+     * @param executor Executor for the HTTP client's async work and for
+     *                 completing the futures returned by the `*Async`
+     *                 methods. This creates a dedicated transport (and
+     *                 connection pool) for the client; prefer
+     *                 {@link #RestClient(HttpTransport, String)} with a
+     *                 transport built via `HttpTransport.newBuilder().executor(...)`
+     *                 when creating more than one client.
+     */
+    public RestClient(String apiKey, Executor executor) {
+        this(HttpTransport.newBuilder().executor(executor).build(), apiKey);
+    }
+
+    /**
+     * @param transport Connection layer to send requests through. Clients on
+     *                  the same transport share connections. It comes first so
+     *                  that `new RestClient(apiKey, null)` still means the default
+     *                  executor.
+     * @param apiKey
+     */
+    public RestClient(HttpTransport transport, String apiKey) {
         this._apiKey = apiKey;
-        this._objectMapper = new ObjectMapper();
+        this._objectMapper = JsonCodec.mapper();
+        this.transport = transport;
+        this.scheduler = RequestScheduler.forApiKey(apiKey);
 
-        client = HttpClient.newBuilder()
-                .version(HttpClient.Version.HTTP_1_1)
-                .followRedirects(HttpClient.Redirect.NORMAL)
-                .connectTimeout(Duration.ofSeconds(20))
-                .build();
+        client = transport.client();
+
+        // Looks up template versions for `pdfCache`, sharing this client's
+        // server, rate limit and metrics. The setters below keep it in step.
+        try {
+            this.versionClient = new GraphqlClient(transport, apiKey);
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+
+        String hedge = System.getenv("ANVIL_HEDGE");
+        if (hedge != null && Boolean.parseBoolean(hedge.trim())) {
+            this.hedgePolicy = HedgePolicy.getDefault();
+        }
+    }
+
+    /**
+     * Fills and PDF generation may be hedged: they render the same PDF
+     * however often they are sent. Downloads are large and not worth sending
+     * twice, and neither is a {@link StreamingGeneratePayload}, which
+     * `sendAsync` never hedges.
+     */
+    @Override
+    protected boolean isHedged(String operation) {
+        return FILL_OPERATION.equals(operation) || GENERATE_OPERATION.equals(operation);
+    }
+
+    public PdfCache getPdfCache() {
+        return this.pdfCache;
     }
 
+    /**
+     * Serves `fillPdfToFile` and `generatePdfToFile` from `pdfCache` when the
+     * same PDF was rendered before. `null` (the default) renders every PDF.
+     */
+    public void setPdfCache(PdfCache pdfCache) {
+        this.pdfCache = pdfCache;
+        this.versionClient.setQueryCache(pdfCache == null ? null : pdfCache.getVersionCache());
+    }
+
+    @Override
+    public void setBaseUrl(String baseUrl) {
+        super.setBaseUrl(baseUrl);
+        this.versionClient.setBaseUrl(baseUrl);
+    }
+
+    @Override
+    public void setScheduler(RequestScheduler scheduler) {
+        super.setScheduler(scheduler);
+        this.versionClient.setScheduler(scheduler);
+    }
+
+    @Override
+    public void setMetrics(ClientMetrics metrics) {
+        super.setMetrics(metrics);
+        this.versionClient.setMetrics(metrics);
+    }
+
+    public BandwidthLimiter getBandwidthLimiter() {
+        return this.bandwidthLimiter;
+    }
+
+    /**
+     * Caps the combined rate of the `downloadDocumentGroup` methods of every
+     * client sharing `bandwidthLimiter`. `null` (the default) downloads as
+     * fast as the connection allows.
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
+
+    // Fills and generations don't change anything on the server, so they are
+    // always safe to retry.
+
     public HttpResponse<byte[]> fillPdf(String templateId, String payload) throws IOException, InterruptedException {
+        return this.fillPdf(templateId, payload, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    public HttpResponse<byte[]> fillPdf(String templateId, String payload, int versionNumber) throws IOException, InterruptedException, URISyntaxException {
+        return this.fillPdf(templateId, payload, versionNumber, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * Fills a PDF and hands the response body to `bodyHandler` as it arrives.
+     * Use {@link StreamingBodyHandlers} to write the PDF straight to disk
+     * without buffering it in memory.
+     */
+    public <T> HttpResponse<T> fillPdf(String templateId, String payload, HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        return this.send(FILL_OPERATION, this.buildFillPdfRequest(templateId, HttpRequest.BodyPublishers.ofString(payload)), bodyHandler, true);
+    }
+
+    public <T> HttpResponse<T> fillPdf(String templateId, String payload, int versionNumber, HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException, URISyntaxException {
+        return this.send(FILL_OPERATION, this.buildFillPdfRequest(templateId, HttpRequest.BodyPublishers.ofString(payload), versionNumber), bodyHandler, true);
+    }
+
+    /**
+     * Non-blocking version of {@link #fillPdf(String, String, HttpResponse.BodyHandler)}.
+     * Cancelling the returned future abandons the request.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> fillPdfAsync(String templateId, String payload, HttpResponse.BodyHandler<T> bodyHandler) {
+        return this.sendAsync(FILL_OPERATION, this.buildFillPdfRequest(templateId, HttpRequest.BodyPublishers.ofString(payload)), bodyHandler, true);
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> fillPdfAsync(String templateId, String payload, int versionNumber, HttpResponse.BodyHandler<T> bodyHandler) {
+        try {
+            return this.sendAsync(FILL_OPERATION, this.buildFillPdfRequest(templateId, HttpRequest.BodyPublishers.ofString(payload), versionNumber), bodyHandler, true);
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public HttpResponse<byte[]> generatePdf(String payload) throws IOException, InterruptedException {
+        return this.generatePdf(payload, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * Generates a PDF and hands the response body to `bodyHandler` as it
+     * arrives. See {@link StreamingBodyHandlers}.
+     */
+    public <T> HttpResponse<T> generatePdf(String payload, HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        return this.send(GENERATE_OPERATION, this.buildGeneratePdfRequest(HttpRequest.BodyPublishers.ofString(payload)), bodyHandler, true);
+    }
+
+    /**
+     * Non-blocking version of {@link #generatePdf(String, HttpResponse.BodyHandler)}.
+     * Cancelling the returned future abandons the request.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> generatePdfAsync(String payload, HttpResponse.BodyHandler<T> bodyHandler) {
+        return this.sendAsync(GENERATE_OPERATION, this.buildGeneratePdfRequest(HttpRequest.BodyPublishers.ofString(payload)), bodyHandler, true);
+    }
+
+    //
+    // The overloads below take the payload as an object (e.g. a `Map`,
+    // `JsonNode` or entity) and serialize it straight into the request body
+    // with {@link JsonCodec}, without building a String first. JSON that is
+    // already encoded can be passed as a `byte[]` or a `BodyPublisher`, e.g.
+    // from {@link PayloadTemplate}.
+    //
+
+    public <T> HttpResponse<T> fillPdf(String templateId, Object payload, HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        return this.send(FILL_OPERATION, this.buildFillPdfRequest(templateId, publisher(payload)), bodyHandler, true);
+    }
+
+    public <T> HttpResponse<T> fillPdf(String templateId, Object payload, int versionNumber, HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException, URISyntaxException {
+        return this.send(FILL_OPERATION, this.buildFillPdfRequest(templateId, publisher(payload), versionNumber), bodyHandler, true);
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> fillPdfAsync(String templateId, Object payload, HttpResponse.BodyHandler<T> bodyHandler) {
+        try {
+            return this.sendAsync(FILL_OPERATION, this.buildFillPdfRequest(templateId, publisher(payload)), bodyHandler, true);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> fillPdfAsync(String templateId, Object payload, int versionNumber, HttpResponse.BodyHandler<T> bodyHandler) {
+        try {
+            return this.sendAsync(FILL_OPERATION, this.buildFillPdfRequest(templateId, publisher(payload), versionNumber), bodyHandler, true);
+        } catch (IOException | URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public <T> HttpResponse<T> generatePdf(Object payload, HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        return this.send(GENERATE_OPERATION, this.buildGeneratePdfRequest(publisher(payload)), bodyHandler, true);
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> generatePdfAsync(Object payload, HttpResponse.BodyHandler<T> bodyHandler) {
+        try {
+            return this.sendAsync(GENERATE_OPERATION, this.buildGeneratePdfRequest(publisher(payload)), bodyHandler, true);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Generates a PDF from a document that is written while it is sent,
+     * without ever holding the whole payload. See {@link StreamingGeneratePayload}.
+     */
+    public <T> HttpResponse<T> generatePdf(StreamingGeneratePayload payload, HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        return this.send(GENERATE_OPERATION, this.buildGeneratePdfRequest(payload.publisher()), bodyHandler, true);
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> generatePdfAsync(StreamingGeneratePayload payload, HttpResponse.BodyHandler<T> bodyHandler) {
+        return this.sendAsync(GENERATE_OPERATION, this.buildGeneratePdfRequest(payload.publisher()), bodyHandler, true);
+    }
+
+    //
+    // The methods below write the PDF to `target` and go through the PDF cache
+    // when one is set. `payload` is either a JSON String, JSON bytes (e.g.
+    // from `PayloadTemplate#render`) or an object to serialize. A
+    // `StreamingGeneratePayload` works too, but is never cached. A non-2xx
+    // response fails with an `IOException` carrying the error body.
+    //
+
+    public TransferResult fillPdfToFile(String templateId, Object payload, Path target) throws IOException, InterruptedException {
+        return this.await(this.fillPdfToFileAsync(templateId, payload, Constants.PUBLISHED_VERSION_INT, target));
+    }
+
+    public TransferResult fillPdfToFile(String templateId, Object payload, int versionNumber, Path target) throws IOException, InterruptedException {
+        return this.await(this.fillPdfToFileAsync(templateId, payload, versionNumber, target));
+    }
+
+    /**
+     * With a cache, `versionNumber` is first resolved to a concrete version
+     * (a cached lookup, see {@link PdfCache}) which is then filled, so a
+     * cached PDF always matches the version it was filled from.
+     * {@link Constants#LATEST_VERSION_INT} is never cached while the template
+     * has a draft, since drafts change without getting a new number.
+     */
+    public CompletableFuture<TransferResult> fillPdfToFileAsync(String templateId, Object payload, int versionNumber, Path target) {
+        if (this.pdfCache == null) {
+            return this.fillToFile(templateId, payload, versionNumber, target);
+        }
+        PdfCache cache = this.pdfCache;
+        return this.resolveVersion(templateId, versionNumber).thenCompose(resolved -> {
+            if (resolved == null) {
+                return this.fillToFile(templateId, payload, versionNumber, target);
+            }
+            try {
+                String key = PdfCache.fillKey(templateId, resolved, payload);
+                return cache.get(key, target, file -> this.fillToFile(templateId, payload, resolved, file));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        });
+    }
+
+    public TransferResult generatePdfToFile(Object payload, Path target) throws IOException, InterruptedException {
+        return this.await(this.generatePdfToFileAsync(payload, target));
+    }
+
+    public CompletableFuture<TransferResult> generatePdfToFileAsync(Object payload, Path target) {
+        Function<Path, CompletableFuture<TransferResult>> generate = file -> {
+            try {
+                return this.sendToFile(GENERATE_OPERATION, this.buildGeneratePdfRequest(publisher(payload)), file);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        };
+        if (this.pdfCache == null || payload instanceof StreamingGeneratePayload) {
+            return generate.apply(target);
+        }
+        try {
+            return this.pdfCache.get(PdfCache.generateKey(payload), target, generate);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private CompletableFuture<TransferResult> fillToFile(String templateId, Object payload, int versionNumber, Path target) {
+        try {
+            return this.sendToFile(FILL_OPERATION, this.buildFillPdfRequest(templateId, publisher(payload), versionNumber), target);
+        } catch (IOException | URISyntaxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private CompletableFuture<TransferResult> sendToFile(String operation, HttpRequest request, Path target) {
+        AtomicReference<String> error = new AtomicReference<>();
+        HttpResponse.BodyHandler<TransferResult> bodyHandler = responseInfo -> responseInfo.statusCode() / 100 == 2
+                ? StreamingBodyHandlers.ofPath(target).apply(responseInfo)
+                : HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8), body -> {
+                    error.set(body);
+                    return null;
+                });
+        CompletableFuture<HttpResponse<TransferResult>> sent = this.sendAsync(operation, request, bodyHandler, true);
+        CompletableFuture<TransferResult> result = sent.thenCompose(response -> response.body() != null
+                ? CompletableFuture.completedFuture(response.body())
+                : CompletableFuture.failedFuture(new IOException("HTTP " + response.statusCode() + ": " + error.get()))
+        );
+        // Cancelling a dependent future doesn't cancel the one it came from
+        result.whenComplete((transfer, throwable) -> {
+            if (result.isCancelled()) {
+                sent.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    //
+    // Document group downloads: the documents of an e-sign packet as a ZIP.
+    // https://www.useanvil.com/docs/api/e-signatures#downloading-documents
+    // Use `DocumentGroupDownloader` to download many at once.
+    //
+
+    public TransferResult downloadDocumentGroup(String documentGroupEid, Path target) throws IOException, InterruptedException {
+        return this.await(this.downloadDocumentGroupAsync(documentGroupEid, target));
+    }
+
+    /**
+     * Streams the ZIP to `target`. The body is written to `target` +
+     * {@link #PART_SUFFIX} and moved into place once complete.
+     *
+     * When the transfer breaks off, or a part file is left over from an
+     * earlier run, the download continues where it stopped with a `Range`
+     * request instead of starting over. The checksum covers the whole file.
+     */
+    public CompletableFuture<TransferResult> downloadDocumentGroupAsync(String documentGroupEid, Path target) {
+        Path absolute = target.toAbsolutePath();
+        Path part = absolute.resolveSibling(absolute.getFileName() + PART_SUFFIX);
+        return this.resumeDownload(documentGroupEid, absolute, part, 1);
+    }
+
+    public List<Path> downloadDocumentGroupUnzipped(String documentGroupEid, Path directory) throws IOException, InterruptedException {
+        return this.await(this.downloadDocumentGroupUnzippedAsync(documentGroupEid, directory));
+    }
+
+    /**
+     * Unpacks the ZIP into `directory` while it downloads, without writing
+     * the ZIP itself anywhere. Entries are written as they arrive, so the
+     * first documents are on disk before the last ones have been sent.
+     *
+     * An interrupted download can't be resumed here: a ZIP can only be read
+     * from the start. Use {@link #downloadDocumentGroupAsync} for large
+     * groups on flaky connections.
+     *
+     * @return The unpacked files, in ZIP order
+     */
+    public CompletableFuture<List<Path>> downloadDocumentGroupUnzippedAsync(String documentGroupEid, Path directory) {
+        AtomicReference<String> error = new AtomicReference<>();
+        HttpResponse.BodyHandler<InputStream> bodyHandler = responseInfo -> responseInfo.statusCode() / 100 == 2
+                ? HttpResponse.BodySubscribers.ofInputStream()
+                : HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8), body -> {
+                    error.set(body);
+                    return null;
+                });
+        BandwidthLimiter limiter = this.bandwidthLimiter;
+        return this.sendAsync(DOWNLOAD_OPERATION, this.buildDownloadRequest(documentGroupEid, 0), bodyHandler, true)
+                .thenApplyAsync(response -> {
+                    if (response.body() == null) {
+                        throw new CompletionException(new IOException("HTTP " + response.statusCode() + ": " + error.get()));
+                    }
+                    try (InputStream body = new ThrottledInputStream(response.body(), limiter)) {
+                        return unzip(body, directory.toAbsolutePath().normalize());
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, UNZIP_EXECUTOR);
+    }
+
+    private static List<Path> unzip(InputStream body, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(body)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                Path file = directory.resolve(entry.getName()).normalize();
+                // Don't let an entry like `../../.bashrc` escape `directory`
+                if (!file.startsWith(directory)) {
+                    throw new IOException("ZIP entry " + entry.getName() + " is outside " + directory);
+                }
+                if (entry.isDirectory()) {
+                    Files.createDirectories(file);
+                    continue;
+                }
+                Files.createDirectories(file.getParent());
+                Files.copy(zip, file, StandardCopyOption.REPLACE_EXISTING);
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private CompletableFuture<TransferResult> resumeDownload(String documentGroupEid, Path target, Path part, int attempt) {
+        long offset;
+        MessageDigest digest = StreamingBodyHandlers.newDigest();
+        try {
+            offset = Files.exists(part) ? digestFile(part, digest) : 0;
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        AtomicReference<String> error = new AtomicReference<>();
+        BandwidthLimiter limiter = this.bandwidthLimiter;
+        HttpResponse.BodyHandler<TransferResult> bodyHandler = responseInfo -> {
+            int status = responseInfo.statusCode();
+            // The scheduler may call this again when it retries the request, so
+            // each attempt starts from `offset` with its own copy of the digest
+            if (status == 206 && offset > 0 && rangeStart(responseInfo.headers()) == offset) {
+                return new StreamingBodyHandlers.DigestingSubscriber(new StreamingBodyHandlers.PartSink(part, target, offset), copy(digest), offset, limiter);
+            }
+            if (status == 200) {
+                // The server sent the whole file after all
+                return new StreamingBodyHandlers.DigestingSubscriber(new StreamingBodyHandlers.PartSink(part, target, 0), StreamingBodyHandlers.newDigest(), 0, limiter);
+            }
+            return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8), body -> {
+                error.set(body);
+                return null;
+            });
+        };
+
+        return this.sendAsync(DOWNLOAD_OPERATION, this.buildDownloadRequest(documentGroupEid, offset), bodyHandler, true)
+                .handle((response, throwable) -> {
+                    if (throwable != null) {
+                        // Whatever arrived before the connection broke is in `part`
+                        if (attempt < DOWNLOAD_ATTEMPTS && RequestScheduler.unwrap(throwable) instanceof IOException) {
+                            return this.resumeDownload(documentGroupEid, target, part, attempt + 1);
+                        }
+                        return CompletableFuture.<TransferResult>failedFuture(throwable);
+                    }
+                    if (response.body() != null) {
+                        return CompletableFuture.completedFuture(response.body());
+                    }
+                    if (response.statusCode() == 416 && offset > 0) {
+                        // Nothing left to send: the part file is already complete, or
+                        // the group changed since and it has to be downloaded again
+                        try {
+                            if (rangeLength(response.headers()) == offset) {
+                                Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                                return CompletableFuture.completedFuture(new TransferResult(offset, StreamingBodyHandlers.toHex(digest.digest())));
+                            }
+                            Files.deleteIfExists(part);
+                        } catch (IOException e) {
+                            return CompletableFuture.<TransferResult>failedFuture(e);
+                        }
+                        if (attempt < DOWNLOAD_ATTEMPTS) {
+                            return this.resumeDownload(documentGroupEid, target, part, attempt + 1);
+                        }
+                    }
+                    return CompletableFuture.<TransferResult>failedFuture(new IOException("HTTP " + response.statusCode() + ": " + error.get()));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * Feeds the contents of `file` to `digest`.
+     *
+     * @return The size of `file`
+     */
+    private static long digestFile(Path file, MessageDigest digest) throws IOException {
+        long bytes = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+                bytes += read;
+            }
+        }
+        return bytes;
+    }
+
+    private static MessageDigest copy(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            // The JDK's SHA-256 can always be cloned
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The first byte of a `Content-Range: bytes 100-199/200` response, or -1.
+     */
+    private static long rangeStart(HttpHeaders headers) {
+        Matcher matcher = CONTENT_RANGE.matcher(headers.firstValue("Content-Range").orElse(""));
+        return matcher.matches() && matcher.group(1) != null ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    /**
+     * The full length of the file from a `Content-Range`, or -1 if unknown.
+     */
+    private static long rangeLength(HttpHeaders headers) {
+        Matcher matcher = CONTENT_RANGE.matcher(headers.firstValue("Content-Range").orElse(""));
+        if (!matcher.matches()) {
+            return -1;
+        }
+        String length = matcher.group(3) != null ? matcher.group(3) : matcher.group(2);
+        return "*".equals(length) ? -1 : Long.parseLong(length);
+    }
+
+    private HttpRequest buildDownloadRequest(String documentGroupEid, long offset) {
+        String downloadPart = String.format(Constants.DownloadDocuments, documentGroupEid);
+
+        HttpRequest.Builder builder = this.createRequestBuilder(this.getBaseUrl() + downloadPart).GET();
+        if (offset > 0) {
+            builder.header("Range", "bytes=" + offset + "-");
+        }
+        return builder.build();
+    }
+
+    private static HttpRequest.BodyPublisher publisher(Object payload) throws IOException {
+        if (payload instanceof String) {
+            return HttpRequest.BodyPublishers.ofString((String) payload);
+        }
+        if (payload instanceof byte[]) {
+            return HttpRequest.BodyPublishers.ofByteArray((byte[]) payload);
+        }
+        if (payload instanceof HttpRequest.BodyPublisher) {
+            return (HttpRequest.BodyPublisher) payload;
+        }
+        if (payload instanceof StreamingGeneratePayload) {
+            return ((StreamingGeneratePayload) payload).publisher();
+        }
+        return JsonCodec.publisher(payload);
+    }
+
+    /**
+     * The concrete version `versionNumber` stands for, or `null` if it can't
+     * be cached: the template has a draft and `LATEST_VERSION_INT` was asked
+     * for, or nothing is published yet.
+     */
+    private CompletableFuture<Integer> resolveVersion(String templateId, int versionNumber) {
+        if (versionNumber >= 0) {
+            return CompletableFuture.completedFuture(versionNumber);
+        }
+        // Runs `src/main/resources/queries/cast-version.graphql`
+        return this.versionClient.doOperationAsync(
+                "cast-version",
+                Map.of("eid", templateId),
+                GraphqlBodyHandlers.of("data.cast", JsonNode.class)
+        ).thenApply(response -> {
+            JsonNode cast = response.body().getDataOrThrow();
+            JsonNode draft = cast.get("latestDraftVersionNumber");
+            if (versionNumber == Constants.LATEST_VERSION_INT && draft != null && !draft.isNull()) {
+                return null;
+            }
+            JsonNode published = cast.get("publishedNumber");
+            return published == null || published.isNull() ? null : published.asInt();
+        });
+    }
+
+    private HttpRequest buildFillPdfRequest(String templateId, HttpRequest.BodyPublisher payload) {
         String fillPdfPart = String.format(Constants.FillPdf, templateId);
 
-        HttpRequest request = this.createRequestBuilder(Constants.REST_ENDPOINT + fillPdfPart)
-                .POST(HttpRequest.BodyPublishers.ofString(payload))
+        return this.createRequestBuilder(this.getBaseUrl() + Constants.REST_PATH + fillPdfPart)
+                .POST(payload)
                 .build();
-
-        return this.client.send(request, HttpResponse.BodyHandlers.ofByteArray());
     }
 
-    public HttpResponse<byte[]> fillPdf(String templateId, String payload, int versionNumber) throws IOException, InterruptedException, URISyntaxException {
+    private HttpRequest buildFillPdfRequest(String templateId, HttpRequest.BodyPublisher payload, int versionNumber) throws URISyntaxException {
         String fillPdfPart = String.format(Constants.FillPdf, templateId);
 
-        URI uri = new URIBuilder(new URI(Constants.REST_ENDPOINT + fillPdfPart))
+        URI uri = new URIBuilder(new URI(this.getBaseUrl() + Constants.REST_PATH + fillPdfPart))
                 .addParameter("versionNumber", String.valueOf(versionNumber))
                 .build();
 
-        HttpRequest request = this.createRequestBuilder(String.valueOf(uri))
-                .POST(HttpRequest.BodyPublishers.ofString(payload))
+        return this.createRequestBuilder(String.valueOf(uri))
+                .POST(payload)
                 .build();
-
-        return this.client.send(request, HttpResponse.BodyHandlers.ofByteArray());
     }
 
-    public HttpResponse<byte[]> generatePdf(String payload) throws IOException, InterruptedException {
-        HttpRequest request = this.createRequestBuilder(Constants.REST_ENDPOINT + Constants.GeneratePdf)
-                .POST(HttpRequest.BodyPublishers.ofString(payload))
+    private HttpRequest buildGeneratePdfRequest(HttpRequest.BodyPublisher payload) {
+        return this.createRequestBuilder(this.getBaseUrl() + Constants.REST_PATH + Constants.GeneratePdf)
+                .POST(payload)
                 .build();
-
-        return this.client.send(request, HttpResponse.BodyHandlers.ofByteArray());
     }
 }
@@ -0,0 +1,314 @@
+package com.useanvil.examples.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Body handlers that write response bodies (e.g. filled or generated PDFs)
+ * directly to a file, stream or channel as the bytes arrive, instead of
+ * collecting the whole body into a `byte[]` first.
+ *
+ * Every handler computes a SHA-256 checksum and a byte count on the fly and
+ * returns them as a {@link TransferResult}.
+ */
+public class StreamingBodyHandlers {
+
+    private StreamingBodyHandlers() {
+    }
+
+    /**
+     * Streams the body to `target`. Data is written to a temporary file next
+     * to `target` and moved into place once the body is complete, so readers
+     * never see a partially written file.
+     */
+    public static HttpResponse.BodyHandler<TransferResult> ofPath(Path target) {
+        return responseInfo -> new DigestingSubscriber(new PathSink(target));
+    }
+
+    /**
+     * Like {@link #ofPath(Path)}, but only for 2xx responses. Any other
+     * response body (usually a JSON error) is discarded, `target` is left
+     * untouched and the response body is `null`.
+     */
+    public static HttpResponse.BodyHandler<TransferResult> ofPathOnSuccess(Path target) {
+        return responseInfo -> responseInfo.statusCode() / 100 == 2
+                ? new DigestingSubscriber(new PathSink(target))
+                : HttpResponse.BodySubscribers.replacing(null);
+    }
+
+    /**
+     * Streams the body to `out`. The stream is flushed but not closed when the
+     * body completes.
+     */
+    public static HttpResponse.BodyHandler<TransferResult> ofOutputStream(OutputStream out) {
+        return responseInfo -> new DigestingSubscriber(new ChannelSink(Channels.newChannel(out), out));
+    }
+
+    /**
+     * Streams the body to `channel`. The channel is not closed when the body
+     * completes.
+     */
+    public static HttpResponse.BodyHandler<TransferResult> ofChannel(WritableByteChannel channel) {
+        return responseInfo -> new DigestingSubscriber(new ChannelSink(channel, null));
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required to be present on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Where the body bytes end up. `open` is called once when the body starts,
+     * then exactly one of `commit` or `abort`.
+     */
+    interface Sink {
+        WritableByteChannel open() throws IOException;
+
+        void commit() throws IOException;
+
+        void abort();
+    }
+
+    static class PathSink implements Sink {
+        private final Path target;
+        private Path temp;
+        private FileChannel channel;
+
+        PathSink(Path target) {
+            this.target = target.toAbsolutePath();
+        }
+
+        @Override
+        public WritableByteChannel open() throws IOException {
+            this.temp = Files.createTempFile(this.target.getParent(), this.target.getFileName().toString(), ".tmp");
+            this.channel = FileChannel.open(this.temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            return this.channel;
+        }
+
+        @Override
+        public void commit() throws IOException {
+            this.channel.close();
+            try {
+                Files.move(this.temp, this.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.deleteIfExists(this.temp);
+                throw e;
+            }
+        }
+
+        @Override
+        public void abort() {
+            try {
+                if (this.channel != null) {
+                    this.channel.close();
+                }
+                if (this.temp != null) {
+                    Files.deleteIfExists(this.temp);
+                }
+            } catch (IOException ignored) {
+                // Nothing else we can do with a temp file we failed to remove
+            }
+        }
+    }
+
+    /**
+     * Writes to `part` from `offset` on, keeping the first `offset` bytes an
+     * earlier, interrupted transfer left there, and moves it to `target` once
+     * the body is complete. Unlike {@link PathSink} the part file is kept when
+     * the transfer fails, so it can be resumed with a `Range` request.
+     */
+    static class PartSink implements Sink {
+        private final Path part;
+        private final Path target;
+        private final long offset;
+        private FileChannel channel;
+
+        PartSink(Path part, Path target, long offset) {
+            this.part = part;
+            this.target = target;
+            this.offset = offset;
+        }
+
+        @Override
+        public WritableByteChannel open() throws IOException {
+            this.channel = FileChannel.open(this.part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            // Drops anything a failed attempt appended after `offset`
+            this.channel.truncate(this.offset);
+            this.channel.position(this.offset);
+            return this.channel;
+        }
+
+        @Override
+        public void commit() throws IOException {
+            this.channel.force(false);
+            this.channel.close();
+            Files.move(this.part, this.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public void abort() {
+            try {
+                if (this.channel != null) {
+                    this.channel.close();
+                }
+            } catch (IOException ignored) {
+                // The part file is kept either way
+            }
+        }
+    }
+
+    static class ChannelSink implements Sink {
+        private final WritableByteChannel channel;
+        private final OutputStream flushable;
+
+        ChannelSink(WritableByteChannel channel, OutputStream flushable) {
+            this.channel = channel;
+            this.flushable = flushable;
+        }
+
+        @Override
+        public WritableByteChannel open() {
+            return this.channel;
+        }
+
+        @Override
+        public void commit() throws IOException {
+            if (this.flushable != null) {
+                this.flushable.flush();
+            }
+        }
+
+        @Override
+        public void abort() {
+        }
+    }
+
+    /**
+     * Writes each received buffer to the sink and feeds it to the digest.
+     * Only one batch of buffers is requested at a time, so memory use is
+     * bounded by the HTTP client's own buffer size. With a
+     * {@link BandwidthLimiter} the next batch is requested only once the
+     * limiter allows it, which slows the server down through TCP flow
+     * control instead of buffering.
+     */
+    static class DigestingSubscriber implements HttpResponse.BodySubscriber<TransferResult> {
+        private final Sink sink;
+        private final MessageDigest digest;
+        private final BandwidthLimiter limiter;
+        private final CompletableFuture<TransferResult> result = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+        private WritableByteChannel channel;
+        private long bytes;
+
+        DigestingSubscriber(Sink sink) {
+            this(sink, newDigest(), 0, null);
+        }
+
+        /**
+         * @param digest Digest of the bytes already in the sink, if resuming
+         * @param bytes  Number of bytes already in the sink, if resuming
+         */
+        DigestingSubscriber(Sink sink, MessageDigest digest, long bytes, BandwidthLimiter limiter) {
+            this.sink = sink;
+            this.digest = digest;
+            this.bytes = bytes;
+            this.limiter = limiter;
+        }
+
+        @Override
+        public CompletionStage<TransferResult> getBody() {
+            return this.result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            try {
+                this.channel = this.sink.open();
+            } catch (IOException e) {
+                subscription.cancel();
+                this.fail(e);
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            long received = 0;
+            try {
+                for (ByteBuffer buffer : buffers) {
+                    this.digest.update(buffer.duplicate());
+                    received += buffer.remaining();
+                    while (buffer.hasRemaining()) {
+                        this.channel.write(buffer);
+                    }
+                }
+            } catch (IOException e) {
+                this.subscription.cancel();
+                this.fail(e);
+                return;
+            }
+            this.bytes += received;
+
+            long waitNanos = this.limiter == null ? 0 : this.limiter.reserve(received);
+            if (waitNanos > 0) {
+                CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS).execute(() -> this.subscription.request(1));
+            } else {
+                this.subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.fail(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (this.result.isDone()) {
+                return;
+            }
+            try {
+                this.sink.commit();
+                this.result.complete(new TransferResult(this.bytes, toHex(this.digest.digest())));
+            } catch (IOException e) {
+                this.fail(e);
+            }
+        }
+
+        private void fail(Throwable throwable) {
+            this.sink.abort();
+            this.result.completeExceptionally(throwable);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.useanvil.examples.client;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.http.HttpRequest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A generate-pdf payload whose document is written by a callback while the
+ * request is sent, for documents too large to build in memory first, e.g. a
+ * report with a hundred thousand table rows:
+ *
+ * `client.generatePdf(StreamingGeneratePayload.markdown("Report", md -> { TableWriter t = md.table(true); ... }), handler)`
+ *
+ * The callback's output is encoded straight into the request body. Writes
+ * block while the connection catches up, so memory use stays flat however
+ * large the document is; see {@link ProducerBodyPublisher}.
+ *
+ * The callback runs on its own thread, once per attempt: a retried request
+ * calls it again, so it must be safe to call more than once and write the
+ * same document every time. Read its data from a source that can be read
+ * again, e.g. by running the query inside the callback rather than passing
+ * in an open cursor. These requests are never hedged, so two calls never
+ * overlap.
+ */
+public class StreamingGeneratePayload {
+
+    /**
+     * Writes the HTML, in as many pieces as it likes, to `html`.
+     */
+    @FunctionalInterface
+    public interface HtmlProducer {
+        void write(Writer html) throws IOException;
+    }
+
+    /**
+     * Writes the Markdown document's `data` entries to `markdown`.
+     */
+    @FunctionalInterface
+    public interface MarkdownProducer {
+        void write(MarkdownWriter markdown) throws IOException;
+    }
+
+    private final String title;
+    private final String type;
+    private final HtmlProducer html;
+    private final MarkdownProducer markdown;
+    private final Map<String, Object> options = new LinkedHashMap<>();
+    private String css;
+
+    private StreamingGeneratePayload(String title, String type, HtmlProducer html, MarkdownProducer markdown) {
+        this.title = title;
+        this.type = type;
+        this.html = html;
+        this.markdown = markdown;
+    }
+
+    /**
+     * `{"title": title, "type": "html", "data": {"css": ..., "html": <written by producer>}}`
+     */
+    public static StreamingGeneratePayload html(String title, HtmlProducer producer) {
+        return new StreamingGeneratePayload(title, "html", producer, null);
+    }
+
+    /**
+     * `{"title": title, "type": "markdown", "data": [<written by producer>]}`
+     */
+    public static StreamingGeneratePayload markdown(String title, MarkdownProducer producer) {
+        return new StreamingGeneratePayload(title, "markdown", null, producer);
+    }
+
+    /**
+     * The stylesheet of an HTML document.
+     */
+    public StreamingGeneratePayload css(String css) {
+        if (this.html == null) {
+            throw new IllegalStateException("Only an HTML document has css");
+        }
+        this.css = css;
+        return this;
+    }
+
+    /**
+     * Any other top-level field, e.g. `fontSize`, `textColor` or `page`.
+     */
+    public StreamingGeneratePayload option(String name, Object value) {
+        this.options.put(name, value);
+        return this;
+    }
+
+    /**
+     * A request body that runs the producer as it is sent.
+     */
+    public HttpRequest.BodyPublisher publisher() {
+        return ProducerBodyPublisher.of(this::writeTo);
+    }
+
+    /**
+     * Writes the whole payload to `out` on the calling thread.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        JsonGenerator generator = JsonCodec.mapper().createGenerator(out, JsonEncoding.UTF8);
+        generator.writeStartObject();
+        generator.writeStringField("title", this.title);
+        generator.writeStringField("type", this.type);
+        for (Map.Entry<String, Object> option : this.options.entrySet()) {
+            generator.writeObjectField(option.getKey(), option.getValue());
+        }
+
+        if (this.html != null) {
+            generator.writeObjectFieldStart("data");
+            if (this.css != null) {
+                generator.writeStringField("css", this.css);
+            }
+            // The generator only sees an opening quote; the text goes around it
+            generator.writeFieldName("html");
+            generator.writeRawValue("\"");
+            generator.flush();
+            try (JsonStringWriter writer = new JsonStringWriter(out)) {
+                this.html.write(writer);
+            }
+            generator.writeRaw('"');
+            generator.writeEndObject();
+        } else {
+            generator.writeArrayFieldStart("data");
+            MarkdownWriter writer = new MarkdownWriter(generator);
+            this.markdown.write(writer);
+            writer.endTable();
+            generator.writeEndArray();
+        }
+
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    /**
+     * Writes the entries of a Markdown document. An entry ends any table
+     * still open before it.
+     */
+    public static class MarkdownWriter {
+        private final JsonGenerator generator;
+        private TableWriter table;
+
+        private MarkdownWriter(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        public MarkdownWriter heading(String heading) throws IOException {
+            this.endTable();
+            this.generator.writeStartObject();
+            this.generator.writeStringField("heading", heading);
+            this.generator.writeEndObject();
+            return this;
+        }
+
+        public MarkdownWriter content(String markdown) throws IOException {
+            return this.content(null, markdown);
+        }
+
+        public MarkdownWriter content(String label, String markdown) throws IOException {
+            this.endTable();
+            this.generator.writeStartObject();
+            if (label != null) {
+                this.generator.writeStringField("label", label);
+            }
+            this.generator.writeStringField("content", markdown);
+            this.generator.writeEndObject();
+            return this;
+        }
+
+        /**
+         * Any other entry, e.g. a `Map` with a `fontSize`, serialized as is.
+         */
+        public MarkdownWriter entry(Object entry) throws IOException {
+            this.endTable();
+            this.generator.writeObject(entry);
+            return this;
+        }
+
+        /**
+         * Starts a table. Rows are written to the returned writer until it is
+         * closed or the next entry starts.
+         */
+        public TableWriter table(boolean firstRowHeaders) throws IOException {
+            this.endTable();
+            this.generator.writeStartObject();
+            this.generator.writeObjectFieldStart("table");
+            this.generator.writeBooleanField("firstRowHeaders", firstRowHeaders);
+            this.generator.writeArrayFieldStart("rows");
+            this.table = new TableWriter(this);
+            return this.table;
+        }
+
+        private void endTable() throws IOException {
+            if (this.table == null) {
+                return;
+            }
+            this.table = null;
+            this.generator.writeEndArray();
+            this.generator.writeEndObject();
+            this.generator.writeEndObject();
+        }
+    }
+
+    public static class TableWriter implements Closeable {
+        private final MarkdownWriter markdown;
+
+        private TableWriter(MarkdownWriter markdown) {
+            this.markdown = markdown;
+        }
+
+        public TableWriter row(String... cells) throws IOException {
+            return this.row(Arrays.asList(cells));
+        }
+
+        /**
+         * @param cells Written as text, `null` as an empty cell
+         */
+        public TableWriter row(List<?> cells) throws IOException {
+            if (this.markdown.table != this) {
+                throw new IllegalStateException("The table has ended");
+            }
+            JsonGenerator generator = this.markdown.generator;
+            generator.writeStartArray();
+            for (Object cell : cells) {
+                generator.writeString(cell == null ? "" : cell.toString());
+            }
+            generator.writeEndArray();
+            return this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.markdown.table == this) {
+                this.markdown.endTable();
+            }
+        }
+    }
+}
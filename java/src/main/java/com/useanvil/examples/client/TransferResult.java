@@ -0,0 +1,21 @@
+package com.useanvil.examples.client;
+
+/**
+ * Summary of a response body that was streamed to a sink instead of being
+ * buffered in memory. The checksum is a hex-encoded SHA-256 digest computed
+ * as the bytes arrived.
+ */
+public class TransferResult {
+    public final long bytes;
+    public final String checksum;
+
+    public TransferResult(long bytes, String checksum) {
+        this.bytes = bytes;
+        this.checksum = checksum;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferResult{bytes=" + bytes + ", checksum=" + checksum + "}";
+    }
+}
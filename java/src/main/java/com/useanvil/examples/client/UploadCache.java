@@ -0,0 +1,237 @@
+package com.useanvil.examples.client;
+
+import com.github.mizosoft.methanol.MultipartBodyPublisher;
+import com.useanvil.examples.entity.FileUpload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Avoids sending the same file over and over, e.g. the NDA of an e-sign packet
+ * that goes out to thousands of signers.
+ *
+ * Files are identified by the SHA-256 of their content. Each file is read and
+ * hashed once (again only if its size or modification time changes), and the
+ * multipart part for it, headers and body, is built once and reused by every
+ * request that uploads it. Part bodies are kept in memory up to `maxBytes`;
+ * larger files are streamed from disk each time.
+ *
+ * With `promoteToCasts`, a `FileUpload` is instead uploaded once as a PDF
+ * template (a cast, with the upload's fields) and every packet, including the
+ * first, refers to that template with an `EtchCastRef`. Packets sharing a
+ * file then send no file bytes at all. Promoted templates show up in your
+ * organization's templates.
+ *
+ * Enable it with {@link GraphqlClient#setUploadCache(UploadCache)}.
+ */
+public class UploadCache {
+    private final long maxBytes;
+    private final boolean promoteToCasts;
+
+    private final ConcurrentHashMap<Path, HashedFile> files = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MultipartBodyPublisher.Part> parts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<String>> casts = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong partHits = new AtomicLong();
+    private final AtomicLong partMisses = new AtomicLong();
+    private final AtomicLong castHits = new AtomicLong();
+    private final AtomicLong castsCreated = new AtomicLong();
+
+    public UploadCache(long maxBytes) {
+        this(maxBytes, false);
+    }
+
+    /**
+     * @param maxBytes       Most file bytes kept in memory for reuse
+     * @param promoteToCasts Whether to turn uploaded files into reusable
+     *                       templates, see above
+     */
+    public UploadCache(long maxBytes, boolean promoteToCasts) {
+        this.maxBytes = maxBytes;
+        this.promoteToCasts = promoteToCasts;
+    }
+
+    public boolean isPromotingToCasts() {
+        return this.promoteToCasts;
+    }
+
+    /**
+     * The SHA-256 of `file`'s content, e.g. to tell whether two paths hold
+     * the same document.
+     */
+    public String checksum(Path file) throws IOException {
+        return this.hashed(file).checksum;
+    }
+
+    private HashedFile hashed(Path file) throws IOException {
+        Path path = file.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        HashedFile cached = this.files.get(path);
+        if (cached != null && cached.size == attributes.size() && cached.modifiedMillis == attributes.lastModifiedTime().toMillis()) {
+            return cached;
+        }
+
+        MessageDigest digest = StreamingBodyHandlers.newDigest();
+        byte[] content = null;
+        try (InputStream in = Files.newInputStream(path)) {
+            if (this.bytes.addAndGet(attributes.size()) <= this.maxBytes) {
+                content = in.readAllBytes();
+                digest.update(content);
+            } else {
+                this.bytes.addAndGet(-attributes.size());
+                in.transferTo(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+            }
+        }
+        HashedFile hashed = new HashedFile(path, attributes.size(), attributes.lastModifiedTime().toMillis(), StreamingBodyHandlers.toHex(digest.digest()), content);
+        HashedFile replaced = this.files.put(path, hashed);
+        if (replaced != null && replaced.content != null) {
+            // The file changed on disk; drop the parts built from the old content
+            this.bytes.addAndGet(-replaced.content.length);
+            this.parts.keySet().removeIf(key -> key.endsWith('\n' + replaced.checksum));
+        }
+        return hashed;
+    }
+
+    /**
+     * The multipart part uploading `file` as the form field `name`.
+     */
+    MultipartBodyPublisher.Part part(String name, Path file) throws IOException {
+        HashedFile hashed = this.hashed(file);
+        String key = name + '\n' + hashed.path.getFileName() + '\n' + hashed.checksum;
+        MultipartBodyPublisher.Part part = this.parts.get(key);
+        if (part != null) {
+            this.partHits.incrementAndGet();
+            return part;
+        }
+        this.partMisses.incrementAndGet();
+
+        String contentType = Files.probeContentType(hashed.path);
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        headers.put("Content-Disposition", List.of("form-data; name=\"" + escape(name) + "\"; filename=\"" + escape(hashed.path.getFileName().toString()) + "\""));
+        headers.put("Content-Type", List.of(contentType != null ? contentType : "application/octet-stream"));
+        // Byte array publishers can be subscribed to any number of times
+        HttpRequest.BodyPublisher body = hashed.content != null
+                ? HttpRequest.BodyPublishers.ofByteArray(hashed.content)
+                : HttpRequest.BodyPublishers.ofFile(hashed.path);
+        part = MultipartBodyPublisher.Part.create(HttpHeaders.of(headers, (header, value) -> true), body);
+
+        // Only keep parts whose body we keep; the rest are cheap to rebuild
+        if (hashed.content != null) {
+            this.parts.put(key, part);
+        }
+        return part;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * The eid of the template made from `upload`, creating it with `create`
+     * the first time the same file, title and fields are seen. Concurrent
+     * callers share one upload; a failed upload is retried by the next
+     * caller.
+     *
+     * @param scope Separates templates of different API keys and servers
+     */
+    CompletableFuture<String> castEid(String scope, FileUpload upload, Supplier<CompletableFuture<String>> create) {
+        String key;
+        try {
+            key = scope + '\n' + this.checksum(upload.getFilePath()) + '\n'
+                    + new String(JsonCodec.canonicalBytes(List.of(String.valueOf(upload.title), upload.fields == null ? Collections.emptyList() : upload.fields)), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> pending = this.casts.putIfAbsent(key, created);
+        if (pending != null) {
+            this.castHits.incrementAndGet();
+            // Copies, so a caller cancelling its future doesn't cancel the others'
+            return pending.copy();
+        }
+
+        this.castsCreated.incrementAndGet();
+        CompletableFuture<String> eid;
+        try {
+            eid = create.get();
+        } catch (RuntimeException e) {
+            eid = CompletableFuture.failedFuture(e);
+        }
+        eid.whenComplete((castEid, throwable) -> {
+            if (throwable != null) {
+                this.casts.remove(key, created);
+                created.completeExceptionally(throwable);
+            } else {
+                created.complete(castEid);
+            }
+        });
+        return created.copy();
+    }
+
+    public long getPartHitCount() {
+        return this.partHits.get();
+    }
+
+    public long getPartMissCount() {
+        return this.partMisses.get();
+    }
+
+    public long getCastHitCount() {
+        return this.castHits.get();
+    }
+
+    public long getCastsCreatedCount() {
+        return this.castsCreated.get();
+    }
+
+    /**
+     * e.g. `3 files (1MB), parts: 4998 reused, 2 built; casts: 4999 reused, 1 created`
+     */
+    public String summary() {
+        return String.format(
+                "%d files (%dMB), parts: %d reused, %d built; casts: %d reused, %d created",
+                this.files.size(),
+                this.bytes.get() / (1024 * 1024),
+                this.getPartHitCount(),
+                this.getPartMissCount(),
+                this.getCastHitCount(),
+                this.getCastsCreatedCount()
+        );
+    }
+
+    private static class HashedFile {
+        final Path path;
+        final long size;
+        final long modifiedMillis;
+        final String checksum;
+        // `null` when the file didn't fit in `maxBytes`
+        final byte[] content;
+
+        HashedFile(Path path, long size, long modifiedMillis, String checksum, byte[] content) {
+            this.path = path;
+            this.size = size;
+            this.modifiedMillis = modifiedMillis;
+            this.checksum = checksum;
+            this.content = content;
+        }
+    }
+}
@@ -24,4 +24,21 @@ public class CreateEtchPacket implements Serializable  {
 
     public PayloadData data;
     public EtchSigner[] signers;
+
+    /**
+     * A shallow copy, e.g. to swap out `files` without touching the original.
+     */
+    public CreateEtchPacket copy() {
+        CreateEtchPacket copy = new CreateEtchPacket();
+        copy.isDraft = this.isDraft;
+        copy.isTest = this.isTest;
+        copy.name = this.name;
+        copy.signatureEmailSubject = this.signatureEmailSubject;
+        copy.signatureEmailBody = this.signatureEmailBody;
+        copy.mergePDFs = this.mergePDFs;
+        copy.files = this.files;
+        copy.data = this.data;
+        copy.signers = this.signers;
+        return copy;
+    }
 }
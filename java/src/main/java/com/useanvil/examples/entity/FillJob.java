@@ -0,0 +1,27 @@
+package com.useanvil.examples.entity;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * One line of a bulk fill input file, e.g.
+ *
+ * `{"templateId": "B5Loz3C7GVortDmn4p2P", "versionNumber": -2, "payload": { "data": { ... } }, "outputPath": "output/1.pdf"}`
+ *
+ * or, with a payload template,
+ *
+ * `{"templateId": "B5Loz3C7GVortDmn4p2P", "values": { "email": "sally@example.com" }, "outputPath": "output/1.pdf"}`
+ */
+public class FillJob {
+    public String templateId;
+
+    // Optional. See `Constants.LATEST_VERSION_INT` and `Constants.PUBLISHED_VERSION_INT`.
+    public Integer versionNumber;
+
+    // The same payload you would send to the fill endpoint
+    public JsonNode payload;
+
+    // With a payload template, the values of its placeholders instead of a `payload`
+    public JsonNode values;
+
+    public String outputPath;
+}
@@ -1,10 +1,11 @@
 package com.useanvil.examples.entity;
 
 public class GraphqlRequest {
-    String query;
-    String variables;
+    public String query;
+    // Either a JSON string or anything Jackson can serialize into an object
+    public Object variables;
 
-    public GraphqlRequest(String query, String variables) {
+    public GraphqlRequest(String query, Object variables) {
         this.query = query;
         this.variables = variables;
     }
@@ -0,0 +1,46 @@
+package com.useanvil.examples.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+
+/**
+ * A file embedded in the GraphQL payload as base64, in the
+ * `{ "data": "<base64>", "filename": "...", "mimetype": "..." }` format the
+ * Anvil API accepts for `file`.
+ *
+ * Use it as the `file` of a {@link FileUpload}:
+ *
+ * `new FileUpload("myFile", "My File", new InlineFile(path), fields)`
+ *
+ * The file isn't read when this object is created. `GraphqlClient` encodes it
+ * on the fly while the request body is being sent, so memory use doesn't
+ * depend on the file size. This avoids a multipart request, but makes the
+ * body a third larger than the file; multipart is still the better choice for
+ * very large files.
+ */
+public class InlineFile implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public String filename;
+    public String mimetype;
+
+    @JsonIgnore
+    transient Path _path;
+
+    public InlineFile(Path path) {
+        this(path, path.getFileName().toString(), "application/pdf");
+    }
+
+    public InlineFile(Path path, String filename, String mimetype) {
+        this._path = path;
+        this.filename = filename;
+        this.mimetype = mimetype;
+    }
+
+    @JsonIgnore
+    public Path getPath() {
+        return this._path;
+    }
+}
@@ -0,0 +1,38 @@
+package com.useanvil.examples.metrics;
+
+/**
+ * What a client's circuit breaker exposes over JMX, under
+ * `com.useanvil.examples:type=CircuitBreaker,endpoint=<name>`.
+ */
+public interface CircuitBreakerMXBean {
+    /**
+     * The endpoint class the breaker applies to, e.g. `fill` or `graphql`.
+     */
+    String getEndpoint();
+
+    /**
+     * `CLOSED` (sending), `OPEN` (failing fast) or `HALF_OPEN` (sending a
+     * trial request).
+     */
+    String getState();
+
+    /**
+     * Share of the attempts in the current window that failed, from 0 to 1.
+     */
+    double getFailureRate();
+
+    /**
+     * Attempts in the current window.
+     */
+    long getWindowCount();
+
+    /**
+     * Times the breaker opened.
+     */
+    long getTripCount();
+
+    /**
+     * Attempts failed fast while the breaker was open.
+     */
+    long getRejectedCount();
+}
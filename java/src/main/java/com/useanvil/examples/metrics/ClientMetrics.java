@@ -0,0 +1,149 @@
+package com.useanvil.examples.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-operation request metrics for the clients: `fill`, `generate`, and one
+ * per GraphQL operation (e.g. `weld`, `createEtchPacket`), plus the current
+ * adaptive concurrency limit and circuit breaker per endpoint class (`fill`,
+ * `generate`, `graphql`, ...).
+ *
+ * Clients report to {@link #getDefault()} unless given another instance. The
+ * default instance registers an {@link OperationMetricsMXBean} per operation,
+ * so the numbers can be watched live with JConsole or VisualVM. Each attempt
+ * is also recorded as an {@link HttpRequestEvent} for JFR.
+ */
+public class ClientMetrics {
+    public static final String JMX_DOMAIN = "com.useanvil.examples";
+
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrencyLimitMXBean> limits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CircuitBreakerMXBean> breakers = new ConcurrentHashMap<>();
+    private final boolean registerMBeans;
+
+    public ClientMetrics() {
+        this(false);
+    }
+
+    private ClientMetrics(boolean registerMBeans) {
+        this.registerMBeans = registerMBeans;
+    }
+
+    public static ClientMetrics getDefault() {
+        return Holder.DEFAULT;
+    }
+
+    public OperationMetrics operation(String name) {
+        OperationMetrics metrics = this.operations.get(name);
+        if (metrics != null) {
+            return metrics;
+        }
+        return this.operations.computeIfAbsent(name, key -> {
+            OperationMetrics created = new OperationMetrics(key);
+            if (this.registerMBeans) {
+                register(created);
+            }
+            return created;
+        });
+    }
+
+    /**
+     * All operations seen so far, by name.
+     */
+    public Map<String, OperationMetrics> getOperations() {
+        return new TreeMap<>(this.operations);
+    }
+
+    /**
+     * Reports `limit` alongside the operations. A limit for the same endpoint
+     * class replaces the previous one.
+     */
+    public void limit(ConcurrencyLimitMXBean limit) {
+        if (this.limits.put(limit.getEndpoint(), limit) != limit && this.registerMBeans) {
+            register(limit, "type=ConcurrencyLimit,endpoint=" + ObjectName.quote(limit.getEndpoint()));
+        }
+    }
+
+    /**
+     * The concurrency limits reported so far, by endpoint class.
+     */
+    public Map<String, ConcurrencyLimitMXBean> getLimits() {
+        return new TreeMap<>(this.limits);
+    }
+
+    /**
+     * Reports `breaker` alongside the operations. A breaker for the same
+     * endpoint class replaces the previous one.
+     */
+    public void breaker(CircuitBreakerMXBean breaker) {
+        if (this.breakers.put(breaker.getEndpoint(), breaker) != breaker && this.registerMBeans) {
+            register(breaker, "type=CircuitBreaker,endpoint=" + ObjectName.quote(breaker.getEndpoint()));
+        }
+    }
+
+    /**
+     * The circuit breakers reported so far, by endpoint class.
+     */
+    public Map<String, CircuitBreakerMXBean> getBreakers() {
+        return new TreeMap<>(this.breakers);
+    }
+
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        for (OperationMetrics metrics : this.getOperations().values()) {
+            summary.append(metrics.summary()).append(System.lineSeparator());
+        }
+        for (ConcurrencyLimitMXBean limit : this.getLimits().values()) {
+            summary.append(String.format(
+                    "concurrency %s: limit %d (%d in flight, %d queued) rtt=%.1fms baseline=%.1fms drops=%d",
+                    limit.getEndpoint(),
+                    limit.getLimit(),
+                    limit.getInFlight(),
+                    limit.getQueued(),
+                    limit.getRecentRttMillis(),
+                    limit.getBaselineRttMillis(),
+                    limit.getDropCount()
+            )).append(System.lineSeparator());
+        }
+        for (CircuitBreakerMXBean breaker : this.getBreakers().values()) {
+            summary.append(String.format(
+                    "circuit %s: %s failures=%.1f%% of %d trips=%d rejected=%d",
+                    breaker.getEndpoint(),
+                    breaker.getState(),
+                    breaker.getFailureRate() * 100,
+                    breaker.getWindowCount(),
+                    breaker.getTripCount(),
+                    breaker.getRejectedCount()
+            )).append(System.lineSeparator());
+        }
+        return summary.toString();
+    }
+
+    private static void register(OperationMetrics metrics) {
+        register(metrics, "type=ClientMetrics,operation=" + ObjectName.quote(metrics.getOperation()));
+    }
+
+    private static void register(Object bean, String properties) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":" + properties);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(bean, name);
+        } catch (JMException | SecurityException e) {
+            // Metrics are still collected, just not visible over JMX
+        }
+    }
+
+    private static class Holder {
+        static final ClientMetrics DEFAULT = new ClientMetrics(true);
+    }
+}
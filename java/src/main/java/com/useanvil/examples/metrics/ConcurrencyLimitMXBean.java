@@ -0,0 +1,42 @@
+package com.useanvil.examples.metrics;
+
+/**
+ * What a client's adaptive concurrency limit exposes over JMX, under
+ * `com.useanvil.examples:type=ConcurrencyLimit,endpoint=<name>`.
+ *
+ * RTTs are in milliseconds and per attempt, from sending the request until
+ * its response headers arrived.
+ */
+public interface ConcurrencyLimitMXBean {
+    /**
+     * The endpoint class the limit applies to, e.g. `fill` or `graphql`.
+     */
+    String getEndpoint();
+
+    /**
+     * Requests currently allowed in flight at once.
+     */
+    int getLimit();
+
+    int getInFlight();
+
+    /**
+     * Requests waiting for a slot.
+     */
+    int getQueued();
+
+    /**
+     * Recent RTT, averaged over the last few samples.
+     */
+    double getRecentRttMillis();
+
+    /**
+     * The slowly moving RTT the recent one is compared to.
+     */
+    double getBaselineRttMillis();
+
+    /**
+     * Times the limit was cut because of a 429, 5xx or I/O error.
+     */
+    long getDropCount();
+}
@@ -0,0 +1,73 @@
+package com.useanvil.examples.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JFR event for every HTTP attempt the clients make, retries included. Its
+ * duration runs from sending the request until the body has been received.
+ *
+ * Record with e.g. `java -XX:StartFlightRecording=filename=run.jfr -jar ...`
+ * and look for "Anvil API Request" in JDK Mission Control, or
+ * `jfr print --events com.useanvil.HttpRequest run.jfr`.
+ *
+ * The JDK HTTP client doesn't report when a connection is opened, so `ttfb`
+ * includes connecting (and the TLS handshake) on attempts that needed a new
+ * connection. The JDK's own `jdk.SocketRead`/`jdk.SocketWrite` events can fill
+ * in the gaps.
+ */
+@Name("com.useanvil.HttpRequest")
+@Label("Anvil API Request")
+@Category({"Anvil", "HTTP"})
+@Description("An HTTP request attempt made by RestClient or GraphqlClient")
+// Always recorded from a completion callback, so the stack says nothing
+@StackTrace(false)
+public class HttpRequestEvent extends Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("Method")
+    public String method;
+
+    @Label("URL")
+    public String url;
+
+    @Label("Attempt")
+    @Description("0 for the first attempt, 1 for the first retry, and so on")
+    public int attempt;
+
+    @Label("Status Code")
+    @Description("-1 if no response was received")
+    public int statusCode;
+
+    @Label("Error")
+    public String error;
+
+    @Label("Queued")
+    @Description("Time between the call and this attempt: rate limiting, backoff and earlier attempts")
+    @Timespan(Timespan.NANOSECONDS)
+    public long queued;
+
+    @Label("Time To First Byte")
+    @Description("From sending the request until the response headers arrived")
+    @Timespan(Timespan.NANOSECONDS)
+    public long ttfb;
+
+    @Label("Body Transfer")
+    @Timespan(Timespan.NANOSECONDS)
+    public long bodyTransfer;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    public long bytesSent;
+
+    @Label("Bytes Received")
+    @DataAmount
+    public long bytesReceived;
+}
@@ -0,0 +1,120 @@
+package com.useanvil.examples.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free latency histogram with roughly 1.5% precision.
+ *
+ * Values are recorded in microseconds into log-linear buckets: the first 128
+ * buckets hold exact values, and every power of two above that is split into
+ * 64 equal sub-buckets. This keeps memory constant (a few KB) no matter how
+ * many samples are recorded, so it is safe to use for long bulk runs.
+ */
+public class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + (63 - 7) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long duration, TimeUnit unit) {
+        this.recordMicros(unit.toMicros(duration));
+    }
+
+    public void recordNanos(long nanos) {
+        this.recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordMicros(long micros) {
+        long value = Math.max(0, micros);
+        this.counts.incrementAndGet(indexOf(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        this.max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getMaxMicros() {
+        return this.max.get();
+    }
+
+    public double getMeanMicros() {
+        long n = this.count.get();
+        return n == 0 ? 0 : (double) this.sum.get() / n;
+    }
+
+    /**
+     * @param percentile Between 0 and 100, e.g. `99.9`
+     * @return The upper bound of the bucket holding the given percentile, in
+     * microseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = this.count.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.counts.set(i, 0);
+        }
+        this.count.set(0);
+        this.sum.set(0);
+        this.max.set(0);
+    }
+
+    /**
+     * e.g. `n=1200 mean=812.4ms p50=790.0ms p95=1210.0ms p99=1530.0ms max=2011.7ms`
+     */
+    public String summary() {
+        return String.format(
+                "n=%d mean=%.1fms p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms",
+                this.getCount(),
+                this.getMeanMicros() / 1000.0,
+                this.getPercentileMicros(50) / 1000.0,
+                this.getPercentileMicros(95) / 1000.0,
+                this.getPercentileMicros(99) / 1000.0,
+                this.getMaxMicros() / 1000.0
+        );
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (exponent - 7) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int group = (index - LINEAR_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = group + 7 - SUB_BUCKET_BITS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
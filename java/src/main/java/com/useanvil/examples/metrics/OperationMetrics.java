@@ -0,0 +1,250 @@
+package com.useanvil.examples.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for one kind of request, e.g. `fill` or the
+ * `weld` GraphQL operation. Updated by the clients; see {@link ClientMetrics}.
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+    private final String operation;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram ttfb = new LatencyHistogram();
+    private final LatencyHistogram bodyTransfer = new LatencyHistogram();
+
+    private final AtomicLong inFlight = new AtomicLong();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+    OperationMetrics(String operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Called when a request is handed to the client.
+     *
+     * @return The start time, to pass to {@link #finished}
+     */
+    public long started() {
+        this.requests.increment();
+        this.inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Called once per attempt, including the first one.
+     *
+     * @param ttfbNanos         From sending the request until its response
+     *                          headers arrived, or -1 if they never did
+     * @param bodyTransferNanos From the headers until the body was received,
+     *                          or -1
+     */
+    public void attempted(int attempt, long ttfbNanos, long bodyTransferNanos, long bytesSent, long bytesReceived) {
+        if (attempt > 0) {
+            this.retries.increment();
+        }
+        if (ttfbNanos >= 0) {
+            this.ttfb.recordNanos(ttfbNanos);
+        }
+        if (bodyTransferNanos >= 0) {
+            this.bodyTransfer.recordNanos(bodyTransferNanos);
+        }
+        this.bytesSent.add(Math.max(0, bytesSent));
+        this.bytesReceived.add(Math.max(0, bytesReceived));
+    }
+
+    /**
+     * Called when a second copy of a slow attempt is sent.
+     */
+    public void hedged() {
+        this.hedges.increment();
+    }
+
+    /**
+     * Called when that second copy got its response before the first one.
+     */
+    public void hedgeWon() {
+        this.hedgeWins.increment();
+    }
+
+    /**
+     * Called when the caller gets its response or error.
+     *
+     * @param statusCode The final status code, or -1 when there was no
+     *                   response
+     * @param error      Why there was no response, or `null`
+     */
+    public void finished(long startNanos, int statusCode, Throwable error) {
+        this.inFlight.decrementAndGet();
+        this.latency.recordNanos(System.nanoTime() - startNanos);
+        boolean success = error == null && statusCode >= 200 && statusCode < 400;
+        (success ? this.succeeded : this.failed).increment();
+        String outcome = error != null ? error.getClass().getSimpleName() : String.valueOf(statusCode);
+        this.outcomes.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+    }
+
+    public LatencyHistogram getLatency() {
+        return this.latency;
+    }
+
+    public LatencyHistogram getTtfb() {
+        return this.ttfb;
+    }
+
+    public LatencyHistogram getBodyTransfer() {
+        return this.bodyTransfer;
+    }
+
+    @Override
+    public String getOperation() {
+        return this.operation;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return this.requests.sum();
+    }
+
+    @Override
+    public long getInFlight() {
+        return this.inFlight.get();
+    }
+
+    @Override
+    public long getSucceededCount() {
+        return this.succeeded.sum();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return this.failed.sum();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return this.retries.sum();
+    }
+
+    @Override
+    public long getHedgeCount() {
+        return this.hedges.sum();
+    }
+
+    @Override
+    public long getHedgeWinCount() {
+        return this.hedgeWins.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return this.bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return this.bytesReceived.sum();
+    }
+
+    @Override
+    public Map<String, Long> getOutcomes() {
+        Map<String, Long> outcomes = new TreeMap<>();
+        this.outcomes.forEach((outcome, count) -> outcomes.put(outcome, count.sum()));
+        return outcomes;
+    }
+
+    @Override
+    public double getLatencyMeanMillis() {
+        return this.latency.getMeanMicros() / 1000.0;
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+        return this.latency.getPercentileMicros(50) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyP95Millis() {
+        return this.latency.getPercentileMicros(95) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+        return this.latency.getPercentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyMaxMillis() {
+        return this.latency.getMaxMicros() / 1000.0;
+    }
+
+    @Override
+    public double getTtfbP50Millis() {
+        return this.ttfb.getPercentileMicros(50) / 1000.0;
+    }
+
+    @Override
+    public double getTtfbP99Millis() {
+        return this.ttfb.getPercentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public double getBodyTransferP50Millis() {
+        return this.bodyTransfer.getPercentileMicros(50) / 1000.0;
+    }
+
+    @Override
+    public double getBodyTransferP99Millis() {
+        return this.bodyTransfer.getPercentileMicros(99) / 1000.0;
+    }
+
+    /**
+     * Clears the counters and histograms. The in-flight count is left alone.
+     */
+    @Override
+    public void reset() {
+        this.latency.reset();
+        this.ttfb.reset();
+        this.bodyTransfer.reset();
+        this.requests.reset();
+        this.succeeded.reset();
+        this.failed.reset();
+        this.retries.reset();
+        this.hedges.reset();
+        this.hedgeWins.reset();
+        this.bytesSent.reset();
+        this.bytesReceived.reset();
+        this.outcomes.clear();
+    }
+
+    /**
+     * e.g. `fill: 1200 requests (3 retries, 0 in flight) {200=1199, 500=1} sent=2.1MB received=310.5MB latency n=1200 mean=...`
+     */
+    public String summary() {
+        return String.format(
+                "%s: %d requests (%d retries, %s%d in flight) %s sent=%.1fMB received=%.1fMB%n  latency %s%n  ttfb    %s%n  body    %s",
+                this.operation,
+                this.getRequestCount(),
+                this.getRetryCount(),
+                this.getHedgeCount() > 0 ? this.getHedgeCount() + " hedged (" + this.getHedgeWinCount() + " won), " : "",
+                this.getInFlight(),
+                this.getOutcomes(),
+                this.getBytesSent() / 1e6,
+                this.getBytesReceived() / 1e6,
+                this.latency.summary(),
+                this.ttfb.summary(),
+                this.bodyTransfer.summary()
+        );
+    }
+}
@@ -0,0 +1,63 @@
+package com.useanvil.examples.metrics;
+
+import java.util.Map;
+
+/**
+ * What {@link OperationMetrics} exposes over JMX, under
+ * `com.useanvil.examples:type=ClientMetrics,operation=<name>`.
+ *
+ * Latencies are in milliseconds. `Latency` is the whole call as seen by the
+ * caller, including rate limiting and retries; `Ttfb` (request sent until
+ * response headers, including connecting) and `BodyTransfer` are per attempt.
+ */
+public interface OperationMetricsMXBean {
+    String getOperation();
+
+    long getRequestCount();
+
+    long getInFlight();
+
+    long getSucceededCount();
+
+    long getFailedCount();
+
+    long getRetryCount();
+
+    /**
+     * Second copies sent of attempts that were slow to respond, and how many
+     * of those responded first.
+     */
+    long getHedgeCount();
+
+    long getHedgeWinCount();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    /**
+     * Final outcome counts by HTTP status code, or by exception class name for
+     * requests that got no response.
+     */
+    Map<String, Long> getOutcomes();
+
+    double getLatencyMeanMillis();
+
+    double getLatencyP50Millis();
+
+    double getLatencyP95Millis();
+
+    double getLatencyP99Millis();
+
+    double getLatencyMaxMillis();
+
+    double getTtfbP50Millis();
+
+    double getTtfbP99Millis();
+
+    double getBodyTransferP50Millis();
+
+    double getBodyTransferP99Millis();
+
+    void reset();
+}
@@ -0,0 +1,55 @@
+package com.useanvil.examples.mock;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How long {@link MockAnvilServer} waits before answering a request.
+ */
+public interface LatencyDistribution {
+    LatencyDistribution NONE = () -> 0;
+
+    long sampleMillis();
+
+    static LatencyDistribution fixed(long millis) {
+        return () -> millis;
+    }
+
+    static LatencyDistribution uniform(long minMillis, long maxMillis) {
+        return () -> ThreadLocalRandom.current().nextLong(minMillis, maxMillis + 1);
+    }
+
+    /**
+     * A long-tailed distribution, like real render times: half the samples
+     * are under `medianMillis` and 99% are under `p99Millis`.
+     */
+    static LatencyDistribution logNormal(long medianMillis, long p99Millis) {
+        // 2.326 is the z-score of the 99th percentile
+        double sigma = Math.log((double) p99Millis / medianMillis) / 2.326;
+        return () -> Math.round(medianMillis * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    /**
+     * Parses `none`, `fixed:<ms>`, `uniform:<min>:<max>` or
+     * `lognormal:<median>:<p99>`.
+     */
+    static LatencyDistribution parse(String spec) {
+        String[] parts = spec.trim().toLowerCase().split(":");
+        try {
+            switch (parts[0]) {
+                case "none":
+                    return NONE;
+                case "fixed":
+                    return fixed(Long.parseLong(parts[1]));
+                case "uniform":
+                    return uniform(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                case "lognormal":
+                    return logNormal(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                default:
+                    break;
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            // Fall through to the error below
+        }
+        throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+    }
+}
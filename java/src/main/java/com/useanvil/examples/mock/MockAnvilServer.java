@@ -0,0 +1,719 @@
+package com.useanvil.examples.mock;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.useanvil.examples.client.JsonCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A local stand-in for the Anvil API, for load and latency testing without
+ * spending API credits or running into the rate limit.
+ *
+ * It answers the endpoints the examples use:
+ *
+ * - `POST /api/v1/fill/{id}.pdf` and `POST /api/v1/generate-pdf` with a PDF
+ *   of the configured size
+ * - `POST /graphql`, JSON or multipart as described in
+ *   https://github.com/jaydenseric/graphql-multipart-request-spec, with
+ *   canned data for each top-level field in the query
+ * - `GET /api/document-group/{eid}.zip` with a zip of PDFs, honoring `Range`
+ *
+ * Every request waits for a sample of the endpoint's latency distribution,
+ * and can be rejected at random with a 5xx or a 429, or by a per-second rate
+ * limit. Point clients at it with `client.setBaseUrl(server.getBaseUrl())` or
+ * the `ANVIL_BASE_URL` environment variable.
+ */
+public class MockAnvilServer implements AutoCloseable {
+    public enum Endpoint {
+        FILL, GENERATE, GRAPHQL, DOWNLOAD
+    }
+
+    private static final Pattern FILL_PATH = Pattern.compile("/api/v1/fill/[^/]+\\.pdf");
+    private static final Pattern DOWNLOAD_PATH = Pattern.compile("/api/document-group/[^/]+\\.zip");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final Pattern BOUNDARY = Pattern.compile("boundary=\"?([^\";]+)\"?");
+    private static final Pattern PART_NAME = Pattern.compile("name=\"([^\"]*)\"");
+    private static final int[] SERVER_ERRORS = {500, 502, 503};
+    private static final String EID_CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    private final ObjectMapper objectMapper = JsonCodec.mapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<Endpoint, LatencyDistribution> latencies;
+    private final double errorRate;
+    private final double throttleRate;
+    private final int rateLimit;
+    private final int listSize;
+    private final int zipFiles;
+    private final byte[] pdf;
+    private volatile byte[] zip;
+
+    private long windowStart;
+    private int windowCount;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private MockAnvilServer(Builder builder) throws IOException {
+        this.latencies = new EnumMap<>(builder.latencies);
+        this.errorRate = builder.errorRate;
+        this.throttleRate = builder.throttleRate;
+        this.rateLimit = builder.rateLimit;
+        this.listSize = builder.listSize;
+        this.zipFiles = builder.zipFiles;
+        this.pdf = fakePdf(builder.pdfSize);
+
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "mock-anvil-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), builder.port), 0);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + this.server.getAddress().getPort();
+    }
+
+    public long getRequestCount() {
+        return this.requestCount.get();
+    }
+
+    public long getThrottledCount() {
+        return this.throttledCount.get();
+    }
+
+    public long getErrorCount() {
+        return this.errorCount.get();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            this.requestCount.incrementAndGet();
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            // Read the whole body up front so the connection can be reused
+            byte[] body = exchange.getRequestBody().readAllBytes();
+
+            // `HttpTransport.warmUp` opens connections with HEAD requests
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            Endpoint endpoint = route(method, path);
+            if (endpoint == null) {
+                this.sendError(exchange, 404, "NotFoundError", "No route for " + method + " " + path);
+                return;
+            }
+
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith("Basic ")) {
+                this.sendError(exchange, 401, "AuthorizationError", "Missing API key");
+                return;
+            }
+
+            if (!this.admit(exchange)) {
+                this.throttledCount.incrementAndGet();
+                this.sendError(exchange, 429, "RateLimitError", "Too many requests");
+                return;
+            }
+
+            long latency = this.latencies.getOrDefault(endpoint, LatencyDistribution.NONE).sampleMillis();
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+
+            if (this.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < this.errorRate) {
+                this.errorCount.incrementAndGet();
+                int status = SERVER_ERRORS[ThreadLocalRandom.current().nextInt(SERVER_ERRORS.length)];
+                this.sendError(exchange, status, "ServerError", "Injected failure");
+                return;
+            }
+
+            switch (endpoint) {
+                case FILL:
+                case GENERATE:
+                    this.handleRender(exchange, body);
+                    break;
+                case GRAPHQL:
+                    this.handleGraphql(exchange, body);
+                    break;
+                case DOWNLOAD:
+                    this.handleDownload(exchange);
+                    break;
+                default:
+                    break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static Endpoint route(String method, String path) {
+        if ("POST".equals(method) && FILL_PATH.matcher(path).matches()) {
+            return Endpoint.FILL;
+        }
+        if ("POST".equals(method) && path.equals("/api/v1/generate-pdf")) {
+            return Endpoint.GENERATE;
+        }
+        if ("POST".equals(method) && path.equals("/graphql")) {
+            return Endpoint.GRAPHQL;
+        }
+        if ("GET".equals(method) && DOWNLOAD_PATH.matcher(path).matches()) {
+            return Endpoint.DOWNLOAD;
+        }
+        return null;
+    }
+
+    /**
+     * Applies the random throttling and the per-second rate limit, and adds
+     * the rate limit headers the real API sends.
+     *
+     * @return Whether the request may go ahead
+     */
+    private boolean admit(HttpExchange exchange) {
+        if (this.throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < this.throttleRate) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            return false;
+        }
+        if (this.rateLimit <= 0) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        int remaining;
+        long resetMillis;
+        synchronized (this) {
+            if (now - this.windowStart >= 1000) {
+                this.windowStart = now;
+                this.windowCount = 0;
+            }
+            this.windowCount++;
+            remaining = this.rateLimit - this.windowCount;
+            resetMillis = this.windowStart + 1000;
+        }
+
+        exchange.getResponseHeaders().set("X-RateLimit-Limit", String.valueOf(this.rateLimit));
+        exchange.getResponseHeaders().set("X-RateLimit-Remaining", String.valueOf(Math.max(0, remaining)));
+        exchange.getResponseHeaders().set("X-RateLimit-Reset", String.valueOf((resetMillis + 999) / 1000));
+        if (remaining < 0) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            return false;
+        }
+        return true;
+    }
+
+    private void handleRender(HttpExchange exchange, byte[] body) throws IOException {
+        try {
+            this.objectMapper.readTree(body);
+        } catch (IOException e) {
+            this.sendError(exchange, 400, "ValidationError", "Request body is not valid JSON");
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/pdf");
+        this.send(exchange, 200, this.pdf, 0, this.pdf.length);
+    }
+
+    private void handleGraphql(HttpExchange exchange, byte[] body) throws IOException {
+        JsonNode operations;
+        try {
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            operations = startsWith(body, "--".getBytes(StandardCharsets.US_ASCII))
+                    ? this.readMultipartOperations(body, contentType)
+                    : this.objectMapper.readTree(body);
+        } catch (IOException | IllegalArgumentException e) {
+            this.sendError(exchange, 400, "ValidationError", e.getMessage());
+            return;
+        }
+
+        JsonNode query = operations.get("query");
+        if (query == null || !query.isTextual()) {
+            this.sendError(exchange, 400, "ValidationError", "Missing query");
+            return;
+        }
+
+        ObjectNode data = this.objectMapper.createObjectNode();
+        for (Map.Entry<String, String> field : topLevelFields(query.asText()).entrySet()) {
+            data.set(field.getKey(), this.fixture(field.getValue()));
+        }
+        ObjectNode response = this.objectMapper.createObjectNode();
+        response.set("data", data);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        byte[] json = this.objectMapper.writeValueAsBytes(response);
+        this.send(exchange, 200, json, 0, json.length);
+    }
+
+    private void handleDownload(HttpExchange exchange) throws IOException {
+        byte[] zip = this.getZip();
+        exchange.getResponseHeaders().set("Content-Type", "application/zip");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        Matcher matcher = range == null ? null : RANGE.matcher(range.trim());
+        if (matcher == null || !matcher.matches()) {
+            this.send(exchange, 200, zip, 0, zip.length);
+            return;
+        }
+
+        long start = Long.parseLong(matcher.group(1));
+        long end = matcher.group(2).isEmpty() ? zip.length - 1 : Math.min(Long.parseLong(matcher.group(2)), zip.length - 1);
+        if (start >= zip.length || start > end) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes */" + zip.length);
+            exchange.sendResponseHeaders(416, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + zip.length);
+        this.send(exchange, 206, zip, (int) start, (int) (end - start + 1));
+    }
+
+    /**
+     * Finds the `operations` part of a multipart GraphQL request and checks
+     * that every file listed in its `map` part was uploaded.
+     */
+    private JsonNode readMultipartOperations(byte[] body, String contentType) throws IOException {
+        String boundary = null;
+        Matcher matcher = contentType == null ? null : BOUNDARY.matcher(contentType);
+        if (matcher != null && matcher.find()) {
+            boundary = matcher.group(1);
+        } else {
+            // The examples send multipart bodies with a JSON content type, so
+            // take the boundary from the first line
+            int lineEnd = indexOf(body, "\r\n".getBytes(StandardCharsets.US_ASCII), 0);
+            if (lineEnd > 2) {
+                boundary = new String(body, 2, lineEnd - 2, StandardCharsets.US_ASCII);
+            }
+        }
+        if (boundary == null) {
+            throw new IllegalArgumentException("Missing multipart boundary");
+        }
+
+        Map<String, byte[]> parts = readParts(body, ("--" + boundary).getBytes(StandardCharsets.US_ASCII));
+        if (!parts.containsKey("operations") || !parts.containsKey("map")) {
+            throw new IllegalArgumentException("Multipart requests need `operations` and `map` parts");
+        }
+        JsonNode map = this.objectMapper.readTree(parts.get("map"));
+        for (Iterator<String> names = map.fieldNames(); names.hasNext(); ) {
+            String name = names.next();
+            if (!parts.containsKey(name)) {
+                throw new IllegalArgumentException("Missing file part " + name);
+            }
+        }
+        return this.objectMapper.readTree(parts.get("operations"));
+    }
+
+    private static Map<String, byte[]> readParts(byte[] body, byte[] delimiter) {
+        byte[] headerEnd = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        Map<String, byte[]> parts = new HashMap<>();
+        int at = indexOf(body, delimiter, 0);
+        while (at >= 0) {
+            int partStart = at + delimiter.length;
+            int next = indexOf(body, delimiter, partStart);
+            if (next < 0) {
+                break;
+            }
+            int headersEnd = indexOf(body, headerEnd, partStart);
+            if (headersEnd >= 0 && headersEnd < next) {
+                String headers = new String(body, partStart, headersEnd - partStart, StandardCharsets.UTF_8);
+                Matcher name = PART_NAME.matcher(headers);
+                if (name.find()) {
+                    int contentStart = headersEnd + headerEnd.length;
+                    // Content ends with the CRLF before the next delimiter
+                    int contentEnd = Math.max(contentStart, next - 2);
+                    byte[] content = new byte[contentEnd - contentStart];
+                    System.arraycopy(body, contentStart, content, 0, content.length);
+                    parts.put(name.group(1), content);
+                }
+            }
+            at = next;
+        }
+        return parts;
+    }
+
+    /**
+     * The response keys and field names of the top-level selections of the
+     * first operation in `query`, e.g. `{b0_weld=weld, currentUser=currentUser}`
+     * for `query { b0_weld: weld(eid: "x") { eid } currentUser { eid } }`.
+     */
+    static Map<String, String> topLevelFields(String query) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        int i = query.indexOf('{');
+        if (i < 0) {
+            return fields;
+        }
+        i++;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (c == '}') {
+                break;
+            }
+            if (c == '#') {
+                while (i < query.length() && query.charAt(i) != '\n') {
+                    i++;
+                }
+                continue;
+            }
+            if (!Character.isJavaIdentifierStart(c)) {
+                i++;
+                continue;
+            }
+
+            int nameStart = i;
+            while (i < query.length() && Character.isJavaIdentifierPart(query.charAt(i))) {
+                i++;
+            }
+            String key = query.substring(nameStart, i);
+            String field = key;
+            i = skipWhitespace(query, i);
+            if (i < query.length() && query.charAt(i) == ':') {
+                i = skipWhitespace(query, i + 1);
+                nameStart = i;
+                while (i < query.length() && Character.isJavaIdentifierPart(query.charAt(i))) {
+                    i++;
+                }
+                field = query.substring(nameStart, i);
+                i = skipWhitespace(query, i);
+            }
+            if (i < query.length() && query.charAt(i) == '(') {
+                i = skipGroup(query, i, '(', ')');
+                i = skipWhitespace(query, i);
+            }
+            if (i < query.length() && query.charAt(i) == '{') {
+                i = skipGroup(query, i, '{', '}');
+            }
+            fields.put(key, field);
+        }
+        return fields;
+    }
+
+    private static int skipWhitespace(String query, int i) {
+        while (i < query.length() && (Character.isWhitespace(query.charAt(i)) || query.charAt(i) == ',')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return The index after the `close` matching the `open` at `i`
+     */
+    private static int skipGroup(String query, int i, char open, char close) {
+        int depth = 0;
+        boolean inString = false;
+        for (; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (inString) {
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == open) {
+                depth++;
+            } else if (c == close && --depth == 0) {
+                return i + 1;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Canned data for the fields the examples query. Every object carries an
+     * `eid` so callers can chain requests, and lists have `listSize` items.
+     */
+    private JsonNode fixture(String field) {
+        ObjectNode node = this.objectMapper.createObjectNode();
+        node.put("eid", eid());
+        switch (field) {
+            case "currentUser": {
+                node.put("name", "Mock User");
+                ArrayNode organizations = node.putArray("organizations");
+                for (int i = 0; i < this.listSize; i++) {
+                    ObjectNode organization = organizations.addObject();
+                    organization.put("eid", eid());
+                    organization.put("slug", "organization-" + i);
+                    organization.put("name", "Organization " + i);
+                    this.namedList(organization.putArray("casts"), "Template");
+                    this.namedList(organization.putArray("welds"), "Workflow");
+                }
+                break;
+            }
+            case "weld": {
+                node.put("name", "Mock Workflow");
+                ArrayNode forges = node.putArray("forges");
+                for (int i = 0; i < this.listSize; i++) {
+                    ObjectNode forge = forges.addObject();
+                    forge.put("eid", eid());
+                    forge.put("slug", "webform-" + i);
+                    forge.put("name", "Webform " + i);
+                }
+                break;
+            }
+            case "cast": {
+                node.put("publishedNumber", 1);
+                node.putNull("latestDraftVersionNumber");
+                break;
+            }
+            case "forgeSubmit": {
+                String now = Instant.now().toString();
+                node.put("createdAt", now);
+                node.put("updatedAt", now);
+                node.putObject("resolvedPayload");
+                ObjectNode weldData = node.putObject("weldData");
+                weldData.put("eid", eid());
+                weldData.put("displayTitle", "Mock Submission");
+                weldData.put("isTest", true);
+                weldData.put("createdAt", now);
+                weldData.put("updatedAt", now);
+                break;
+            }
+            case "createEtchPacket": {
+                node.put("name", "Mock Packet");
+                node.put("detailsURL", this.getBaseUrl() + "/etch/" + node.get("eid").asText());
+                ObjectNode documentGroup = node.putObject("documentGroup");
+                documentGroup.put("eid", eid());
+                documentGroup.put("status", "sent");
+                documentGroup.putArray("files");
+                ArrayNode signers = documentGroup.putArray("signers");
+                for (int i = 0; i < this.listSize; i++) {
+                    ObjectNode signer = signers.addObject();
+                    signer.put("eid", eid());
+                    signer.put("aliasId", "signer" + i);
+                    signer.put("routingOrder", i + 1);
+                    signer.put("name", "Signer " + i);
+                    signer.put("email", "signer" + i + "@example.com");
+                    signer.put("status", "sent");
+                    signer.put("signActionType", "email");
+                }
+                break;
+            }
+            default:
+                break;
+        }
+        return node;
+    }
+
+    private void namedList(ArrayNode list, String prefix) {
+        for (int i = 0; i < this.listSize; i++) {
+            ObjectNode item = list.addObject();
+            item.put("eid", eid());
+            item.put("name", prefix + " " + i);
+        }
+    }
+
+    private byte[] getZip() throws IOException {
+        byte[] zip = this.zip;
+        if (zip == null) {
+            synchronized (this) {
+                if (this.zip == null) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    try (ZipOutputStream zipStream = new ZipOutputStream(out)) {
+                        for (int i = 0; i < this.zipFiles; i++) {
+                            zipStream.putNextEntry(new ZipEntry("document-" + (i + 1) + ".pdf"));
+                            zipStream.write(this.pdf);
+                            zipStream.closeEntry();
+                        }
+                    }
+                    this.zip = out.toByteArray();
+                }
+                zip = this.zip;
+            }
+        }
+        return zip;
+    }
+
+    private void sendError(HttpExchange exchange, int status, String name, String message) throws IOException {
+        ObjectNode error = this.objectMapper.createObjectNode();
+        error.put("name", name);
+        error.put("message", message);
+        byte[] json = this.objectMapper.writeValueAsBytes(error);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        this.send(exchange, status, json, 0, json.length);
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] body, int offset, int length) throws IOException {
+        exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+        if (length == 0) {
+            return;
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            // Written in slices so large bodies go out like a real download
+            for (int written = 0; written < length; written += 64 * 1024) {
+                out.write(body, offset + written, Math.min(64 * 1024, length - written));
+            }
+        }
+    }
+
+    /**
+     * A PDF header and trailer around incompressible filler, `size` bytes in
+     * total.
+     */
+    static byte[] fakePdf(int size) {
+        byte[] header = "%PDF-1.7\n%".getBytes(StandardCharsets.US_ASCII);
+        byte[] trailer = "\n%%EOF\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] pdf = new byte[Math.max(size, header.length + trailer.length)];
+        new Random(size).nextBytes(pdf);
+        System.arraycopy(header, 0, pdf, 0, header.length);
+        System.arraycopy(trailer, 0, pdf, pdf.length - trailer.length, trailer.length);
+        return pdf;
+    }
+
+    private static String eid() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] eid = new char[20];
+        for (int i = 0; i < eid.length; i++) {
+            eid[i] = EID_CHARACTERS.charAt(random.nextInt(EID_CHARACTERS.length()));
+        }
+        return new String(eid);
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        return bytes.length >= prefix.length && indexOf(bytes, prefix, 0) == 0;
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle, int from) {
+        outer:
+        for (int i = from; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    public static class Builder {
+        private final Map<Endpoint, LatencyDistribution> latencies = new EnumMap<>(Endpoint.class);
+        private int port;
+        private double errorRate;
+        private double throttleRate;
+        private int rateLimit;
+        private int pdfSize = 64 * 1024;
+        private int zipFiles = 2;
+        private int listSize = 3;
+
+        private Builder() {
+        }
+
+        /**
+         * Port to listen on. Defaults to any free port; see
+         * {@link MockAnvilServer#getBaseUrl()}.
+         */
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder latency(LatencyDistribution latency) {
+            for (Endpoint endpoint : Endpoint.values()) {
+                this.latencies.put(endpoint, latency);
+            }
+            return this;
+        }
+
+        public Builder latency(Endpoint endpoint, LatencyDistribution latency) {
+            this.latencies.put(endpoint, latency);
+            return this;
+        }
+
+        /**
+         * Share of requests answered with a 500, 502 or 503.
+         */
+        public Builder errorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * Share of requests answered with a 429, on top of `rateLimit`.
+         */
+        public Builder throttleRate(double throttleRate) {
+            this.throttleRate = throttleRate;
+            return this;
+        }
+
+        /**
+         * Requests per second above which requests get a 429, like a plan's
+         * rate limit. 0 (the default) for no limit.
+         */
+        public Builder rateLimit(int requestsPerSecond) {
+            this.rateLimit = requestsPerSecond;
+            return this;
+        }
+
+        /**
+         * Size of the PDFs returned by fills and generations, and of each
+         * file in document group zips.
+         */
+        public Builder pdfSize(int bytes) {
+            this.pdfSize = bytes;
+            return this;
+        }
+
+        public Builder zipFiles(int files) {
+            this.zipFiles = files;
+            return this;
+        }
+
+        /**
+         * Length of the lists in GraphQL responses, e.g. the organizations of
+         * `currentUser` or the forges of a `weld`.
+         */
+        public Builder listSize(int listSize) {
+            this.listSize = listSize;
+            return this;
+        }
+
+        public MockAnvilServer start() throws IOException {
+            return new MockAnvilServer(this);
+        }
+    }
+}
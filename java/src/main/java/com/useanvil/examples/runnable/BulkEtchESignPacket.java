@@ -0,0 +1,223 @@
+package com.useanvil.examples.runnable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.useanvil.examples.client.GraphqlClient;
+import com.useanvil.examples.client.JobJournal;
+import com.useanvil.examples.client.JsonCodec;
+import com.useanvil.examples.client.UploadCache;
+import com.useanvil.examples.entity.CreateEtchPacket;
+import com.useanvil.examples.entity.EtchSigner;
+import com.useanvil.examples.entity.IAttachable;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+
+// Example: Send the same e-sign packet to many signers via the Anvil API
+//
+// * E-sign API docs: https://www.useanvil.com/docs/api/e-signatures
+//
+// ANVIL_API_KEY=<yourAPIKey> java -jar target/Examples-1.0-SNAPSHOT.jar bulk-etch-packet <signers.csv>
+//
+// Like `create-etch-packet`, but creates one packet per signer in a CSV or
+// JSONL file. Each row needs the signer's `name` and `email`:
+//
+// name,email
+// Sally Jones,sally@example.com
+//
+// {"name": "Sally Jones", "email": "sally@example.com"}
+//
+// Everything that is the same for every signer is built once up front: the
+// `files` of the packet with the NDA's field layout, the signer's fields and
+// the mutation itself. Each packet then only gets its own signer and fill
+// data. The NDA is read from disk once and its multipart part reused for
+// every packet. With BULK_PROMOTE_UPLOADS=true it is instead uploaded once as
+// a template that every packet refers to, so no file is uploaded per packet.
+//
+// At most BULK_CONCURRENCY (default 8) packets are created at once, and the
+// input is read one row at a time. Each finished row is written to
+// RESULTS_FILE (default `<input>.results.jsonl`) as it completes, e.g.
+//
+// {"row": 1, "email": "sally@example.com", "status": "ok", "packetEid": "...", "documentGroupEid": "...", "detailsURL": "..."}
+// {"row": 2, "email": "bob@example.com", "status": "failed", "error": "..."}
+//
+// Progress is journaled to JOURNAL_FILE (default `<input>.journal`). Running
+// an interrupted run again only creates the packets that are missing, and
+// copies the results of the others over from the journal. Packets that were
+// being created when the run stopped are reported as `in-doubt` and not
+// created again unless BULK_RETRY_IN_DOUBT=true; see `bulk-workflow-submission`.
+//
+// Packets are test packets unless ETCH_TEST=false. Use real email addresses,
+// each signer gets a signature request.
+
+public class BulkEtchESignPacket implements IBulkRunnable {
+    private static final String TEMPLATE_ID = "B5Loz3C7GVortDmn4p2P";
+    private static final long UPLOAD_CACHE_BYTES = 64 * 1024 * 1024;
+
+    private final ObjectMapper _objectMapper = JsonCodec.mapper();
+    private final CreateEtchESignPacket example = new CreateEtchESignPacket();
+
+    private GraphqlClient client;
+    private BulkRun bulk;
+
+    /**
+     * The signer-independent part of every packet: `files`, email subject
+     * and body. `name`, `signers` and `data` are filled in per signer.
+     */
+    private CreateEtchPacket getSharedPacket(boolean isTest) {
+        CreateEtchPacket packet = new CreateEtchPacket();
+        packet.isTest = isTest;
+        packet.signatureEmailSubject = "Custom email subject";
+        packet.signatureEmailBody = "Custom please sign these documents....";
+        packet.files = this.example.getFiles(TEMPLATE_ID).toArray(new IAttachable[0]);
+        return packet;
+    }
+
+    private CreateEtchPacket getPacket(CreateEtchPacket shared, EtchSigner sharedSigner, String name, String email) {
+        EtchSigner signer = new EtchSigner();
+        signer.id = sharedSigner.id;
+        signer.signerType = sharedSigner.signerType;
+        signer.fields = sharedSigner.fields;
+        signer.name = name;
+        signer.email = email;
+
+        CreateEtchPacket packet = shared.copy();
+        packet.name = "Test Docs - " + name;
+        packet.signers = new EtchSigner[]{signer};
+        packet.data = this.example.getPayloadData(name, email);
+        return packet;
+    }
+
+    private ObjectNode toResult(HttpResponse<String> response) throws IOException {
+        JsonNode body = this._objectMapper.readTree(response.body());
+        JsonNode errors = body.get("errors");
+        if (response.statusCode() >= 300 || (errors != null && !errors.isNull() && !errors.isEmpty())) {
+            throw new IOException("HTTP " + response.statusCode() + ": " + (errors != null ? errors : body));
+        }
+        JsonNode packet = body.get("data").get("createEtchPacket");
+        ObjectNode result = this._objectMapper.createObjectNode();
+        result.put("status", "ok");
+        result.put("packetEid", packet.get("eid").asText());
+        result.put("documentGroupEid", packet.path("documentGroup").path("eid").asText(null));
+        result.put("detailsURL", packet.path("detailsURL").asText(null));
+        return result;
+    }
+
+    private void onFinished(ResultWriter results, JobJournal journal, String key, int row, String email, long startNanos, ObjectNode result, Throwable throwable) {
+        Throwable cause = this.bulk.finished(startNanos, throwable);
+        if (cause != null) {
+            result = this._objectMapper.createObjectNode();
+            result.put("status", "failed");
+            result.put("error", String.valueOf(cause));
+            if (journal != null) {
+                journal.failed(key, String.valueOf(cause));
+            }
+        } else if (journal != null) {
+            journal.completed(key, result);
+        }
+        this.write(results, row, email, result);
+    }
+
+    private void write(ResultWriter results, int row, String email, ObjectNode result) {
+        ObjectNode line = this._objectMapper.createObjectNode();
+        line.put("row", row);
+        line.put("email", email);
+        line.setAll(result);
+        BulkRun.write(results, line);
+    }
+
+    @Override
+    public BulkRun getBulkRun() {
+        return this.bulk;
+    }
+
+    @Override
+    public void run(String apiKey) throws Exception {
+        throw new Exception("This runnable should use `run(apiKey, inputFile)`");
+    }
+
+    @Override
+    public void run(String apiKey, String inputFile) throws Exception {
+        boolean isTest = Boolean.parseBoolean(Settings.env("ETCH_TEST", "true"));
+        boolean promoteUploads = Boolean.parseBoolean(Settings.env("BULK_PROMOTE_UPLOADS", "false"));
+        Path resultsFile = Paths.get(Settings.env("RESULTS_FILE", inputFile + ".results.jsonl"));
+        boolean retryInDoubt = Boolean.parseBoolean(Settings.env("BULK_RETRY_IN_DOUBT", "false"));
+        int concurrency = BulkRun.getConcurrency();
+
+        this.client = new GraphqlClient(apiKey);
+        UploadCache uploadCache = new UploadCache(UPLOAD_CACHE_BYTES, promoteUploads);
+        this.client.setUploadCache(uploadCache);
+
+        CreateEtchPacket shared = this.getSharedPacket(isTest);
+        Map<Integer, Path> filesToUpload = CreateEtchESignPacket.getFilesToUpload(shared.files);
+        EtchSigner sharedSigner = this.example.getSigners(null, null).get(0);
+
+        System.out.println("Creating an e-sign packet for each signer in " + inputFile + " with concurrency " + concurrency);
+
+        Semaphore permits = new Semaphore(concurrency);
+        this.bulk = new BulkRun("Created", "packets");
+        try (BulkInput input = BulkInput.open(Paths.get(inputFile));
+             ResultWriter results = new ResultWriter(resultsFile);
+             JobJournal journal = BulkRun.getJournal(inputFile)) {
+            ObjectNode signer;
+            while ((signer = input.next()) != null) {
+                int row = input.getRow();
+                String name = signer.path("name").asText("");
+                String email = signer.path("email").asText("");
+                String key = journal == null ? null : JobJournal.key(row, signer);
+                ObjectNode resumedResult = journal == null ? null : BulkRun.getResumedResult(journal.get(key), retryInDoubt);
+                if (resumedResult != null) {
+                    this.bulk.resumed(resumedResult);
+                    this.write(results, row, email, resumedResult);
+                    continue;
+                }
+
+                // Blocks here once `concurrency` packets are in flight
+                permits.acquire();
+
+                long rowStart = System.nanoTime();
+                CompletableFuture<ObjectNode> created;
+                if (email.isEmpty()) {
+                    created = CompletableFuture.failedFuture(new IOException("Row " + row + " has no email"));
+                } else {
+                    CreateEtchPacket packet = this.getPacket(shared, sharedSigner, name, email);
+                    // Only sent once the journal has it on disk, so a crash
+                    // can't lose track of a packet that was created
+                    CompletableFuture<Void> journaled = journal == null ? CompletableFuture.completedFuture(null) : journal.submitted(key);
+                    // Runs `src/main/resources/mutations/create-etch-packet.graphql`
+                    created = journaled.thenCompose(ignored -> this.client.doOperationAsync("create-etch-packet", packet, filesToUpload))
+                            .thenApply(response -> {
+                                try {
+                                    return this.toResult(response);
+                                } catch (IOException e) {
+                                    throw new CompletionException(e);
+                                }
+                            });
+                }
+                created.whenComplete((result, throwable) -> {
+                    try {
+                        this.onFinished(results, journal, key, row, email, rowStart, result, throwable);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+
+            // Wait for the stragglers
+            permits.acquire(concurrency);
+
+            System.out.println("Bulk e-sign finished");
+            this.bulk.printSummary(journal);
+        }
+        System.out.println("Upload cache: " + uploadCache.summary());
+        System.out.println("Results: " + resultsFile);
+        System.out.print(this.client.getMetrics().summary());
+    }
+}
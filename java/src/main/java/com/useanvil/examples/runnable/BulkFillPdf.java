@@ -0,0 +1,210 @@
+package com.useanvil.examples.runnable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.useanvil.examples.Constants;
+import com.useanvil.examples.client.JobJournal;
+import com.useanvil.examples.client.JsonCodec;
+import com.useanvil.examples.client.PayloadTemplate;
+import com.useanvil.examples.client.PdfCache;
+import com.useanvil.examples.client.RestClient;
+import com.useanvil.examples.client.TransferResult;
+import com.useanvil.examples.entity.FillJob;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Example: Fill many PDFs via the Anvil API
+//
+// * PDF filling API docs: https://www.useanvil.com/docs/api/fill-pdf
+//
+// ANVIL_API_KEY=<yourAPIKey> BULK_CONCURRENCY=16 java -jar target/Examples-1.0-SNAPSHOT.jar bulk-fill-pdf <records.jsonl>
+//
+// The input file has one JSON object per line:
+//
+// {"templateId": "B5Loz3C7GVortDmn4p2P", "payload": {"data": {"shortText": "Hi"}}, "outputPath": "output/1.pdf"}
+// {"templateId": "B5Loz3C7GVortDmn4p2P", "versionNumber": -1, "payload": {...}, "outputPath": "output/2.pdf"}
+//
+// `versionNumber` is optional. Each filled PDF is streamed to its `outputPath`
+// as soon as its fill finishes.
+//
+// The input is read one line at a time and at most BULK_CONCURRENCY (default
+// 8) fills are in flight at once, so memory use stays flat no matter how large
+// the input file is. Mind your plan's rate limit when raising the concurrency:
+// https://www.useanvil.com/docs/api/getting-started#rate-limits
+//
+// To personalize one payload instead of writing out each one in full, set
+// PAYLOAD_TEMPLATE to a JSON file with `{{name}}` or `{{name:type}}`
+// placeholders (see `src/main/resources/payloads/pdf-fill-template.json`)
+// and give each record the `values` for them:
+//
+// {"templateId": "B5Loz3C7GVortDmn4p2P", "values": {"name": {"firstName": "Sally", "lastName": "Jones"}, "email": "sally@example.com", "dollar": 12.5}, "outputPath": "output/1.pdf"}
+//
+// The template is compiled once and each record is rendered straight to the
+// request body bytes.
+//
+// Set PDF_CACHE_DIR to keep the filled PDFs in a local cache (capped at
+// PDF_CACHE_MB, default 1024). Records filling the same template version with
+// the same payload as an earlier record, in this run or a previous one, are
+// then copied from the cache instead of being filled again.
+//
+// Progress is journaled to JOURNAL_FILE (default `<records.jsonl>.journal`),
+// with the size and checksum of each PDF. If a run is interrupted, running it
+// again skips the records whose PDF was already written and only fills the
+// rest, including the ones that failed. Set BULK_JOURNAL=false to always fill
+// every record.
+//
+// When all records are done the script prints the throughput and the
+// p50/p95/p99 fill latency. Attach JConsole to watch the request metrics
+// (com.useanvil.examples:type=ClientMetrics) live, or record a flight recording
+// with `-XX:StartFlightRecording` to see every request as an event.
+
+public class BulkFillPdf implements IBulkRunnable {
+    private static final long DEFAULT_CACHE_MB = 1024;
+
+    private final ObjectMapper _objectMapper = JsonCodec.mapper();
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private BulkRun bulk;
+
+    private static PayloadTemplate getPayloadTemplate() throws IOException {
+        String file = Settings.env("PAYLOAD_TEMPLATE", null);
+        return file == null ? null : PayloadTemplate.compile(Paths.get(file));
+    }
+
+    private static PdfCache getPdfCache() throws IOException {
+        String directory = Settings.env("PDF_CACHE_DIR", null);
+        if (directory == null) {
+            return null;
+        }
+        long maxMegabytes = Long.parseLong(Settings.env("PDF_CACHE_MB", String.valueOf(DEFAULT_CACHE_MB)));
+        return new PdfCache(Paths.get(directory), maxMegabytes * 1024 * 1024);
+    }
+
+    /**
+     * Whether an earlier run already wrote this job's PDF, and it is still there.
+     */
+    private boolean isDone(JobJournal journal, String key, FillJob job) throws IOException {
+        JobJournal.Entry entry = journal == null ? null : journal.get(key);
+        if (entry == null || entry.state != JobJournal.State.COMPLETED) {
+            return false;
+        }
+        JsonNode details = this._objectMapper.readTree(entry.details);
+        Path outputPath = Paths.get(job.outputPath);
+        return Files.isRegularFile(outputPath) && Files.size(outputPath) == details.path("bytes").asLong(-1);
+    }
+
+    private CompletableFuture<TransferResult> fill(RestClient client, PayloadTemplate template, FillJob job) throws IOException {
+        Path outputPath = Paths.get(job.outputPath).toAbsolutePath();
+        Files.createDirectories(outputPath.getParent());
+
+        // The payload is serialized straight into the request body, and the
+        // PDF is streamed to `outputPath`
+        int versionNumber = job.versionNumber != null ? job.versionNumber : Constants.PUBLISHED_VERSION_INT;
+        Object payload = template != null ? template.render(job.values) : job.payload;
+        return client.fillPdfToFileAsync(job.templateId, payload, versionNumber, outputPath);
+    }
+
+    private void onFinished(JobJournal journal, String key, FillJob job, long startNanos, TransferResult result, Throwable throwable) {
+        Throwable cause = this.bulk.finished(startNanos, throwable);
+        if (cause != null) {
+            if (journal != null) {
+                journal.failed(key, String.valueOf(cause));
+            }
+            System.out.println("FAILED " + job.outputPath + ": " + cause);
+        } else {
+            if (journal != null) {
+                Map<String, Object> details = new LinkedHashMap<>();
+                details.put("outputPath", job.outputPath);
+                details.put("bytes", result.bytes);
+                details.put("checksum", result.checksum);
+                journal.completed(key, details);
+            }
+            this.bytesWritten.addAndGet(result.bytes);
+            System.out.println("OK " + job.outputPath + " (" + result.bytes + " bytes)");
+        }
+    }
+
+    @Override
+    public BulkRun getBulkRun() {
+        return this.bulk;
+    }
+
+    @Override
+    public void run(String apiKey) throws Exception {
+        throw new Exception("This runnable should use `run(apiKey, recordsFile)`");
+    }
+
+    @Override
+    public void run(String apiKey, String recordsFile) throws Exception {
+        int concurrency = BulkRun.getConcurrency();
+        Semaphore permits = new Semaphore(concurrency);
+        RestClient client = new RestClient(apiKey);
+        PdfCache cache = getPdfCache();
+        client.setPdfCache(cache);
+        PayloadTemplate template = getPayloadTemplate();
+
+        System.out.println("Filling PDFs from " + recordsFile + " with concurrency " + concurrency);
+        this.bulk = new BulkRun("Filled", "PDFs");
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(recordsFile));
+             MappingIterator<FillJob> jobs = this._objectMapper.readerFor(FillJob.class).readValues(reader);
+             JobJournal journal = BulkRun.getJournal(recordsFile)) {
+            int row = 0;
+            while (jobs.hasNextValue()) {
+                FillJob job = jobs.nextValue();
+                String key = JobJournal.key(++row, job);
+                if (this.isDone(journal, key, job)) {
+                    this.bulk.resumed();
+                    continue;
+                }
+
+                // Blocks here once `concurrency` fills are in flight, which also
+                // stops us from reading ahead in the input file.
+                permits.acquire();
+
+                long jobStart = System.nanoTime();
+                CompletableFuture<TransferResult> pending;
+                try {
+                    // Fills can safely be repeated, so there is no need to wait
+                    // for this to reach the disk before sending
+                    if (journal != null) {
+                        journal.submitted(key);
+                    }
+                    pending = this.fill(client, template, job);
+                } catch (IOException | RuntimeException e) {
+                    pending = CompletableFuture.failedFuture(e);
+                }
+                pending.whenComplete((result, throwable) -> {
+                    try {
+                        this.onFinished(journal, key, job, jobStart, result, throwable);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+
+            // Wait for the stragglers
+            permits.acquire(concurrency);
+
+            System.out.println("Bulk fill finished");
+            this.bulk.printSummary(journal);
+            System.out.printf("Throughput: %.2f MB/s%n", this.bytesWritten.get() / this.bulk.getSeconds() / (1024 * 1024));
+        }
+        // Per-attempt numbers, split into time to first byte and body transfer.
+        // The same numbers are available over JMX while the fill is running.
+        System.out.print(client.getMetrics().summary());
+        if (cache != null) {
+            System.out.println("PDF cache: " + cache.summary());
+        }
+    }
+}
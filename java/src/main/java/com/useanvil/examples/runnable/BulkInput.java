@@ -0,0 +1,158 @@
+package com.useanvil.examples.runnable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.useanvil.examples.client.JsonCodec;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the rows of a bulk input file one at a time, so inputs of any size
+ * can be processed in constant memory.
+ *
+ * `.csv` files need a header row. Each column becomes a field; a dotted
+ * column name like `name.firstName` becomes a nested object, and empty cells
+ * are left out. Any other file is read as JSONL, one object per line.
+ */
+class BulkInput implements Closeable {
+    private final BufferedReader reader;
+    private final MappingIterator<JsonNode> jsonRows;
+    private final List<String[]> columns;
+    private int row;
+
+    private BulkInput(BufferedReader reader, boolean csv) throws IOException {
+        this.reader = reader;
+        if (csv) {
+            this.jsonRows = null;
+            List<String> header = readRecord(reader);
+            if (header == null) {
+                throw new IOException("CSV input has no header row");
+            }
+            this.columns = new ArrayList<>();
+            for (String column : header) {
+                this.columns.add(column.trim().split("\\."));
+            }
+        } else {
+            this.jsonRows = JsonCodec.mapper().readerFor(JsonNode.class).readValues(reader);
+            this.columns = null;
+        }
+    }
+
+    static BulkInput open(Path file) throws IOException {
+        boolean csv = file.getFileName().toString().toLowerCase().endsWith(".csv");
+        return new BulkInput(Files.newBufferedReader(file), csv);
+    }
+
+    /**
+     * @return The next row, or `null` at the end of the input
+     */
+    ObjectNode next() throws IOException {
+        if (this.jsonRows != null) {
+            if (!this.jsonRows.hasNextValue()) {
+                return null;
+            }
+            JsonNode value = this.jsonRows.nextValue();
+            this.row++;
+            if (!value.isObject()) {
+                throw new IOException("Row " + this.row + " is not a JSON object");
+            }
+            return (ObjectNode) value;
+        }
+
+        List<String> record = readRecord(this.reader);
+        if (record == null) {
+            return null;
+        }
+        this.row++;
+        ObjectNode node = JsonCodec.mapper().createObjectNode();
+        for (int i = 0; i < record.size() && i < this.columns.size(); i++) {
+            if (record.get(i).isEmpty()) {
+                continue;
+            }
+            String[] path = this.columns.get(i);
+            ObjectNode parent = node;
+            for (int j = 0; j < path.length - 1; j++) {
+                parent = parent.with(path[j]);
+            }
+            parent.put(path[path.length - 1], record.get(i));
+        }
+        return node;
+    }
+
+    /**
+     * 1-based number of the row last returned by {@link #next()}, not
+     * counting a CSV header.
+     */
+    int getRow() {
+        return this.row;
+    }
+
+    /**
+     * One RFC 4180 record: comma separated, optionally double quoted, with
+     * `""` for a quote inside quotes. Quoted fields may span lines.
+     */
+    private static List<String> readRecord(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        while (line != null && line.isEmpty()) {
+            line = reader.readLine();
+        }
+        if (line == null) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                // A newline inside a quoted field
+                String more = reader.readLine();
+                if (more == null) {
+                    throw new IOException("Unterminated quoted CSV field");
+                }
+                field.append('\n');
+                line = more;
+                i = 0;
+                continue;
+            }
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c == '"' && i < line.length() && line.charAt(i) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c != '\r') {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.jsonRows != null) {
+            this.jsonRows.close();
+        }
+        this.reader.close();
+    }
+}
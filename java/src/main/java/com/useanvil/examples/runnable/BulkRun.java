@@ -0,0 +1,182 @@
+package com.useanvil.examples.runnable;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.useanvil.examples.client.JobJournal;
+import com.useanvil.examples.client.JsonCodec;
+import com.useanvil.examples.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the bulk runnables have in common: their shared settings, the journal
+ * that lets an interrupted run pick up where it stopped, and counting and
+ * timing items as they finish.
+ */
+class BulkRun {
+    static final int DEFAULT_CONCURRENCY = 8;
+
+    private final String verb;
+    private final String items;
+    private final long startNanos = System.nanoTime();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong inDoubt = new AtomicLong();
+
+    /**
+     * Starts the clock.
+     *
+     * @param verb  What is done to each item, e.g. `Filled`
+     * @param items What the items are, e.g. `PDFs`
+     */
+    BulkRun(String verb, String items) {
+        this.verb = verb;
+        this.items = items;
+    }
+
+    /**
+     * BULK_CONCURRENCY: how many items are in flight at once (default 8).
+     */
+    static int getConcurrency() {
+        return Math.max(1, Integer.parseInt(Settings.env("BULK_CONCURRENCY", String.valueOf(DEFAULT_CONCURRENCY))));
+    }
+
+    /**
+     * The journal for a run over `inputFile`, or `null` with BULK_JOURNAL=false.
+     */
+    static JobJournal getJournal(String inputFile) throws IOException {
+        if (!Boolean.parseBoolean(Settings.env("BULK_JOURNAL", "true"))) {
+            return null;
+        }
+        return JobJournal.open(Paths.get(Settings.env("JOURNAL_FILE", inputFile + ".journal")));
+    }
+
+    /**
+     * The result of an item an earlier run already sent: its journaled
+     * result if it finished, or an `in-doubt` result if the run stopped while
+     * it was in flight. `null` if the item should be sent (again), or
+     * finished if an earlier run got as far as {@link JobJournal.State#CREATED}.
+     */
+    static ObjectNode getResumedResult(JobJournal.Entry entry, boolean retryInDoubt) throws IOException {
+        if (entry == null) {
+            return null;
+        }
+        if (entry.state == JobJournal.State.COMPLETED) {
+            ObjectNode result = (ObjectNode) JsonCodec.mapper().readTree(entry.details);
+            result.put("resumed", true);
+            return result;
+        }
+        if (entry.state == JobJournal.State.SUBMITTED && !retryInDoubt) {
+            ObjectNode result = JsonCodec.mapper().createObjectNode();
+            result.put("status", "in-doubt");
+            result.put("error", "Sent by an earlier run that stopped before it finished; check whether it went through, "
+                    + "then set BULK_RETRY_IN_DOUBT=true to send it again");
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * Counts an item that an earlier run already took care of.
+     */
+    void resumed() {
+        this.resumed.incrementAndGet();
+    }
+
+    /**
+     * Counts an item with the result {@link #getResumedResult} gave for it.
+     */
+    void resumed(ObjectNode result) {
+        this.resumed();
+        if ("in-doubt".equals(result.path("status").asText())) {
+            this.inDoubt.incrementAndGet();
+        }
+    }
+
+    long getSucceededCount() {
+        return this.succeeded.get();
+    }
+
+    long getFailedCount() {
+        return this.failed.get();
+    }
+
+    /**
+     * Items an earlier run already took care of, including the in-doubt ones.
+     */
+    long getResumedCount() {
+        return this.resumed.get();
+    }
+
+    /**
+     * Items an earlier run sent without finding out whether they went
+     * through, and which weren't sent again.
+     */
+    long getInDoubtCount() {
+        return this.inDoubt.get();
+    }
+
+    /**
+     * Counts an item that finished and records how long it took.
+     *
+     * @param startNanos When the item was sent
+     * @param throwable  What it failed with, or `null`
+     * @return Why it failed, unwrapped from a `CompletionException`, or `null`
+     *         if it succeeded
+     */
+    Throwable finished(long startNanos, Throwable throwable) {
+        this.latencies.recordNanos(System.nanoTime() - startNanos);
+        if (throwable == null) {
+            this.succeeded.incrementAndGet();
+            return null;
+        }
+        this.failed.incrementAndGet();
+        return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+    }
+
+    /**
+     * Seconds since the run started.
+     */
+    double getSeconds() {
+        return (System.nanoTime() - this.startNanos) / 1_000_000_000.0;
+    }
+
+    /**
+     * Writes a result line, or says so if that fails; a full disk shouldn't
+     * stop the other items.
+     */
+    static void write(ResultWriter results, ObjectNode result) {
+        try {
+            results.write(result);
+        } catch (IOException e) {
+            System.out.println("Could not write the result of row " + result.get("row") + ": " + e);
+        }
+    }
+
+    /**
+     * Prints how the run went, e.g.
+     *
+     * Filled 98 of 100 PDFs (2 failed) in 12.3s, 7.97 PDFs/s
+     * Resumed 20 PDFs sent by an earlier run
+     * Journal records.jsonl.journal: 120 records recovered in 3ms, 200 appended in 41 syncs
+     * Latency: n=100 mean=120.5ms p50=110.2ms p95=180.4ms p99=240.1ms max=251.0ms
+     *
+     * @param journal The run's journal, or `null`
+     */
+    void printSummary(JobJournal journal) {
+        double seconds = this.getSeconds();
+        long total = this.succeeded.get() + this.failed.get();
+        System.out.printf("%s %d of %d %s (%d failed) in %.1fs, %.2f %s/s%n",
+                this.verb, this.succeeded.get(), total, this.items, this.failed.get(), seconds, total / seconds, this.items);
+        if (journal != null) {
+            System.out.println("Resumed " + this.resumed.get() + " " + this.items + " sent by an earlier run"
+                    + (this.inDoubt.get() > 0 ? " (" + this.inDoubt.get() + " in doubt)" : ""));
+            System.out.println("Journal " + journal.getFile() + ": " + journal.summary());
+        }
+        System.out.println("Latency: " + this.latencies.summary());
+    }
+}
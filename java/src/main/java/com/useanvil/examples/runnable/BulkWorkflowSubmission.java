@@ -0,0 +1,265 @@
+package com.useanvil.examples.runnable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.useanvil.examples.client.GraphqlBatcher;
+import com.useanvil.examples.client.GraphqlBodyHandlers;
+import com.useanvil.examples.client.GraphqlClient;
+import com.useanvil.examples.client.GraphqlException;
+import com.useanvil.examples.client.GraphqlQueryCache;
+import com.useanvil.examples.client.GraphqlResult;
+import com.useanvil.examples.client.JobJournal;
+import com.useanvil.examples.client.JsonCodec;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+// Example: Start and update many Workflow submissions via the Anvil API
+//
+// * Workflow API docs: https://www.useanvil.com/docs/api/workflows
+//
+// ANVIL_API_KEY=<yourAPIKey> WORKFLOW_ORG=<my-org-slug> java -jar target/Examples-1.0-SNAPSHOT.jar bulk-workflow-submission <rows.csv>
+//
+// Like `create-update-workflow`, but for every row of a CSV or JSONL file: each
+// row starts a submission on the workflow's first webform, then updates it.
+//
+// In a CSV file, columns named `update.<field>` go into the update, and every
+// other column into the submission that starts the workflow. Dotted names
+// become nested objects, so for the sample workflow:
+//
+// creationPayload,update.name.firstName,update.name.lastName,update.email
+// Hello,Sally,Jones,sally@example.com
+//
+// In a JSONL file, each line is the starting payload and its `update` field,
+// if any, is the update:
+//
+// {"creationPayload": "Hello", "update": {"name": {"firstName": "Sally", "lastName": "Jones"}, "email": "sally@example.com"}}
+//
+// Rows without an update are only started.
+//
+// The workflow and its first webform are looked up once. At most
+// BULK_CONCURRENCY (default 8) rows are in flight at once, and the input is
+// read one row at a time, so any number of rows can be processed.
+//
+// Each finished row is written to RESULTS_FILE (default `<input>.results.jsonl`)
+// as it completes, e.g.
+//
+// {"row": 1, "status": "ok", "weldDataEid": "...", "submissionEid": "..."}
+// {"row": 2, "status": "failed", "error": "..."}
+//
+// Progress is journaled to JOURNAL_FILE (default `<input>.journal`) as rows
+// are sent and finish. If a run is interrupted, running it again skips the
+// rows that finished, copying their results over from the journal, and sends
+// the rest, including the ones that failed. A row whose submission was
+// created but not updated, because the update failed or the run stopped, is
+// only updated. A row that was sent but hadn't finished when the run stopped
+// may or may not have created its submission; it is reported as `in-doubt`
+// and not sent again unless BULK_RETRY_IN_DOUBT=true. Set BULK_JOURNAL=false
+// to turn journaling off.
+//
+// Other settings:
+//
+// * WORKFLOW_SLUG: the workflow to submit to (default `sample-workflow`)
+// * WORKFLOW_TEST: `false` to create real, billable submissions (default `true`)
+// * BULK_BATCH_SIZE: send up to this many `forgeSubmit` mutations in one request
+//   (default 1, i.e. one request per mutation). Only as many mutations as there
+//   are rows in flight can be batched, so raise BULK_CONCURRENCY along with it.
+
+public class BulkWorkflowSubmission implements IBulkRunnable {
+    private static final String UPDATE_FIELD = "update";
+
+    private GraphqlClient client;
+    private GraphqlBatcher batcher;
+    private BulkRun bulk;
+
+    private JsonNode getStartForge(String organizationSlug, String weldSlug) throws IOException, InterruptedException {
+        // Runs `src/main/resources/queries/wf-weld.graphql`
+        HttpResponse<GraphqlResult<JsonNode>> response = this.client.doOperation(
+                "wf-weld",
+                Map.of("organizationSlug", organizationSlug, "slug", weldSlug),
+                GraphqlBodyHandlers.of("data.weld", JsonNode.class)
+        );
+        JsonNode weld = response.body().getDataOrThrow();
+        if (weld == null || weld.get("forges") == null || weld.get("forges").isEmpty()) {
+            throw new IOException("Workflow " + organizationSlug + "/" + weldSlug + " not found or has no webforms");
+        }
+        return weld.get("forges").get(0);
+    }
+
+    private CompletableFuture<JsonNode> forgeSubmit(Map<String, Object> variables) {
+        // Runs `src/main/resources/mutations/forge-submit.graphql`
+        HttpResponse.BodyHandler<GraphqlResult<JsonNode>> handler = GraphqlBodyHandlers.of("data.forgeSubmit", JsonNode.class);
+        CompletableFuture<HttpResponse<GraphqlResult<JsonNode>>> response = this.batcher != null
+                ? this.batcher.submit("forge-submit", variables, handler)
+                : this.client.doOperationAsync("forge-submit", variables, handler);
+        return response.thenApply(r -> {
+            JsonNode submission = r.body().getDataOrThrow();
+            if (submission == null) {
+                // e.g. a 5xx that ran out of retries, whose body isn't GraphQL
+                throw new GraphqlException(r.body().statusCode, r.body().errors);
+            }
+            return submission;
+        });
+    }
+
+    /**
+     * Starts a submission for a row, then updates it if the row has an
+     * update. The EIDs go into `result`; if it already has them, an earlier
+     * run created the submission and only the update is sent.
+     */
+    private CompletableFuture<ObjectNode> submit(String forgeEid, boolean isTest, ObjectNode payload, ObjectNode result, JobJournal journal, String key) {
+        JsonNode update = payload.remove(UPDATE_FIELD);
+
+        CompletableFuture<Void> created;
+        if (result.has("submissionEid")) {
+            created = CompletableFuture.completedFuture(null);
+        } else {
+            Map<String, Object> create = new LinkedHashMap<>();
+            create.put("forgeEid", forgeEid);
+            create.put("isTest", isTest);
+            create.put("payload", payload);
+            created = this.forgeSubmit(create).thenAccept(submission -> {
+                result.put("weldDataEid", submission.get("weldData").get("eid").asText());
+                result.put("submissionEid", submission.get("eid").asText());
+                if (journal != null && update != null && !update.isNull() && !update.isEmpty()) {
+                    // So a rerun doesn't create it again if the update fails
+                    journal.created(key, result.deepCopy().retain("weldDataEid", "submissionEid"));
+                }
+            });
+        }
+
+        return created.thenCompose(ignored -> {
+            if (update == null || update.isNull() || update.isEmpty()) {
+                return CompletableFuture.completedFuture(result);
+            }
+            Map<String, Object> variables = new LinkedHashMap<>();
+            variables.put("forgeEid", forgeEid);
+            variables.put("submissionEid", result.get("submissionEid").asText());
+            variables.put("payload", update);
+            return this.forgeSubmit(variables).thenApply(updated -> {
+                result.put("updated", true);
+                return result;
+            });
+        });
+    }
+
+    private void onFinished(ResultWriter results, JobJournal journal, String key, long startNanos, ObjectNode result, Throwable throwable) {
+        Throwable cause = this.bulk.finished(startNanos, throwable);
+        if (cause != null) {
+            result.put("status", "failed");
+            result.put("error", String.valueOf(cause));
+            // A created submission stays journaled as such, so a rerun only
+            // updates it
+            if (journal != null && !result.has("submissionEid")) {
+                journal.failed(key, String.valueOf(cause));
+            }
+        } else if (journal != null) {
+            journal.completed(key, result);
+        }
+        BulkRun.write(results, result);
+    }
+
+    @Override
+    public BulkRun getBulkRun() {
+        return this.bulk;
+    }
+
+    @Override
+    public void run(String apiKey) throws Exception {
+        throw new Exception("This runnable should use `run(apiKey, inputFile)`");
+    }
+
+    @Override
+    public void run(String apiKey, String inputFile) throws Exception {
+        String organizationSlug = Settings.env("WORKFLOW_ORG", null);
+        if (organizationSlug == null) {
+            throw new Exception("Set WORKFLOW_ORG to your organization's slug");
+        }
+        String weldSlug = Settings.env("WORKFLOW_SLUG", "sample-workflow");
+        boolean isTest = Boolean.parseBoolean(Settings.env("WORKFLOW_TEST", "true"));
+        int batchSize = Integer.parseInt(Settings.env("BULK_BATCH_SIZE", "1"));
+        Path resultsFile = Paths.get(Settings.env("RESULTS_FILE", inputFile + ".results.jsonl"));
+        boolean retryInDoubt = Boolean.parseBoolean(Settings.env("BULK_RETRY_IN_DOUBT", "false"));
+        int concurrency = BulkRun.getConcurrency();
+
+        this.client = new GraphqlClient(apiKey);
+        this.client.setQueryCache(GraphqlQueryCache.getDefault());
+        if (batchSize > 1) {
+            this.batcher = new GraphqlBatcher(this.client, Duration.ofMillis(20), batchSize);
+        }
+
+        JsonNode startForge = this.getStartForge(organizationSlug, weldSlug);
+        String forgeEid = startForge.get("eid").asText();
+        System.out.println("Submitting rows of " + inputFile + " to webform " + startForge.get("name").asText()
+                + " (" + forgeEid + ") with concurrency " + concurrency);
+
+        Semaphore permits = new Semaphore(concurrency);
+        this.bulk = new BulkRun("Submitted", "rows");
+        try (BulkInput input = BulkInput.open(Paths.get(inputFile));
+             ResultWriter results = new ResultWriter(resultsFile);
+             JobJournal journal = BulkRun.getJournal(inputFile)) {
+            ObjectNode payload;
+            while ((payload = input.next()) != null) {
+                int row = input.getRow();
+                String key = journal == null ? null : JobJournal.key(row, payload);
+                JobJournal.Entry entry = journal == null ? null : journal.get(key);
+                ObjectNode resumedResult = BulkRun.getResumedResult(entry, retryInDoubt);
+                if (resumedResult != null) {
+                    this.bulk.resumed(resumedResult);
+                    ObjectNode line = JsonCodec.mapper().createObjectNode();
+                    line.put("row", row);
+                    line.setAll(resumedResult);
+                    results.write(line);
+                    continue;
+                }
+
+                // Blocks here once `concurrency` rows are in flight, which also
+                // stops us from reading ahead in the input file.
+                permits.acquire();
+
+                long rowStart = System.nanoTime();
+                ObjectNode rowPayload = payload;
+                ObjectNode result = JsonCodec.mapper().createObjectNode();
+                result.put("row", row);
+                result.put("status", "ok");
+                CompletableFuture<ObjectNode> submitted;
+                if (entry != null && entry.state == JobJournal.State.CREATED) {
+                    // Created by an earlier run; only the update is left
+                    result.setAll((ObjectNode) JsonCodec.mapper().readTree(entry.details));
+                    submitted = this.submit(forgeEid, isTest, rowPayload, result, journal, key);
+                } else if (journal == null) {
+                    submitted = this.submit(forgeEid, isTest, rowPayload, result, null, key);
+                } else {
+                    // Only sent once the journal has it on disk, so a crash
+                    // can't lose track of a submission that was created
+                    submitted = journal.submitted(key).thenCompose(ignored -> this.submit(forgeEid, isTest, rowPayload, result, journal, key));
+                }
+                submitted.whenComplete((ignored, throwable) -> {
+                    try {
+                        this.onFinished(results, journal, key, rowStart, result, throwable);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            if (this.batcher != null) {
+                this.batcher.flush();
+            }
+
+            // Wait for the stragglers
+            permits.acquire(concurrency);
+
+            System.out.println("Bulk submission finished");
+            this.bulk.printSummary(journal);
+        }
+        System.out.println("Results: " + resultsFile);
+        System.out.print(this.client.getMetrics().summary());
+    }
+}
@@ -1,14 +1,13 @@
 package com.useanvil.examples.runnable;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.useanvil.examples.client.GraphqlClient;
+import com.useanvil.examples.client.UploadCache;
 import com.useanvil.examples.entity.*;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.http.HttpResponse;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
@@ -38,20 +37,7 @@ import java.util.*;
 // well.
 
 public class CreateEtchESignPacket implements IRunnable {
-    ObjectMapper _objectMapper = new ObjectMapper();
-
-    private byte[] getBase64File(String filePath) {
-        byte[] encodedFile;
-        try {
-            encodedFile = Base64.getUrlEncoder().encode(Files.readAllBytes(Paths.get(filePath)));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-        return encodedFile;
-    }
-
-    private List<EtchSigner> getSigners(String signerName, String signerEmail) {
+    List<EtchSigner> getSigners(String signerName, String signerEmail) {
         ArrayList<EtchSigner> signers = new ArrayList<>();
         // Signers will sign in the order they are specified in this array.
         // e.g. `employer` will sign after `employee` has finished signing
@@ -84,7 +70,7 @@ public class CreateEtchESignPacket implements IRunnable {
         return signers;
     }
 
-    private PayloadData getPayloadData(String signerName, String signerEmail) {
+    PayloadData getPayloadData(String signerName, String signerEmail) {
         var data = new PayloadData();
         var sampleTemplateData = new HashMap<String, Serializable>();
         sampleTemplateData.put("name", signerName);
@@ -127,7 +113,7 @@ public class CreateEtchESignPacket implements IRunnable {
         return packetPayload;
     }
 
-    private List<IAttachable> getFiles(String pdfTemplateEid) {
+    List<IAttachable> getFiles(String pdfTemplateEid) {
         ArrayList<IAttachable> ret = new ArrayList<>();
         EtchCastRef ref = new EtchCastRef("sampleTemplate", pdfTemplateEid);
 
@@ -146,12 +132,39 @@ public class CreateEtchESignPacket implements IRunnable {
 
         FileUpload file = new FileUpload("fileUploadNDA", "Demo NDA", filePath, fields.toArray(new CastField[0]));
 
+        // Instead of a multipart upload, the file can also be embedded in the
+        // JSON payload as base64. `InlineFile` is encoded on the fly while the
+        // request is sent, so the file is never loaded into memory in full:
+        //
+        // FileUpload file = new FileUpload("fileUploadNDA", "Demo NDA", new InlineFile(filePath), fields.toArray(new CastField[0]));
+
         ret.add(ref);
         ret.add(file);
 
         return ret;
     }
 
+    static Map<Integer, Path> getFilesToUpload(IAttachable[] files) {
+        Map<Integer, Path> filesToUpload = new LinkedHashMap<>();
+        for (int idx = 0; idx < files.length; idx++) {
+            // Go through the files and find ones that have a path.
+            // Note that _order matters_ even though it gets mapped to a key.
+            var file = files[idx];
+            if (file instanceof FileUpload) {
+                FileUpload _file = (FileUpload) file;
+
+                Path _filePath = _file.getFilePath();
+                if (_filePath != null) {
+                    // We need to know which file (via index) this path belongs
+                    // to, and we will map this later during the multipart request
+                    // creation stage.
+                    filesToUpload.put(idx, _filePath);
+                }
+            }
+        }
+        return filesToUpload;
+    }
+
     @Override
     public void run(String apiKey, String otherArg) {
 
@@ -169,30 +182,21 @@ public class CreateEtchESignPacket implements IRunnable {
 
         CreateEtchPacket payload = this.getPacketVariables(pdfTemplateId, signerName, signerEmail);
 
-        Map<Integer, Path> filesToUpload = new LinkedHashMap<>();
-        for (int idx = 0; idx < payload.files.length; idx++) {
-            // Go through the files and find ones that have a path.
-            // Note that _order matters_ even though it gets mapped to a key.
-            var file = payload.files[idx];
-            if (file instanceof FileUpload) {
-                FileUpload _file = (FileUpload) file;
-
-                Path _filePath = _file.getFilePath();
-                if (_filePath != null) {
-                    // We need to know which file (via index) this path belongs
-                    // to, and we will map this later during the multipart request
-                    // creation stage.
-                    filesToUpload.put(idx, _filePath);
-                }
-            }
-        }
+        Map<Integer, Path> filesToUpload = getFilesToUpload(payload.files);
 
         GraphqlClient client;
         try {
             client = new GraphqlClient(apiKey);
+            // When sending many packets with the same documents, the upload
+            // cache reads each file once and reuses its multipart part. With
+            // `new UploadCache(..., true)` the NDA is instead uploaded once as
+            // a template and every packet refers to it, so no file bytes are
+            // sent per packet at all.
+            client.setUploadCache(new UploadCache(64 * 1024 * 1024));
             System.out.println("Creating Etch e-sign packet...");
-            HttpResponse<String> response = client.doRequest(
-                    Paths.get("src/main/resources/mutations/create-etch-packet.graphql"),
+            // Runs `src/main/resources/mutations/create-etch-packet.graphql`
+            HttpResponse<String> response = client.doOperation(
+                    "create-etch-packet",
                     payload,
                     filesToUpload
             );
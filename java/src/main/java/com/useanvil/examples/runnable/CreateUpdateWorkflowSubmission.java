@@ -4,12 +4,15 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.useanvil.examples.Constants;
+import com.useanvil.examples.client.GraphqlBodyHandlers;
 import com.useanvil.examples.client.GraphqlClient;
+import com.useanvil.examples.client.GraphqlQueryCache;
+import com.useanvil.examples.client.GraphqlResult;
+import com.useanvil.examples.client.JsonCodec;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.http.HttpResponse;
-import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -45,7 +48,7 @@ import java.util.Map;
 
 public class CreateUpdateWorkflowSubmission implements IRunnable {
     private GraphqlClient client;
-    private final ObjectMapper _objectMapper = new ObjectMapper();
+    private final ObjectMapper _objectMapper = JsonCodec.mapper();
 
     public String buildWorkflowSubmissionDetailsUrl(String organizationSlug, String weldSlug, String weldDataEid) {
         String urlFormat = "%s/org/%s/w/%s/%s";
@@ -87,23 +90,32 @@ public class CreateUpdateWorkflowSubmission implements IRunnable {
                 "slug", weldSlug
         ));
 
-        HttpResponse<String> response = this.client.doRequest(Paths.get("src/main/resources/queries/wf-weld.graphql"), variables);
-
-        JsonNode resNode = this._objectMapper.readTree(response.body());
-
-        // Response is in `{ "data": { "weld": { ... } } }` format
-        return resNode.get("data").get("weld");
+        // Runs `src/main/resources/queries/wf-weld.graphql`
+        // A weld and its forges rarely change, so with the query cache enabled
+        // (see `run`) repeated lookups of the same weld only hit the API once
+        // every few minutes.
+        // Response is in `{ "data": { "weld": { ... } } }` format, and we only decode `data.weld`
+        HttpResponse<GraphqlResult<JsonNode>> response = this.client.doOperation(
+                "wf-weld",
+                variables,
+                GraphqlBodyHandlers.of("data.weld", JsonNode.class)
+        );
+
+        return response.body().getDataOrThrow();
     }
 
     private JsonNode submitToWorkflowWebform(Map<String, Serializable> variables) throws IOException, InterruptedException {
         // This function will submit data to a Workflow's Webform. In our system these
         // objects are called Weld (Workflow), and Forge (webform).
-        HttpResponse<String> response = this.client.doRequest(Paths.get("src/main/resources/mutations/forge-submit.graphql"), variables);
-
-        JsonNode resNode = this._objectMapper.readTree(response.body());
-
-        // Response is in `{ "data": { "forgeSubmit": { ... } } }` format
-        return resNode.get("data").get("forgeSubmit");
+        // Runs `src/main/resources/mutations/forge-submit.graphql`
+        // Response is in `{ "data": { "forgeSubmit": { ... } } }` format, and we only decode `data.forgeSubmit`
+        HttpResponse<GraphqlResult<JsonNode>> response = this.client.doOperation(
+                "forge-submit",
+                variables,
+                GraphqlBodyHandlers.of("data.forgeSubmit", JsonNode.class)
+        );
+
+        return response.body().getDataOrThrow();
     }
 
     @Override
@@ -123,6 +135,7 @@ public class CreateUpdateWorkflowSubmission implements IRunnable {
 
         try {
             this.client = new GraphqlClient(apiKey);
+            this.client.setQueryCache(GraphqlQueryCache.getDefault());
             // Workflows are 'Weld' objects in Anvil's system
             weld = this.getWeld(weldSlug, organizationSlug);
         } catch (IOException | InterruptedException e) {
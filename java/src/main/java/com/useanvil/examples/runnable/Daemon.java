@@ -0,0 +1,355 @@
+package com.useanvil.examples.runnable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.useanvil.examples.Main;
+import com.useanvil.examples.client.GraphqlClient;
+import com.useanvil.examples.client.HttpTransport;
+import com.useanvil.examples.client.JsonCodec;
+import com.useanvil.examples.client.RestClient;
+import com.useanvil.examples.client.TransferResult;
+import com.useanvil.examples.metrics.ClientMetrics;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Example: Run the other examples as jobs in one long-running process
+//
+// Starting a JVM per PDF pays for JVM startup, class loading, JIT warm-up and
+// a TLS handshake every time. The daemon pays for them once and then runs
+// jobs as they come in, several at a time.
+//
+// ANVIL_API_KEY=<yourAPIKey> java -jar target/Examples-1.0-SNAPSHOT.jar daemon [port]
+//
+// Jobs are JSON lines, read from stdin, or from connections to
+// 127.0.0.1:<port> when a port is given (Java 11 has no Unix domain sockets):
+//
+// {"id": "1", "runnable": "fill-pdf"}
+// {"id": "2", "runnable": "bulk-fill-pdf", "arg": "records.jsonl"}
+// {"id": "3", "runnable": "bulk-etch-packet", "payload": [{"name": "...", "email": "..."}]}
+//
+// Runnables that save one PDF (`fill-pdf` and the `generate-*` ones) save it
+// to `<DAEMON_WORK_DIR>/<id>.pdf`, or to the path in `arg`. The bulk runnables
+// and `download-documents` need an input file as `arg`, or a `payload`;
+// `create-update-workflow` and `create-etch-packet` need an `arg`; the others
+// take neither. A job that doesn't fit its runnable is rejected, and so is
+// one whose id is already running.
+//
+// A `payload` is written to `<DAEMON_WORK_DIR>/<id>.jsonl`, one line per
+// array element, and passed as the argument. The job's journal and results
+// file end up next to it, so sending a job with the same id again picks up
+// where it stopped. Leave RESULTS_FILE and JOURNAL_FILE unset, or every job
+// shares them.
+//
+// Results are streamed back as JSON lines on stdout, or on the connection the
+// job came in on:
+//
+// {"id":"1","event":"started","runnable":"fill-pdf"}
+// {"id":"1","event":"finished","status":"ok","statusCode":200,"output":"output/daemon/1.pdf","bytes":48213,"checksum":"9f2c...","millis":812}
+// {"id":"2","event":"finished","status":"partial","succeeded":98,"failed":2,"resumed":0,"inDoubt":0,"millis":12301}
+// {"id":"3","event":"finished","status":"failed","millis":95,"error":"..."}
+//
+// A bulk job is `partial` when some of its rows failed, and `failed` when
+// none went through; the results file has the details.
+//
+// * DAEMON_CONCURRENCY: jobs run at once (default 4)
+// * DAEMON_WORK_DIR: where payloads are written (default `output/daemon`)
+// * DAEMON_WARM_UP: `false` to skip opening connections to the API at start
+//
+// Everything the examples print goes to stderr, so stdout only carries
+// results. Clients created by the jobs share the process's connection pool,
+// rate limit, concurrency limits and metrics, which are per process and API
+// key. The metrics are printed to stderr when stdin ends.
+
+public class Daemon implements IRunnable {
+    // Take an input file as `arg`, or a `payload`
+    private static final Set<String> TAKES_INPUT = Set.of("bulk-fill-pdf", "bulk-workflow-submission", "bulk-etch-packet", "download-documents");
+    // Need an `arg` that isn't a file
+    private static final Set<String> NEEDS_ARG = Set.of("create-update-workflow", "create-etch-packet");
+    // Never finish
+    private static final Set<String> NOT_JOBS = Set.of("daemon", "mock-server");
+
+    private final AtomicLong nextId = new AtomicLong();
+    // File names of the jobs running on any connection
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+    private final ObjectWriter json = JsonCodec.mapper().writer();
+    private ExecutorService jobs;
+    private Path workDir;
+    private String apiKey;
+
+    @Override
+    public void run(String apiKey) throws Exception {
+        PrintStream results = this.start(apiKey);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+             ResultWriter out = new ResultWriter(new OutputStreamWriter(results, StandardCharsets.UTF_8))) {
+            this.serve(in, out);
+        }
+        this.jobs.shutdown();
+        System.err.print(ClientMetrics.getDefault().summary());
+    }
+
+    @Override
+    public void run(String apiKey, String otherArg) throws Exception {
+        int port = Integer.parseInt(otherArg.trim());
+        this.start(apiKey);
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.err.println("Accepting jobs on " + server.getLocalSocketAddress());
+            while (true) {
+                Socket socket = server.accept();
+                Thread connection = new Thread(() -> this.serve(socket), "daemon-connection");
+                connection.setDaemon(true);
+                connection.start();
+            }
+        }
+    }
+
+    private PrintStream start(String apiKey) throws Exception {
+        this.apiKey = apiKey;
+        int concurrency = Integer.parseInt(Settings.env("DAEMON_CONCURRENCY", "4"));
+        this.workDir = Paths.get(Settings.env("DAEMON_WORK_DIR", "output/daemon"));
+        AtomicInteger threads = new AtomicInteger();
+        this.jobs = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "daemon-job-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        PrintStream results = System.out;
+        System.setOut(System.err);
+
+        if (Boolean.parseBoolean(Settings.env("DAEMON_WARM_UP", "true"))) {
+            // Loads the client classes and opens connections to the API, so
+            // the first jobs don't pay for them
+            long started = System.nanoTime();
+            new RestClient(apiKey);
+            new GraphqlClient(apiKey);
+            try {
+                HttpTransport.shared().warmUp(concurrency).get(10, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                // The jobs will connect themselves
+            }
+            System.err.println("Warmed up in " + (System.nanoTime() - started) / 1_000_000 + "ms");
+        }
+        return results;
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             ResultWriter out = new ResultWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            this.serve(in, out);
+        } catch (IOException e) {
+            System.err.println("Connection failed: " + e);
+        }
+    }
+
+    /**
+     * Runs every job read from `in` and waits for them all to finish.
+     */
+    private void serve(BufferedReader in, ResultWriter out) {
+        Set<CompletableFuture<Void>> running = ConcurrentHashMap.newKeySet();
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                CompletableFuture<Void> job = this.submit(line, out);
+                running.add(job);
+                job.whenComplete((ignored, throwable) -> running.remove(job));
+            }
+        } catch (IOException e) {
+            System.err.println("Reading jobs failed: " + e);
+        }
+        CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    private CompletableFuture<Void> submit(String line, ResultWriter out) {
+        String id = null;
+        String name;
+        String file;
+        String arg;
+        IRunnable runnable;
+        try {
+            JsonNode job = JsonCodec.mapper().readTree(line);
+            id = job.hasNonNull("id") ? job.get("id").asText() : "job-" + this.nextId.incrementAndGet();
+            name = job.path("runnable").asText(null);
+            if (NOT_JOBS.contains(name)) {
+                throw new IllegalArgumentException(name + " can't run as a job");
+            }
+            runnable = Main.newRunnable(name);
+            arg = job.hasNonNull("arg") ? job.get("arg").asText() : null;
+            JsonNode payload = job.hasNonNull("payload") ? job.get("payload") : null;
+            checkInput(name, runnable, arg, payload);
+
+            file = id.replaceAll("[^A-Za-z0-9._-]", "_");
+            if (!this.running.add(file)) {
+                throw new IllegalArgumentException("Job " + id + " is already running");
+            }
+            try {
+                if (payload != null) {
+                    arg = this.writePayload(file, payload).toString();
+                } else if (arg == null && runnable instanceof IPdfRunnable) {
+                    arg = this.workDir.resolve(file + ".pdf").toString();
+                }
+            } catch (Exception e) {
+                this.running.remove(file);
+                throw e;
+            }
+        } catch (Exception e) {
+            this.write(out, this.event(id, "rejected").put("error", String.valueOf(e)));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        String jobId = id;
+        String jobArg = arg;
+        return CompletableFuture.runAsync(() -> {
+            this.write(out, this.event(jobId, "started").put("runnable", name));
+            long started = System.nanoTime();
+            ObjectNode finished = this.event(jobId, "finished");
+            try {
+                if (runnable instanceof IPdfRunnable) {
+                    this.render((IPdfRunnable) runnable, Paths.get(jobArg), finished);
+                } else {
+                    if (jobArg != null) {
+                        runnable.run(this.apiKey, jobArg);
+                    } else {
+                        runnable.run(this.apiKey);
+                    }
+                    finished.put("status", "ok");
+                    if (runnable instanceof IBulkRunnable) {
+                        this.count(((IBulkRunnable) runnable).getBulkRun(), finished);
+                    }
+                }
+            } catch (Exception e) {
+                finished.put("status", "failed");
+                finished.put("error", String.valueOf(e));
+            } finally {
+                this.running.remove(file);
+            }
+            finished.put("millis", (System.nanoTime() - started) / 1_000_000);
+            this.write(out, finished);
+        }, this.jobs);
+    }
+
+    /**
+     * Throws if `runnable` doesn't take the `arg` or `payload` it was given,
+     * or needs one it wasn't.
+     */
+    private static void checkInput(String name, IRunnable runnable, String arg, JsonNode payload) {
+        if (arg != null && payload != null) {
+            throw new IllegalArgumentException("Give a job an `arg` or a `payload`, not both");
+        }
+        if (runnable instanceof IPdfRunnable) {
+            if (payload != null) {
+                throw new IllegalArgumentException(name + " takes no `payload`; its `arg` is where to save the PDF");
+            }
+        } else if (TAKES_INPUT.contains(name)) {
+            if (arg == null && payload == null) {
+                throw new IllegalArgumentException(name + " needs an input file as `arg`, or a `payload`");
+            }
+        } else if (NEEDS_ARG.contains(name)) {
+            if (arg == null) {
+                throw new IllegalArgumentException(name + " needs an `arg`");
+            }
+            if (payload != null) {
+                throw new IllegalArgumentException(name + " takes no `payload`");
+            }
+        } else if (arg != null || payload != null) {
+            throw new IllegalArgumentException(name + " takes no `arg` or `payload`");
+        }
+    }
+
+    /**
+     * Saves the PDF of `runnable` to `target` and adds the outcome, status
+     * code, size and checksum to the `finished` event.
+     */
+    private void render(IPdfRunnable runnable, Path target, ObjectNode finished) throws Exception {
+        HttpResponse<TransferResult> response = runnable.render(this.apiKey, target);
+        TransferResult result = response.body();
+        finished.put("status", result != null ? "ok" : "failed");
+        finished.put("statusCode", response.statusCode());
+        if (result != null) {
+            finished.put("output", target.toString());
+            finished.put("bytes", result.bytes);
+            finished.put("checksum", result.checksum);
+        } else {
+            finished.put("error", "HTTP " + response.statusCode());
+        }
+    }
+
+    /**
+     * Adds the row counts of a bulk job to the `finished` event. It is
+     * `partial` if some rows failed or are in doubt, and `failed` if none
+     * went through.
+     */
+    private void count(BulkRun bulk, ObjectNode finished) {
+        long failed = bulk.getFailedCount();
+        long inDoubt = bulk.getInDoubtCount();
+        long done = bulk.getSucceededCount() + bulk.getResumedCount() - inDoubt;
+        if (failed + inDoubt > 0) {
+            finished.put("status", done > 0 ? "partial" : "failed");
+        }
+        finished.put("succeeded", bulk.getSucceededCount());
+        finished.put("failed", failed);
+        finished.put("resumed", bulk.getResumedCount());
+        finished.put("inDoubt", inDoubt);
+    }
+
+    /**
+     * Writes `payload` to `<file>.jsonl`, one line per element if it is an
+     * array.
+     */
+    private Path writePayload(String file, JsonNode payload) throws IOException {
+        if (!payload.isArray() && !payload.isObject()) {
+            throw new IllegalArgumentException("payload must be an array or an object");
+        }
+        Files.createDirectories(this.workDir);
+        Path path = this.workDir.resolve(file + ".jsonl");
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            for (JsonNode record : payload.isArray() ? payload : JsonCodec.mapper().createArrayNode().add(payload)) {
+                writer.write(this.json.writeValueAsString(record));
+                writer.newLine();
+            }
+        }
+        return path;
+    }
+
+    private ObjectNode event(String id, String event) {
+        ObjectNode node = JsonCodec.mapper().createObjectNode();
+        node.put("id", id);
+        node.put("event", event);
+        return node;
+    }
+
+    private void write(ResultWriter out, ObjectNode event) {
+        try {
+            out.write(event);
+        } catch (IOException e) {
+            // The client went away; the job still runs to completion
+            System.err.println("Writing result failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.useanvil.examples.runnable;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.useanvil.examples.client.BandwidthLimiter;
+import com.useanvil.examples.client.DocumentGroupDownloader;
+import com.useanvil.examples.client.RestClient;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+// Example: Download the documents of e-sign packets via the Anvil API
+//
+// * E-sign API docs: https://www.useanvil.com/docs/api/e-signatures#downloading-documents
+//
+// ANVIL_API_KEY=<yourAPIKey> java -jar target/Examples-1.0-SNAPSHOT.jar download-documents <documentGroupEid>
+// ANVIL_API_KEY=<yourAPIKey> java -jar target/Examples-1.0-SNAPSHOT.jar download-documents <signers.csv.results.jsonl>
+//
+// Downloads one document group, or every `documentGroupEid` in a CSV or JSONL
+// file such as the results file of `bulk-etch-packet`, as
+// `<DOWNLOAD_DIR>/<documentGroupEid>.zip` (default directory `documents`).
+//
+// With DOWNLOAD_UNZIP=true each group is instead unpacked into
+// `<DOWNLOAD_DIR>/<documentGroupEid>/` as it downloads.
+//
+// Downloads are written to a `.part` file (or directory) first and only get
+// their final name once complete. Groups that are already there are skipped,
+// and a ZIP download that breaks off, or that was interrupted in an earlier
+// run, continues where it stopped, so it's safe to simply run the script
+// again.
+//
+// At most BULK_CONCURRENCY (default 8) groups download at once. Set
+// DOWNLOAD_MB_PER_SECOND to cap their combined bandwidth.
+
+public class DownloadDocuments implements IRunnable {
+
+    private static List<String> getDocumentGroupEids(String arg) throws Exception {
+        List<String> eids = new ArrayList<>();
+        if (!Files.isRegularFile(Paths.get(arg))) {
+            eids.add(arg);
+            return eids;
+        }
+        try (BulkInput input = BulkInput.open(Paths.get(arg))) {
+            ObjectNode row;
+            while ((row = input.next()) != null) {
+                // e.g. a `bulk-etch-packet` row that failed
+                String eid = row.path("documentGroupEid").asText("");
+                if (!eid.isEmpty()) {
+                    eids.add(eid);
+                }
+            }
+        }
+        return eids;
+    }
+
+    /**
+     * Unpacks the group into `<directory>.part/` and renames that to
+     * `directory` once every file is there.
+     */
+    private static CompletableFuture<List<Path>> unzip(DocumentGroupDownloader downloader, String eid, Path directory) {
+        Path part = directory.resolveSibling(directory.getFileName() + ".part");
+        return downloader.unzip(eid, part).thenApply(files -> {
+            try {
+                Files.move(part, directory, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            return files.stream().map(file -> directory.resolve(part.relativize(file))).collect(Collectors.toList());
+        });
+    }
+
+    @Override
+    public void run(String apiKey) throws Exception {
+        throw new Exception("This runnable should use `run(apiKey, documentGroupEid)`");
+    }
+
+    @Override
+    public void run(String apiKey, String arg) throws Exception {
+        Path directory = Paths.get(Settings.env("DOWNLOAD_DIR", "documents"));
+        boolean unzip = Boolean.parseBoolean(Settings.env("DOWNLOAD_UNZIP", "false"));
+        String megabytesPerSecond = Settings.env("DOWNLOAD_MB_PER_SECOND", null);
+        int concurrency = BulkRun.getConcurrency();
+
+        RestClient client = new RestClient(apiKey);
+        if (megabytesPerSecond != null) {
+            client.setBandwidthLimiter(new BandwidthLimiter((long) (Double.parseDouble(megabytesPerSecond) * 1024 * 1024)));
+        }
+        DocumentGroupDownloader downloader = new DocumentGroupDownloader(client, concurrency);
+        Files.createDirectories(directory);
+
+        List<String> eids = getDocumentGroupEids(arg);
+        System.out.println("Downloading " + eids.size() + " document groups to " + directory + " with concurrency " + concurrency);
+
+        long start = System.nanoTime();
+        List<CompletableFuture<?>> downloads = new ArrayList<>();
+        int skipped = 0;
+        for (String eid : eids) {
+            Path target = directory.resolve(unzip ? eid : eid + ".zip");
+            if (Files.exists(target)) {
+                // Finished in an earlier run
+                skipped++;
+                continue;
+            }
+            CompletableFuture<?> download = unzip
+                    ? unzip(downloader, eid, target)
+                    : downloader.download(eid, target);
+            downloads.add(download.whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                    System.out.println(eid + ": failed, " + cause);
+                } else {
+                    System.out.println(eid + ": " + result);
+                }
+            }));
+        }
+        try {
+            CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException ignored) {
+            // Already reported above
+        }
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.println("Downloads finished");
+        if (skipped > 0) {
+            System.out.println(skipped + " already downloaded, skipped");
+        }
+        System.out.printf("%s in %.1fs%n", downloader.summary(), seconds);
+        System.out.print(client.getMetrics().summary());
+    }
+}
@@ -2,6 +2,8 @@ package com.useanvil.examples.runnable;
 
 import com.useanvil.examples.Constants;
 import com.useanvil.examples.client.RestClient;
+import com.useanvil.examples.client.StreamingBodyHandlers;
+import com.useanvil.examples.client.TransferResult;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
@@ -23,10 +25,30 @@ import java.nio.file.*;
 //
 // ANVIL_API_KEY=<yourAPIKey> java -jar target/Examples-1.0-SNAPSHOT.jar fill-pdf
 // && open output/fill-output.pdf
+//
+// Pass a path to save the filled PDF there instead:
+//
+// ANVIL_API_KEY=<yourAPIKey> java -jar target/Examples-1.0-SNAPSHOT.jar fill-pdf output/my-fill.pdf
+
+public class FillPdf implements IPdfRunnable {
+    @Override
+    public void run(String apiKey) throws Exception {
+        this.run(apiKey, "output/fill-output.pdf");
+    }
 
-public class FillPdf implements IRunnable {
     @Override
-    public void run(String apiKey) {
+    public void run(String apiKey, String outputPath) throws Exception {
+        HttpResponse<TransferResult> response = this.render(apiKey, Paths.get(outputPath));
+        TransferResult result = response.body();
+        if (result == null) {
+            throw new Exception("Fill PDF did not finish successfully: HTTP " + response.statusCode());
+        }
+        System.out.println("Fill PDF finished");
+        System.out.println("Wrote " + result.bytes + " bytes, sha256: " + result.checksum);
+    }
+
+    @Override
+    public HttpResponse<TransferResult> render(String apiKey, Path target) throws IOException {
         // The PDF template ID to fill. This PDF template ID is a sample template
         // available to anyone.
         //
@@ -41,35 +63,27 @@ public class FillPdf implements IRunnable {
             throw new RuntimeException(e);
         }
 
+        Files.createDirectories(target.toAbsolutePath().getParent());
         RestClient client = new RestClient(apiKey);
-        HttpResponse<byte[]> response;
         try {
             // response data will be the filled PDF binary data. It is important that the
             // data is saved with no encoding! Otherwise, the PDF file will be corrupt.
-            response = client.fillPdf(pdfTemplateEid, payload);
+            //
+            // The PDF is streamed straight into the output file as it arrives, so it is
+            // never held in memory in full. If you need the bytes in memory instead, use
+            // the `fillPdf(templateId, payload)` overload which returns a `byte[]`.
+            return client.fillPdf(pdfTemplateEid, payload, StreamingBodyHandlers.ofPathOnSuccess(target));
 
             // You can also provide a version number if you'd like to fill a specific version
             // of the template.
             // See `Constants.LATEST_VERSION_INT` and `Constants.PUBLISHED_VERSION_INT` for more
             // details on special version numbers.
-            // response = client.fillPdf(pdfTemplateEid, payload, Constants.LATEST_VERSION_INT);
+            // return client.fillPdf(pdfTemplateEid, payload, Constants.LATEST_VERSION_INT, StreamingBodyHandlers.ofPathOnSuccess(target));
         } catch (IOException | InterruptedException e) {
+            System.out.println("Fill PDF did not finish successfully");
             throw new RuntimeException(e);
         // You will also need this catch clause if you use the `fillPdf` method that includes versionNumber.
         // } catch (URISyntaxException e ) {
         }
-
-        try {
-            Files.write(Paths.get("output/fill-output.pdf"), response.body());
-            System.out.println("Fill PDF finished");
-        } catch (IOException e) {
-            System.out.println("Fill PDF did not finish successfully");
-            throw new RuntimeException(e);
-        }
-    }
-
-    @Override
-    public void run(String apiKey, String otherArg) throws Exception {
-
     }
 }
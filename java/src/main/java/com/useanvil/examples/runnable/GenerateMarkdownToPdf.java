@@ -1,10 +1,13 @@
 package com.useanvil.examples.runnable;
 
 import com.useanvil.examples.client.RestClient;
+import com.useanvil.examples.client.StreamingBodyHandlers;
+import com.useanvil.examples.client.TransferResult;
 
 import java.io.IOException;
 import java.net.http.HttpResponse;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
 // Example: Generate a PDF from Markdown via the Anvil API
@@ -22,10 +25,30 @@ import java.nio.file.Paths;
 //
 // ANVIL_API_KEY=<yourAPIKey> java -jar target/Examples-1.0-SNAPSHOT.jar generate-markdown-to-pdf \
 //   && open output/generate-markdown-output.pdf
+//
+// Pass a path to save the PDF there instead:
+//
+// ANVIL_API_KEY=<yourAPIKey> java -jar target/Examples-1.0-SNAPSHOT.jar generate-markdown-to-pdf output/my.pdf
+
+public class GenerateMarkdownToPdf implements IPdfRunnable {
+    @Override
+    public void run(String apiKey) throws Exception {
+        this.run(apiKey, "output/generate-markdown-output.pdf");
+    }
+
+    @Override
+    public void run(String apiKey, String outputPath) throws Exception {
+        HttpResponse<TransferResult> response = this.render(apiKey, Paths.get(outputPath));
+        TransferResult result = response.body();
+        if (result == null) {
+            throw new Exception("Fill PDF did not finish successfully: HTTP " + response.statusCode());
+        }
+        System.out.println("Fill PDF finished");
+        System.out.println("Wrote " + result.bytes + " bytes, sha256: " + result.checksum);
+    }
 
-public class GenerateMarkdownToPdf implements IRunnable {
     @Override
-    public void run(String apiKey) {
+    public HttpResponse<TransferResult> render(String apiKey, Path target) throws IOException {
         String payload;
 
         try {
@@ -34,27 +57,16 @@ public class GenerateMarkdownToPdf implements IRunnable {
             throw new RuntimeException(e);
         }
 
+        Files.createDirectories(target.toAbsolutePath().getParent());
         RestClient client = new RestClient(apiKey);
-        HttpResponse<byte[]> response;
         try {
             // response data will be the filled PDF binary data. It is important that the
             // data is saved with no encoding! Otherwise, the PDF file will be corrupt.
-            response = client.generatePdf(payload);
+            // The PDF is streamed straight into the output file as it arrives.
+            return client.generatePdf(payload, StreamingBodyHandlers.ofPathOnSuccess(target));
         } catch (IOException | InterruptedException e) {
-            throw new RuntimeException(e);
-        }
-
-        try {
-            Files.write(Paths.get("output/generate-markdown-output.pdf"), response.body());
-            System.out.println("Fill PDF finished");
-        } catch (IOException e) {
             System.out.println("Fill PDF did not finish successfully");
             throw new RuntimeException(e);
         }
     }
-
-    @Override
-    public void run(String apiKey, String otherArg) throws Exception {
-
-    }
 }
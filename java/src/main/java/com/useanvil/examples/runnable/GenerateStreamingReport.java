@@ -0,0 +1,78 @@
+package com.useanvil.examples.runnable;
+
+import com.useanvil.examples.client.RestClient;
+import com.useanvil.examples.client.StreamingBodyHandlers;
+import com.useanvil.examples.client.StreamingGeneratePayload;
+import com.useanvil.examples.client.TransferResult;
+
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+
+// Example: Generate a very large PDF from Markdown via the Anvil API
+//
+// * PDF generation API docs: https://www.useanvil.com/docs/api/generate-pdf
+//
+// ANVIL_API_KEY=<yourAPIKey> REPORT_ROWS=100000 java -jar target/Examples-1.0-SNAPSHOT.jar generate-streaming-report
+//
+// The report's table rows are written into the request body while it is
+// being sent, instead of building the whole payload first, so memory use
+// stays the same whether the report has a hundred rows or a million. Here
+// they are made up.
+//
+// The callback runs again whenever the request is retried, so it must be
+// able to write every row again. Read real rows from inside it, e.g. by
+// running the database query there, rather than from a cursor opened
+// beforehand: a cursor can only be read once.
+//
+// The PDF is saved to `output/generate-streaming-report.pdf`, or to the path
+// given after `generate-streaming-report`.
+
+public class GenerateStreamingReport implements IPdfRunnable {
+
+    @Override
+    public void run(String apiKey) throws Exception {
+        this.run(apiKey, "output/generate-streaming-report.pdf");
+    }
+
+    @Override
+    public void run(String apiKey, String outputPath) throws Exception {
+        RestClient client = new RestClient(apiKey);
+        HttpResponse<TransferResult> response = this.render(client, Paths.get(outputPath));
+        TransferResult result = response.body();
+        if (result == null) {
+            throw new Exception("Generate PDF did not finish successfully: HTTP " + response.statusCode());
+        }
+        System.out.println("Generate PDF finished");
+        System.out.println("Wrote " + result.bytes + " bytes, sha256: " + result.checksum);
+        System.out.print(client.getMetrics().summary());
+    }
+
+    @Override
+    public HttpResponse<TransferResult> render(String apiKey, Path target) throws Exception {
+        return this.render(new RestClient(apiKey), target);
+    }
+
+    private HttpResponse<TransferResult> render(RestClient client, Path target) throws Exception {
+        int rows = Integer.parseInt(Settings.env("REPORT_ROWS", "10000"));
+        LocalDate start = LocalDate.of(2024, 1, 1);
+
+        // Runs once per attempt; everything it writes is produced in here
+        StreamingGeneratePayload payload = StreamingGeneratePayload.markdown("Transaction report", markdown -> {
+            markdown.heading("Transactions");
+            markdown.content("Every transaction, " + rows + " in total.");
+            StreamingGeneratePayload.TableWriter table = markdown.table(true);
+            table.row("Date", "Reference", "Amount");
+            for (int i = 0; i < rows; i++) {
+                table.row(start.plusDays(i % 365).toString(), String.format("TX-%07d", i), String.format("$%d.%02d", i % 1000, i % 100));
+            }
+            table.close();
+            markdown.content("_End of report_");
+        });
+
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        return client.generatePdf(payload, StreamingBodyHandlers.ofPathOnSuccess(target));
+    }
+}
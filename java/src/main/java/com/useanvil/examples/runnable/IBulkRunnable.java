@@ -0,0 +1,14 @@
+package com.useanvil.examples.runnable;
+
+/**
+ * A runnable that works through the rows of an input file. How many rows
+ * succeeded or failed only shows in its results file, so the daemon asks it
+ * for the counts to tell a failed job from one that went through.
+ */
+interface IBulkRunnable extends IRunnable {
+
+    /**
+     * @return The counts of the last `run`, or `null` if it hasn't started
+     */
+    BulkRun getBulkRun();
+}
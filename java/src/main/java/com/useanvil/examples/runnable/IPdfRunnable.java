@@ -0,0 +1,22 @@
+package com.useanvil.examples.runnable;
+
+import com.useanvil.examples.client.TransferResult;
+
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+
+/**
+ * A runnable that saves one PDF. `run(apiKey, outputPath)` saves it to
+ * `outputPath` instead of its usual file, and the daemon gives every job its
+ * own one this way.
+ */
+interface IPdfRunnable extends IRunnable {
+
+    /**
+     * Saves the PDF to `target`, which is left alone unless the response is a
+     * 2xx.
+     *
+     * @return The response, whose body is `null` if it wasn't a 2xx
+     */
+    HttpResponse<TransferResult> render(String apiKey, Path target) throws Exception;
+}
@@ -1,12 +1,13 @@
 package com.useanvil.examples.runnable;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.useanvil.examples.client.GraphqlBodyHandlers;
 import com.useanvil.examples.client.GraphqlClient;
+import com.useanvil.examples.client.GraphqlQueryCache;
+import com.useanvil.examples.client.GraphqlResult;
 
 import java.io.IOException;
 import java.net.http.HttpResponse;
-import java.nio.file.Paths;
 
 // Example: Make an arbitrary GraphQL request to the Anvil API
 //
@@ -24,16 +25,23 @@ import java.nio.file.Paths;
 public class MakeGraphqlRequest implements IRunnable {
     @Override
     public void run(String apiKey) {
-        ObjectMapper om = new ObjectMapper();
-
         try {
             GraphqlClient client = new GraphqlClient(apiKey);
-            HttpResponse<String> response = client.doRequest(Paths.get("src/main/resources/queries/current-user.graphql"));
-            String res = response.body();
-            JsonNode resNode = om.readTree(res);
-
-            // Response is in `{ "data": { "currentUser": { ... } } }` format
-            JsonNode currentUser = resNode.get("data").get("currentUser");
+            // Queries (never mutations) are answered from memory for a few
+            // minutes after the first response. Handy when the same lookup is
+            // made many times, e.g. by a long-running job.
+            client.setQueryCache(GraphqlQueryCache.getDefault());
+            // Runs `src/main/resources/queries/current-user.graphql`
+            //
+            // Response is in `{ "data": { "currentUser": { ... } } }` format. The
+            // body handler decodes the response as it arrives and only keeps
+            // `data.currentUser` (and `errors`, if there are any).
+            HttpResponse<GraphqlResult<JsonNode>> response = client.doOperation(
+                    "current-user",
+                    null,
+                    GraphqlBodyHandlers.of("data.currentUser", JsonNode.class)
+            );
+            JsonNode currentUser = response.body().getDataOrThrow();
 
             // Get the first org
             JsonNode organization = currentUser.get("organizations").get(0);
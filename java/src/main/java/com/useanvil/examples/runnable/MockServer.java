@@ -0,0 +1,97 @@
+package com.useanvil.examples.runnable;
+
+import com.useanvil.examples.mock.LatencyDistribution;
+import com.useanvil.examples.mock.MockAnvilServer;
+
+import java.util.concurrent.CountDownLatch;
+
+// Example: Run a local stand-in for the Anvil API
+//
+// Useful for load and latency testing the other examples without spending API
+// credits or hitting your plan's rate limit. Nothing is actually filled or
+// signed; the server answers with canned data and fake PDFs.
+//
+// ANVIL_API_KEY=test java -jar target/Examples-1.0-SNAPSHOT.jar mock-server [port]
+//
+// Then point any example at it from another terminal:
+//
+// ANVIL_BASE_URL=http://localhost:8089 ANVIL_RATE_LIMIT=100 ANVIL_API_KEY=test \
+//   java -jar target/Examples-1.0-SNAPSHOT.jar bulk-fill-pdf records.jsonl
+//
+// The server is configured with environment variables:
+//
+// * MOCK_LATENCY: `none`, `fixed:<ms>`, `uniform:<min>:<max>` or
+//   `lognormal:<median>:<p99>` for every endpoint (default `none`)
+// * MOCK_FILL_LATENCY, MOCK_GENERATE_LATENCY, MOCK_GRAPHQL_LATENCY,
+//   MOCK_DOWNLOAD_LATENCY: the same, per endpoint
+// * MOCK_ERROR_RATE: share of requests answered with a 5xx, e.g. `0.01`
+// * MOCK_THROTTLE_RATE: share of requests answered with a 429
+// * MOCK_RATE_LIMIT: requests per second above which requests get a 429
+// * MOCK_PDF_SIZE: size of the returned PDFs in bytes (default 65536)
+// * MOCK_ZIP_FILES: number of PDFs in document group zips (default 2)
+// * MOCK_LIST_SIZE: length of lists in GraphQL responses (default 3)
+
+public class MockServer implements IRunnable {
+    private static final int DEFAULT_PORT = 8089;
+
+    private static String env(String name) {
+        return Settings.env(name, null);
+    }
+
+    static MockAnvilServer.Builder configure(MockAnvilServer.Builder builder) {
+        if (env("MOCK_LATENCY") != null) {
+            builder.latency(LatencyDistribution.parse(env("MOCK_LATENCY")));
+        }
+        for (MockAnvilServer.Endpoint endpoint : MockAnvilServer.Endpoint.values()) {
+            String latency = env("MOCK_" + endpoint.name() + "_LATENCY");
+            if (latency != null) {
+                builder.latency(endpoint, LatencyDistribution.parse(latency));
+            }
+        }
+        if (env("MOCK_ERROR_RATE") != null) {
+            builder.errorRate(Double.parseDouble(env("MOCK_ERROR_RATE")));
+        }
+        if (env("MOCK_THROTTLE_RATE") != null) {
+            builder.throttleRate(Double.parseDouble(env("MOCK_THROTTLE_RATE")));
+        }
+        if (env("MOCK_RATE_LIMIT") != null) {
+            builder.rateLimit(Integer.parseInt(env("MOCK_RATE_LIMIT")));
+        }
+        if (env("MOCK_PDF_SIZE") != null) {
+            builder.pdfSize(Integer.parseInt(env("MOCK_PDF_SIZE")));
+        }
+        if (env("MOCK_ZIP_FILES") != null) {
+            builder.zipFiles(Integer.parseInt(env("MOCK_ZIP_FILES")));
+        }
+        if (env("MOCK_LIST_SIZE") != null) {
+            builder.listSize(Integer.parseInt(env("MOCK_LIST_SIZE")));
+        }
+        return builder;
+    }
+
+    @Override
+    public void run(String apiKey) throws Exception {
+        this.run(apiKey, String.valueOf(DEFAULT_PORT));
+    }
+
+    @Override
+    public void run(String apiKey, String port) throws Exception {
+        MockAnvilServer server = configure(MockAnvilServer.newBuilder())
+                .port(Integer.parseInt(port))
+                .start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            System.out.printf(
+                    "%nServed %d requests (%d throttled, %d failed)%n",
+                    server.getRequestCount(),
+                    server.getThrottledCount(),
+                    server.getErrorCount()
+            );
+        }));
+
+        System.out.println("Mock Anvil API listening on " + server.getBaseUrl());
+        System.out.println("Use ANVIL_BASE_URL=" + server.getBaseUrl() + " to send the examples here. Ctrl+C to stop.");
+        new CountDownLatch(1).await();
+    }
+}
@@ -0,0 +1,45 @@
+package com.useanvil.examples.runnable;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.useanvil.examples.client.JsonCodec;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes one JSON object per line as results come in, from any thread.
+ * Every line is flushed right away, so the file can be followed with
+ * `tail -f` and holds every finished row if the run is interrupted.
+ */
+class ResultWriter implements Closeable {
+    private final BufferedWriter writer;
+    private final ObjectWriter json = JsonCodec.mapper().writer();
+
+    ResultWriter(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.writer = Files.newBufferedWriter(file);
+    }
+
+    ResultWriter(Writer writer) {
+        this.writer = new BufferedWriter(writer);
+    }
+
+    synchronized void write(ObjectNode result) throws IOException {
+        this.writer.write(this.json.writeValueAsString(result));
+        this.writer.newLine();
+        this.writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.writer.close();
+    }
+}
@@ -0,0 +1,17 @@
+package com.useanvil.examples.runnable;
+
+/**
+ * Reads the environment variables the runnables are configured with.
+ */
+final class Settings {
+    private Settings() {
+    }
+
+    /**
+     * The trimmed value of `name`, or `defaultValue` if it is unset or blank.
+     */
+    static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+}